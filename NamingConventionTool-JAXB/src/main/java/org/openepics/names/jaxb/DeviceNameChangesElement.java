@@ -0,0 +1,34 @@
+package org.openepics.names.jaxb;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+import java.util.List;
+
+/**
+ * Data transfer object representing the device names changed since a cursor, for JSON and XML serialization.
+ */
+@XmlRootElement
+public class DeviceNameChangesElement {
+
+    private List<DeviceNameElement> deviceNames;
+    private Long next;
+
+    public DeviceNameChangesElement() {}
+
+    public DeviceNameChangesElement(List<DeviceNameElement> deviceNames, Long next) {
+        setDeviceNames(deviceNames);
+        setNext(next);
+    }
+
+    /**
+     * The current data of the changed device names, including names that became obsolete or were deleted.
+     */
+    public List<DeviceNameElement> getDeviceNames() { return deviceNames; }
+    public void setDeviceNames(List<DeviceNameElement> deviceNames) { this.deviceNames = deviceNames; }
+
+    /**
+     * The cursor to be passed as the since parameter of the next changes request.
+     */
+    public Long getNext() { return next; }
+    public void setNext(Long next) { this.next = next; }
+}
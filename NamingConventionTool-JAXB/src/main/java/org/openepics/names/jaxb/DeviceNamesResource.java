@@ -1,11 +1,14 @@
 package org.openepics.names.jaxb;
 
-import java.util.List;
-
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
 
 /**
  * This resource provides bulk device name data, and has a subresource for retrieving data of specific
@@ -17,9 +20,41 @@ import javax.ws.rs.core.MediaType;
 @Path("deviceNames")
 public interface DeviceNamesResource {
 
+	/**
+	 * Returns the device names meeting the given criteria, all of them if none is given, in the order of their names.
+	 * With a limit, the names are returned one page at a time: a full page links to the next one with a Link header
+	 * of relation next, which repeats the request with the last name of the page as the after parameter.
+	 *
+	 * @param section the mnemonic of the section, null for all
+	 * @param subSection the mnemonic of the subsection, null for all
+	 * @param discipline the mnemonic of the discipline, null for all
+	 * @param deviceType the mnemonic of the device type, null for all
+	 * @param status the status of the names, one of ACTIVE, OBSOLETE or DELETED, null for all
+	 * @param name the pattern of the names, where * matches any sequence of characters and ? a single character; a
+	 * pattern without wildcards matches only the equal name. Null for all.
+	 * @param after the name after which the page starts, null for the first page
+	 * @param limit the largest number of names to return, null for no limit
+	 * @param uriInfo the request URI, used to link to the next page
+	 * @param request the request, used to choose between the XML and JSON representations and to evaluate its
+	 * conditions
+	 * @return the device names as a list of {@link DeviceNameElement}s, streamed to the client as they are written, or
+	 * 304 Not Modified if the client's copy is still current
+	 */
 	@GET
     @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
-    public List<DeviceNameElement> getAllDeviceNames();
+    public Response getAllDeviceNames(@QueryParam("section") String section, @QueryParam("subsection") String subSection, @QueryParam("discipline") String discipline, @QueryParam("deviceType") String deviceType, @QueryParam("status") String status, @QueryParam("name") String name, @QueryParam("after") String after, @QueryParam("limit") Integer limit, @Context UriInfo uriInfo, @Context Request request);
+
+	/**
+	 * Returns the device names created, renamed, made obsolete or deleted since the given cursor, together with the
+	 * cursor for the next request. Without a cursor, all device names are returned. The cursor is the position in the
+	 * naming change log, which is ordered by commit, so no change is ever skipped. The names are returned with their
+	 * current data, which may already include changes after the returned cursor; such names are returned again by the
+	 * next request. A cursor older than the retention period of the change log is answered with all device names.
+	 */
+	@GET
+	@Path("changes")
+	@Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
+	public DeviceNameChangesElement getDeviceNameChanges(@QueryParam("since") Long since);
 
 	@Path("{uuid}")
 	public SpecificDeviceNameResource getSpecificDeviceNameSubresource();
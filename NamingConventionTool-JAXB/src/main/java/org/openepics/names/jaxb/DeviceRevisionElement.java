@@ -0,0 +1,54 @@
+package org.openepics.names.jaxb;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Data transfer object representing a revision in the history of a device for JSON and XML serialization.
+ */
+@XmlRootElement
+public class DeviceRevisionElement {
+
+    private Long id;
+    private UUID uuid;
+    private String name;
+    private String status;
+    private Date requestDate;
+    private String requestedBy;
+    private String additionalInfo;
+
+    public DeviceRevisionElement() {}
+
+    public DeviceRevisionElement(Long id, UUID uuid, String name, String status) {
+        setId(id);
+        setUuid(uuid);
+        setName(name);
+        setStatus(status);
+    }
+
+    /**
+     * The ID of the revision, to be passed as the before or after parameter of the history request for the next page.
+     */
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public UUID getUuid() { return uuid; }
+    public void setUuid(UUID uuid) { this.uuid = uuid; }
+
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public Date getRequestDate() { return requestDate; }
+    public void setRequestDate(Date requestDate) { this.requestDate = requestDate; }
+
+    public String getRequestedBy() { return requestedBy; }
+    public void setRequestedBy(String requestedBy) { this.requestedBy = requestedBy; }
+
+    public String getAdditionalInfo() { return additionalInfo; }
+    public void setAdditionalInfo(String additionalInfo) { this.additionalInfo = additionalInfo; }
+}
@@ -1,9 +1,17 @@
 package org.openepics.names.jaxb;
 
+import java.util.List;
+
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 
 /**
  * This resource provides specific device name data.
@@ -12,7 +20,21 @@ import javax.ws.rs.core.MediaType;
  * @author Sunil Sah  
  */
 public interface SpecificDeviceNameResource {
+    /**
+     * Returns the {@link DeviceNameElement} of the device with the given UUID, or of the given device name. Responds
+     * with 304 Not Modified if the client's copy is still current, and with no content if there is no such device.
+     */
+    @GET
+    @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
+    public Response getDeviceName(@PathParam("uuid") String reqUuid, @Context Request request);
+
+    /**
+     * Returns a page of the revision history of the device, ordered by revision ID. Without before and after, the page
+     * holds the latest revisions, latest first. With before, it holds the revisions preceding the given one, latest
+     * first; with after, the revisions following the given one, oldest first.
+     */
     @GET
+    @Path("history")
     @Produces({MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON})
-    public DeviceNameElement getDeviceName(@PathParam("uuid") String reqUuid);
+    public List<DeviceRevisionElement> getDeviceNameHistory(@PathParam("uuid") String reqUuid, @QueryParam("before") Long before, @QueryParam("after") Long after, @DefaultValue("50") @QueryParam("limit") int limit);
 }
@@ -18,7 +18,9 @@
 
 package org.openepics.names.model;
 
+import javax.annotation.Nullable;
 import javax.persistence.Entity;
+import java.util.Date;
 
 /**
  * A singleton entity representing the installed Naming Tool application. At the moment the presence of this entity is
@@ -35,8 +37,23 @@ public class AppInfo extends Persistable {
 	 */
 	private static final long serialVersionUID = 8040585866896629942L;
 	private int schemaVersion;
+
+    private @Nullable Date heartbeat;
+
+    private @Nullable Long changeLogPrunedThrough;
   
     public int getSchemaVersion() { return schemaVersion; }
     
     public void incrementSchemaVersion() { schemaVersion++; }
+
+    /**
+     * @return The time the primary database was last known to be alive, used to measure the lag of read replicas.
+     */
+    public @Nullable Date getHeartbeat() { return heartbeat; }
+
+    /**
+     * @return The ID of the last naming change log entry deleted by the retention job, null if the log was never
+     * pruned. Readers positioned before it have missed changes and must start over from the current data.
+     */
+    public @Nullable Long getChangeLogPrunedThrough() { return changeLogPrunedThrough; }
 }
@@ -0,0 +1,90 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.model;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+import javax.persistence.Entity;
+import javax.persistence.ManyToOne;
+import java.util.Date;
+
+/**
+ * A superseded revision of a device moved out of the DeviceRevision table, so that the table holding the revisions
+ * that current-state queries touch stays small. The revision keeps the ID it had before archival.
+ */
+@Entity
+public class ArchivedDeviceRevision extends Persistable {
+
+    private static final long serialVersionUID = 2810395683326547120L;
+
+    private Long revisionId;
+    private @ManyToOne Device device;
+    private @ManyToOne @Nullable UserAccount requestedBy;
+    private Date requestDate;
+    private boolean deleted;
+    private @ManyToOne NamePart section;
+    private @ManyToOne NamePart deviceType;
+    private @Nullable String instanceIndex;
+    private String conventionName;
+    private String conventionNameEqClass;
+    private @Nullable String additionalInfo;
+
+    protected ArchivedDeviceRevision() {}
+
+    /**
+     * @param revision the superseded revision to archive
+     */
+    public ArchivedDeviceRevision(DeviceRevision revision) {
+        Preconditions.checkNotNull(revision.getId());
+        this.revisionId = revision.getId();
+        this.device = revision.getDevice();
+        this.requestedBy = revision.getRequestedBy();
+        this.requestDate = revision.getRequestDate();
+        this.deleted = revision.isDeleted();
+        this.section = revision.getSection();
+        this.deviceType = revision.getDeviceType();
+        this.instanceIndex = revision.getInstanceIndex();
+        this.conventionName = revision.getConventionName();
+        this.conventionNameEqClass = revision.getConventionNameEqClass();
+        this.additionalInfo = revision.getAdditionalInfo();
+    }
+
+    /**
+     * @return The ID the revision had before archival.
+     */
+    public Long getRevisionId() { return revisionId; }
+
+    /**
+     * @return The device the revision pertains to.
+     */
+    public Device getDevice() { return device; }
+
+    /**
+     * Restores the revision as it was before archival, for display in the revision history. The restored revision is
+     * not managed by the persistence context and must not be persisted.
+     *
+     * @return the restored revision
+     */
+    public DeviceRevision toRevision() {
+        final DeviceRevision revision = new DeviceRevision(device, requestDate, requestedBy, deleted, section, deviceType, instanceIndex, conventionName, conventionNameEqClass, additionalInfo);
+        revision.id = revisionId;
+        return revision;
+    }
+}
@@ -0,0 +1,107 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.model;
+
+import com.google.common.base.Preconditions;
+import org.openepics.names.util.As;
+
+import javax.annotation.Nullable;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.ManyToOne;
+import java.util.Date;
+
+/**
+ * A superseded revision of a name part moved out of the NamePartRevision table, so that the table holding the
+ * revisions that current-state queries touch stays small. The revision keeps the ID it had before archival.
+ */
+@Entity
+public class ArchivedNamePartRevision extends Persistable {
+
+    private static final long serialVersionUID = -4862253207469101635L;
+
+    private Long revisionId;
+    private @ManyToOne NamePart namePart;
+    private Date requestDate;
+    private @ManyToOne @Nullable UserAccount requestedBy;
+    private @Nullable String requesterComment;
+    private boolean deleted;
+    private @ManyToOne @Nullable NamePart parent;
+    private String name;
+    private @Nullable String mnemonic;
+    private @Nullable String description;
+    private @Nullable String mnemonicEqClass;
+
+    @Enumerated(EnumType.STRING)
+    private NamePartRevisionStatus status;
+
+    private @ManyToOne @Nullable UserAccount processedBy;
+    private @Nullable Date processDate;
+    private @Nullable String processorComment;
+
+    protected ArchivedNamePartRevision() {}
+
+    /**
+     * @param revision the superseded revision to archive
+     */
+    public ArchivedNamePartRevision(NamePartRevision revision) {
+        Preconditions.checkNotNull(revision.getId());
+        this.revisionId = revision.getId();
+        this.namePart = revision.getNamePart();
+        this.requestDate = revision.getRequestDate();
+        this.requestedBy = revision.getRequestedBy();
+        this.requesterComment = revision.getRequesterComment();
+        this.deleted = revision.isDeleted();
+        this.parent = revision.getParent();
+        this.name = revision.getName();
+        this.mnemonic = revision.getMnemonic();
+        this.description = revision.getDescription();
+        this.mnemonicEqClass = revision.getMnemonicEqClass();
+        this.status = revision.getStatus();
+        this.processedBy = revision.getProcessedBy();
+        this.processDate = revision.getProcessDate();
+        this.processorComment = revision.getProcessorComment();
+    }
+
+    /**
+     * @return The ID the revision had before archival.
+     */
+    public Long getRevisionId() { return revisionId; }
+
+    /**
+     * @return The name part the revision pertains to.
+     */
+    public NamePart getNamePart() { return namePart; }
+
+    /**
+     * Restores the revision as it was before archival, for display in the revision history. The restored revision is
+     * not managed by the persistence context and must not be persisted.
+     *
+     * @return the restored revision
+     */
+    public NamePartRevision toRevision() {
+        final NamePartRevision revision = new NamePartRevision(namePart, requestDate, requestedBy, requesterComment, deleted, parent, name, mnemonic, description, mnemonicEqClass);
+        if (status != NamePartRevisionStatus.PENDING) {
+            revision.updateAsProcessed(status, As.notNull(processDate), processedBy, processorComment);
+        }
+        revision.id = revisionId;
+        return revision;
+    }
+}
@@ -19,8 +19,10 @@ package org.openepics.names.model;
 
 import com.google.common.base.Preconditions;
 
+import javax.annotation.Nullable;
+import javax.persistence.Cacheable;
 import javax.persistence.Entity;
-import java.util.Objects;
+import javax.persistence.Transient;
 import java.util.UUID;
 
 /**
@@ -29,11 +31,15 @@ import java.util.UUID;
  * @author Marko Kolar
  */
 @Entity
+@Cacheable
 public class Device extends Persistable {
 
 	private static final long serialVersionUID = 8489649071981076533L;
 	private String uuid;
 
+    @Transient
+    private transient @Nullable UUID parsedUuid;
+
     protected Device() {}
 
     /**
@@ -42,12 +48,20 @@ public class Device extends Persistable {
     public Device(UUID uuid) {
         Preconditions.checkNotNull(uuid);
         this.uuid = uuid.toString();
+        this.parsedUuid = uuid;
     }
 
     /**
      * @return The universally unique identifier.
      */
-    public UUID getUuid() { return UUID.fromString(uuid); }
+    public UUID getUuid() {
+        @Nullable UUID result = parsedUuid;
+        if (result == null) {
+            result = UUID.fromString(uuid);
+            parsedUuid = result;
+        }
+        return result;
+    }
 
     @Override public boolean equals(Object other) {
         return other instanceof Device && ((Device) other).getUuid().equals(getUuid());
@@ -55,6 +69,6 @@ public class Device extends Persistable {
 
     @Override
     public int hashCode() {
-        return Objects.hash(getUuid());
+        return getUuid().hashCode();
     }
 }
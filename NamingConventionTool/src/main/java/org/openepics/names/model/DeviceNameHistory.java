@@ -0,0 +1,80 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.model;
+
+import com.google.common.base.Preconditions;
+
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+
+/**
+ * A record of a convention name that a device has held, pointing to the latest revision of the device with that name.
+ * There is one record for each name and device, so that the devices currently or previously known under a name can be
+ * found with a single lookup instead of a search of the whole revision history.
+ */
+@Entity
+public class DeviceNameHistory extends Persistable {
+
+    private static final long serialVersionUID = 5250718462331937410L;
+
+    private String conventionName;
+
+    private @ManyToOne(fetch = FetchType.LAZY) @JoinColumn(nullable = false) Device device;
+
+    private @ManyToOne(fetch = FetchType.LAZY) @JoinColumn(nullable = false) DeviceRevision latestRevision;
+
+    protected DeviceNameHistory() {}
+
+    /**
+     * @param revision the first revision of the device with the name
+     */
+    public DeviceNameHistory(DeviceRevision revision) {
+        Preconditions.checkNotNull(revision);
+        this.conventionName = revision.getConventionName();
+        this.device = revision.getDevice();
+        this.latestRevision = revision;
+    }
+
+    /**
+     * @return The convention name.
+     */
+    public String getConventionName() { return conventionName; }
+
+    /**
+     * @return The device that has held the name.
+     */
+    public Device getDevice() { return device; }
+
+    /**
+     * @return The latest revision of the device with the name.
+     */
+    public DeviceRevision getLatestRevision() { return latestRevision; }
+
+    /**
+     * Updates the record after a new revision of the device with the name has been created.
+     *
+     * @param revision the new revision of the device
+     */
+    public void update(DeviceRevision revision) {
+        Preconditions.checkArgument(revision.getDevice().equals(device) && revision.getConventionName().equals(conventionName));
+        latestRevision = revision;
+    }
+}
@@ -0,0 +1,156 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.model;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Table;
+import java.util.UUID;
+
+/**
+ * The published form of a device name, as listed by the device names web service. There is one row for each device
+ * name ever used, describing the active device holding the name or, if there is none, the device that held it last.
+ * The rows are maintained in the same transaction as the device revisions and the name part approvals, so that the
+ * list can be read without joining the revisions with the name part hierarchy.
+ */
+@Entity
+@Table(name = "device_name_snapshot")
+public class DeviceNameSnapshot extends Persistable {
+
+    private static final long serialVersionUID = -2604573420283512167L;
+
+    /**
+     * The status of a name held by an existing device.
+     */
+    public static final String ACTIVE = "ACTIVE";
+
+    /**
+     * The status of a name last held by a device that was renamed since.
+     */
+    public static final String OBSOLETE = "OBSOLETE";
+
+    /**
+     * The status of a name last held by a device that was deleted since.
+     */
+    public static final String DELETED = "DELETED";
+
+    private @Column(unique = true, nullable = false) String name;
+
+    private String uuid;
+
+    private String status;
+
+    private @Nullable String section;
+
+    private @Nullable String subSection;
+
+    private @Nullable String discipline;
+
+    private @Nullable String deviceType;
+
+    private @Nullable String instanceIndex;
+
+    protected DeviceNameSnapshot() {}
+
+    /**
+     * @param name the device name
+     */
+    public DeviceNameSnapshot(String name) {
+        this.name = Preconditions.checkNotNull(name);
+    }
+
+    /**
+     * @return The device name.
+     */
+    public String getName() { return name; }
+
+    /**
+     * @return The universally unique identifier of the device holding the name, or the device that held it last.
+     */
+    public UUID getUuid() { return UUID.fromString(uuid); }
+
+    /**
+     * @return The status of the name, one of ACTIVE, OBSOLETE or DELETED.
+     */
+    public String getStatus() { return status; }
+
+    /**
+     * @return The mnemonic of the section containing the subsection of the device. Null unless the name is active.
+     */
+    public @Nullable String getSection() { return section; }
+
+    /**
+     * @return The mnemonic of the subsection of the device. Null unless the name is active.
+     */
+    public @Nullable String getSubSection() { return subSection; }
+
+    /**
+     * @return The mnemonic of the discipline containing the device type of the device. Null unless the name is active.
+     */
+    public @Nullable String getDiscipline() { return discipline; }
+
+    /**
+     * @return The mnemonic of the device type of the device. Null unless the name is active.
+     */
+    public @Nullable String getDeviceType() { return deviceType; }
+
+    /**
+     * @return The instance index of the device. Null if the device has none or unless the name is active.
+     */
+    public @Nullable String getInstanceIndex() { return instanceIndex; }
+
+    /**
+     * Marks the name as held by an existing device.
+     *
+     * @param uuid the universally unique identifier of the device
+     * @param section the mnemonic of the section containing the subsection of the device
+     * @param subSection the mnemonic of the subsection of the device
+     * @param discipline the mnemonic of the discipline containing the device type of the device
+     * @param deviceType the mnemonic of the device type of the device
+     * @param instanceIndex the instance index of the device, null if omitted
+     */
+    public void updateActive(UUID uuid, @Nullable String section, @Nullable String subSection, @Nullable String discipline, @Nullable String deviceType, @Nullable String instanceIndex) {
+        this.uuid = uuid.toString();
+        this.status = ACTIVE;
+        this.section = section;
+        this.subSection = subSection;
+        this.discipline = discipline;
+        this.deviceType = deviceType;
+        this.instanceIndex = instanceIndex;
+    }
+
+    /**
+     * Marks the name as no longer held by the device that held it last.
+     *
+     * @param uuid the universally unique identifier of the device
+     * @param deleted true if the device was deleted, false if it was renamed
+     */
+    public void updateRetired(UUID uuid, boolean deleted) {
+        this.uuid = uuid.toString();
+        this.status = deleted ? DELETED : OBSOLETE;
+        this.section = null;
+        this.subSection = null;
+        this.discipline = null;
+        this.deviceType = null;
+        this.instanceIndex = null;
+    }
+}
@@ -20,6 +20,7 @@ package org.openepics.names.model;
 import com.google.common.base.Preconditions;
 
 import javax.annotation.Nullable;
+import javax.persistence.Cacheable;
 import javax.persistence.Entity;
 import javax.persistence.ManyToOne;
 import java.util.Date;
@@ -30,6 +31,7 @@ import java.util.Date;
  * @author Marko Kolar 
  */
 @Entity
+@Cacheable
 public class DeviceRevision extends Persistable {
 
 	private static final long serialVersionUID = -7697708696131775826L;
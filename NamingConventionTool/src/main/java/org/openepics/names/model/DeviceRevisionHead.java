@@ -0,0 +1,72 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+package org.openepics.names.model;
+
+import com.google.common.base.Preconditions;
+
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToOne;
+
+/**
+ * A pointer to the current, most recent revision of a Device. It is maintained in the same transaction as the
+ * revisions themselves, so that queries for current revisions can join against it instead of searching the whole
+ * revision history for the most recent revision of each device.
+ */
+@Entity
+public class DeviceRevisionHead extends Persistable {
+
+    private static final long serialVersionUID = -4409113287212734165L;
+
+    private @OneToOne(fetch = FetchType.LAZY) @JoinColumn(unique = true, nullable = false) Device device;
+
+    private @ManyToOne(fetch = FetchType.LAZY) @JoinColumn(nullable = false) DeviceRevision currentRevision;
+
+    protected DeviceRevisionHead() {}
+
+    /**
+     * @param currentRevision the first revision of the device
+     */
+    public DeviceRevisionHead(DeviceRevision currentRevision) {
+        Preconditions.checkNotNull(currentRevision);
+        this.device = currentRevision.getDevice();
+        this.currentRevision = currentRevision;
+    }
+
+    /**
+     * @return The device the pointer pertains to.
+     */
+    public Device getDevice() { return device; }
+
+    /**
+     * @return The current, most recent revision of the device.
+     */
+    public DeviceRevision getCurrentRevision() { return currentRevision; }
+
+    /**
+     * Updates the pointer after a new revision of the device has been created.
+     *
+     * @param revision the new revision of the device
+     */
+    public void update(DeviceRevision revision) {
+        Preconditions.checkArgument(revision.getDevice().equals(device));
+        currentRevision = revision;
+    }
+}
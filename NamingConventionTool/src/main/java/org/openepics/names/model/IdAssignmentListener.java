@@ -0,0 +1,52 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+package org.openepics.names.model;
+
+import org.openepics.names.services.IdAllocator;
+
+import javax.annotation.Nullable;
+import javax.enterprise.inject.spi.CDI;
+import javax.persistence.PrePersist;
+
+/**
+ * Assigns the IDs of persistable entities from the blocks reserved by {@link IdAllocator} as they are persisted.
+ * Entities that already have an ID keep it.
+ */
+public class IdAssignmentListener {
+
+    private volatile @Nullable IdAllocator allocator;
+
+    /**
+     * @param entity the entity being persisted
+     */
+    @PrePersist
+    public void assignId(Persistable entity) {
+        if (entity.id == null) {
+            entity.id = allocator().nextId();
+        }
+    }
+
+    private IdAllocator allocator() {
+        @Nullable IdAllocator result = allocator;
+        if (result == null) {
+            result = CDI.current().select(IdAllocator.class).get();
+            allocator = result;
+        }
+        return result;
+    }
+}
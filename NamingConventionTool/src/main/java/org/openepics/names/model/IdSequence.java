@@ -0,0 +1,82 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+package org.openepics.names.model;
+
+import com.google.common.base.Preconditions;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.io.Serializable;
+
+/**
+ * A named counter in the ID generator table. The {@link #ENTITY_IDS} row holds the first entity ID not yet reserved
+ * by any server. The {@link #NAMING_LOCK} row counts the transactions changing the naming data, each of which keeps
+ * the row locked until it ends, so that such transactions are serialized across all servers sharing the database.
+ */
+@Entity
+@Table(name = Persistable.ID_GENERATOR_TABLE)
+public class IdSequence implements Serializable {
+
+    private static final long serialVersionUID = -2294136840581720943L;
+
+    /**
+     * The name of the sequence the IDs of all persistable entities are reserved from.
+     */
+    public static final String ENTITY_IDS = "Persistable";
+
+    /**
+     * The name of the sequence locked by the transactions changing the naming data.
+     */
+    public static final String NAMING_LOCK = "NamingLock";
+
+    @Id
+    private String sequenceName;
+
+    private long nextValue;
+
+    protected IdSequence() {}
+
+    /**
+     * @param sequenceName the name of the sequence
+     * @param nextValue the initial value of the sequence
+     */
+    public IdSequence(String sequenceName, long nextValue) {
+        this.sequenceName = Preconditions.checkNotNull(sequenceName);
+        this.nextValue = nextValue;
+    }
+
+    /**
+     * @return The name of the sequence.
+     */
+    public String getSequenceName() { return sequenceName; }
+
+    /**
+     * @return The next value of the sequence.
+     */
+    public long getNextValue() { return nextValue; }
+
+    /**
+     * Moves the sequence forward to the given value, if it is not past it already.
+     *
+     * @param nextValue the lowest next value of the sequence
+     */
+    public void advanceTo(long nextValue) {
+        this.nextValue = Math.max(this.nextValue, nextValue);
+    }
+}
@@ -19,10 +19,12 @@ package org.openepics.names.model;
 
 import com.google.common.base.Preconditions;
 
+import javax.annotation.Nullable;
+import javax.persistence.Cacheable;
 import javax.persistence.Entity;
 import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
-import java.util.Objects;
+import javax.persistence.Transient;
 import java.util.UUID;
 
 /**
@@ -32,6 +34,7 @@ import java.util.UUID;
  * @author Marko Kolar 
  */
 @Entity
+@Cacheable
 public class NamePart extends Persistable {
 
     /**
@@ -41,6 +44,9 @@ public class NamePart extends Persistable {
 
 	private String uuid;
 
+    @Transient
+    private transient @Nullable UUID parsedUuid;
+
     @Enumerated(EnumType.STRING)
     private NamePartType namePartType;
 
@@ -54,13 +60,21 @@ public class NamePart extends Persistable {
         Preconditions.checkNotNull(uuid);
         Preconditions.checkNotNull(namePartType);
         this.uuid = uuid.toString();
+        this.parsedUuid = uuid;
         this.namePartType = namePartType;
     }
 
     /**
      * @return The universally unique identifier.
      */
-    public UUID getUuid() { return UUID.fromString(uuid); }
+    public UUID getUuid() {
+        @Nullable UUID result = parsedUuid;
+        if (result == null) {
+            result = UUID.fromString(uuid);
+            parsedUuid = result;
+        }
+        return result;
+    }
 
     /**
      * @return The type of the NamePart.
@@ -73,6 +87,6 @@ public class NamePart extends Persistable {
 
     @Override
     public int hashCode() {
-        return Objects.hash(getUuid());
+        return getUuid().hashCode();
     }
 }
@@ -0,0 +1,88 @@
+/*
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.model;
+
+import com.google.common.base.Preconditions;
+
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.FetchType;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+
+/**
+ * An ancestor / descendant pair in the name part hierarchy. Every name part is recorded as its own descendant at depth
+ * 0, and as a descendant of each of its ancestors at the distance from that ancestor, so that all descendants or all
+ * ancestors of a name part can be found with a single lookup. The pairs are maintained in the same transaction as the
+ * revisions that define the hierarchy.
+ */
+@Entity
+public class NamePartClosure extends Persistable {
+
+    private static final long serialVersionUID = -3318725493367162041L;
+
+    @Enumerated(EnumType.STRING)
+    private NamePartClosureType type;
+
+    private @ManyToOne(fetch = FetchType.LAZY) @JoinColumn(nullable = false) NamePart ancestor;
+
+    private @ManyToOne(fetch = FetchType.LAZY) @JoinColumn(nullable = false) NamePart descendant;
+
+    private int depth;
+
+    protected NamePartClosure() {}
+
+    /**
+     * @param type the hierarchy the pair belongs to
+     * @param ancestor the ancestor name part
+     * @param descendant the descendant name part
+     * @param depth the number of levels between the ancestor and the descendant, 0 if they are the same name part
+     */
+    public NamePartClosure(NamePartClosureType type, NamePart ancestor, NamePart descendant, int depth) {
+        Preconditions.checkNotNull(type);
+        Preconditions.checkNotNull(ancestor);
+        Preconditions.checkNotNull(descendant);
+        Preconditions.checkArgument(depth >= 0);
+        this.type = type;
+        this.ancestor = ancestor;
+        this.descendant = descendant;
+        this.depth = depth;
+    }
+
+    /**
+     * @return The hierarchy the pair belongs to.
+     */
+    public NamePartClosureType getType() { return type; }
+
+    /**
+     * @return The ancestor name part.
+     */
+    public NamePart getAncestor() { return ancestor; }
+
+    /**
+     * @return The descendant name part.
+     */
+    public NamePart getDescendant() { return descendant; }
+
+    /**
+     * @return The number of levels between the ancestor and the descendant, 0 if they are the same name part.
+     */
+    public int getDepth() { return depth; }
+}
@@ -0,0 +1,36 @@
+/*
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.model;
+
+/**
+ * The hierarchy of name parts recorded in a NamePartClosure.
+ */
+public enum NamePartClosureType {
+    /**
+     * The structure formed by the parents of the latest approved revisions, or of the pending revisions for name parts
+     * that have never been approved. This is the structure shown to users and used for mnemonic paths.
+     */
+    APPROVED,
+
+    /**
+     * The structure formed by the parents of the pending revisions, or of the latest approved revisions for name parts
+     * that have no pending changes. This is the structure the pending proposals would result in.
+     */
+    PROPOSED
+}
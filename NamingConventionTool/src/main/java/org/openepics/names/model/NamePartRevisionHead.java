@@ -0,0 +1,95 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+package org.openepics.names.model;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToOne;
+
+/**
+ * A pointer to the current approved and pending revisions of a NamePart. It is maintained in the same transaction as
+ * the revisions themselves, so that queries for current revisions can join against it instead of searching the whole
+ * revision history for the most recent revision of each name part.
+ */
+@Entity
+public class NamePartRevisionHead extends Persistable {
+
+    private static final long serialVersionUID = 2305143395218645437L;
+
+    private @OneToOne(fetch = FetchType.LAZY) @JoinColumn(unique = true, nullable = false) NamePart namePart;
+
+    private @ManyToOne(fetch = FetchType.LAZY) @Nullable NamePartRevision approvedRevision;
+
+    private @ManyToOne(fetch = FetchType.LAZY) @Nullable NamePartRevision pendingRevision;
+
+    protected NamePartRevisionHead() {}
+
+    /**
+     * @param namePart the name part the pointer pertains to
+     */
+    public NamePartRevisionHead(NamePart namePart) {
+        Preconditions.checkNotNull(namePart);
+        this.namePart = namePart;
+    }
+
+    /**
+     * @return The name part the pointer pertains to.
+     */
+    public NamePart getNamePart() { return namePart; }
+
+    /**
+     * @return The most recent approved revision of the name part. Null if no revision has been approved yet.
+     */
+    public @Nullable NamePartRevision getApprovedRevision() { return approvedRevision; }
+
+    /**
+     * @return The revision of the name part currently pending approval. Null if no revision is pending approval.
+     */
+    public @Nullable NamePartRevision getPendingRevision() { return pendingRevision; }
+
+    /**
+     * Updates the pointers after the given revision of the name part has been proposed or processed in the request /
+     * approve workflow.
+     *
+     * @param revision the new or processed revision of the name part
+     */
+    public void update(NamePartRevision revision) {
+        Preconditions.checkArgument(revision.getNamePart().equals(namePart));
+        Preconditions.checkNotNull(revision.getId());
+        switch (revision.getStatus()) {
+            case PENDING:
+                pendingRevision = revision;
+                break;
+            case APPROVED:
+                approvedRevision = revision;
+                if (pendingRevision != null && pendingRevision.getId() <= revision.getId()) {
+                    pendingRevision = null;
+                }
+                break;
+            default:
+                if (pendingRevision != null && pendingRevision.getId().equals(revision.getId())) {
+                    pendingRevision = null;
+                }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.model;
+
+import com.google.common.base.Preconditions;
+
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import java.util.Date;
+
+/**
+ * An entry of the naming change log, recording that an entity of the naming data was changed by a revision. Entries
+ * are appended in the same transaction as the change itself, so that in-memory copies of the naming data can be
+ * brought up to date by reloading only the entities that changed, also on the other servers sharing the database.
+ *
+ * Naming changes are committed under the naming lock, and their IDs follow the commit order across all servers. The
+ * ID of an entry is therefore a position in the log: readers find new entries by their IDs, and a copy of the naming
+ * data is identified by the ID of the last entry it reflects. The recording time is used to prune the entries older
+ * than the retention period.
+ */
+@Entity
+public class NamingChange extends Persistable {
+
+    private static final long serialVersionUID = 6391874622178425046L;
+
+    private Long revisionId;
+
+    @Enumerated(EnumType.STRING)
+    private NamingChangeKind kind;
+
+    private Long entityId;
+
+    private String node;
+
+    private Date recordedAt;
+
+    protected NamingChange() {}
+
+    /**
+     * @param revisionId the ID of the name part or device revision causing the change
+     * @param kind the kind of the changed entity
+     * @param entityId the ID of the changed entity
+     * @param node the identifier of the server recording the change
+     * @param recordedAt the time the change was recorded
+     */
+    public NamingChange(Long revisionId, NamingChangeKind kind, Long entityId, String node, Date recordedAt) {
+        this.revisionId = Preconditions.checkNotNull(revisionId);
+        this.kind = Preconditions.checkNotNull(kind);
+        this.entityId = Preconditions.checkNotNull(entityId);
+        this.node = Preconditions.checkNotNull(node);
+        this.recordedAt = Preconditions.checkNotNull(recordedAt);
+    }
+
+    /**
+     * @return The ID of the name part or device revision causing the change.
+     */
+    public Long getRevisionId() { return revisionId; }
+
+    /**
+     * @return The kind of the changed entity.
+     */
+    public NamingChangeKind getKind() { return kind; }
+
+    /**
+     * @return The ID of the changed entity.
+     */
+    public Long getEntityId() { return entityId; }
+
+    /**
+     * @return The identifier of the server recording the change.
+     */
+    public String getNode() { return node; }
+
+    /**
+     * @return The time the change was recorded.
+     */
+    public Date getRecordedAt() { return recordedAt; }
+}
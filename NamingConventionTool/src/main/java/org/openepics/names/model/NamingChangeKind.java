@@ -0,0 +1,39 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.model;
+
+/**
+ * The kind of entity a NamingChange refers to.
+ */
+public enum NamingChangeKind {
+    /**
+     * The approved or pending revision of a name part has changed. The entity is the name part.
+     */
+    NAME_PART,
+
+    /**
+     * A new revision of a device has been created. The entity is the device.
+     */
+    DEVICE,
+
+    /**
+     * A published device name has been added or updated. The entity is the DeviceNameSnapshot row.
+     */
+    DEVICE_NAME
+}
@@ -28,12 +28,25 @@ import java.io.Serializable;
  * @author Marko Kolar 
  */
 @MappedSuperclass
+@EntityListeners(IdAssignmentListener.class)
 public class Persistable implements Serializable {
 
 	private static final long serialVersionUID = 8393161299438204843L;
 
+	/**
+	 * The name of the table holding the next values of the entity ID generator, see {@link IdSequence}.
+	 */
+	public static final String ID_GENERATOR_TABLE = "IdGenerator";
+
+	/**
+	 * The number of IDs a server reserves from the generator table at a time. IDs are shared by all entities. A server
+	 * discards the rest of its block whenever it takes the naming lock, so that the revisions created by a naming
+	 * transaction get higher IDs than those of every naming transaction committed before it on any server, see
+	 * {@link org.openepics.names.services.IdAllocator}.
+	 */
+	public static final int ID_ALLOCATION_SIZE = 50;
+
 	@Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
     protected @Nullable Long id;
 
     @Version
@@ -19,6 +19,7 @@ package org.openepics.names.model;
 
 import com.google.common.base.Preconditions;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Entity;
 import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
@@ -31,6 +32,7 @@ import java.util.Objects;
  * @author Marko Kolar 
  */
 @Entity
+@Cacheable
 public class UserAccount extends Persistable {
 
     /**
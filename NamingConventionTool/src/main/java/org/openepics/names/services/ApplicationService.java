@@ -20,7 +20,7 @@ package org.openepics.names.services;
 import java.util.List;
 
 import org.openepics.names.model.AppInfo;
-import org.openepics.names.model.NamePartRevision;
+import org.openepics.names.services.migration.SchemaMigrationService;
 
 import javax.annotation.PostConstruct;
 import javax.ejb.Singleton;
@@ -38,10 +38,9 @@ import javax.persistence.PersistenceContext;
 @Startup
 public class ApplicationService {
 
-    @PersistenceContext private EntityManager em;
+    @PersistenceContext(unitName = "org.openepics.names.punit") private EntityManager em;
     @Inject private InitialDataImportService importService;
-    @Inject private NamePartService namePartService;
-    @Inject private NamingConvention namingConvention;
+    @Inject private SchemaMigrationService migrationService;
 
     /**
      * @return The singleton entity representing the installed Naming Tool application and its configuration.
@@ -51,26 +50,22 @@ public class ApplicationService {
     }
 
     /**
-     * Initializes the database with the bundled initial data on the first run of the application.
+     * Initializes the database with the bundled initial data on the first run of the application and brings the
+     * database schema up to date. The in-memory indexes are loaded by NamingChangePoller once this is done.
      */
     @PostConstruct
     private void init() {
+        migrationService.seedIdGenerator();
         final List<AppInfo> appInfo = em.createQuery("SELECT a FROM AppInfo a", AppInfo.class).getResultList();
+        final AppInfo info;
         if (appInfo.size() != 1) {
-            em.persist(new AppInfo());
-            importService.fillDatabaseWithInitialData();
-        } else if (appInfo.get(0).getSchemaVersion() == 0) {
-            calculateMnemonicEquvalenceClassForRevisions();
-            final AppInfo info = appInfo.get(0);
-            info.incrementSchemaVersion();
+            info = new AppInfo();
             em.persist(info);
+            importService.fillDatabaseWithInitialData();
+        } else {
+            info = appInfo.get(0);
         }
-    }
-    
-    private void calculateMnemonicEquvalenceClassForRevisions() {
-        for (NamePartRevision revision : namePartService.allNamePartRevisions()) {
-            revision.setMnemonicEqClass(namingConvention.equivalenceClassRepresentative(revision.getMnemonic()));
-            em.persist(revision);
-        }
+        migrationService.migrate(info);
+        migrationService.verifyIndexes();
     }
 }
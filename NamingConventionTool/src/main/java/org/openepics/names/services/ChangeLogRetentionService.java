@@ -0,0 +1,70 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.services;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.ejb.Schedule;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A service bean deleting the naming change log entries older than the retention period. The ID of the last deleted
+ * entry is recorded in AppInfo in the same transaction, so that a reader positioned before it, such as a snapshot file
+ * or a client of the change feed, can tell that it has missed changes and start over from the current data.
+ *
+ * The system property names.changeLog.retentionDays sets the retention period, 7 days by default. It bounds how long a
+ * client may stay away and still resume from its cursor.
+ */
+@Stateless
+public class ChangeLogRetentionService {
+
+    private static final Logger LOGGER = Logger.getLogger(ChangeLogRetentionService.class.getName());
+
+    @PersistenceContext(unitName = "org.openepics.names.punit") private EntityManager em;
+
+    private long retentionMillis;
+
+    @PostConstruct
+    private void init() {
+        retentionMillis = TimeUnit.DAYS.toMillis(Long.parseLong(System.getProperty("names.changeLog.retentionDays", "7")));
+    }
+
+    /**
+     * Deletes the change log entries recorded before the retention period. Runs nightly.
+     */
+    @Schedule(hour = "3", minute = "45", persistent = false)
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void pruneChangeLog() {
+        final Date cutoff = new Date(System.currentTimeMillis() - retentionMillis);
+        final @Nullable Long prunedThrough = em.createQuery("SELECT MAX(c.id) FROM NamingChange c WHERE c.recordedAt < :cutoff", Long.class).setParameter("cutoff", cutoff).getSingleResult();
+        if (prunedThrough == null) return;
+
+        final int deleted = em.createQuery("DELETE FROM NamingChange c WHERE c.id <= :prunedThrough").setParameter("prunedThrough", prunedThrough).executeUpdate();
+        em.createQuery("UPDATE AppInfo a SET a.changeLogPrunedThrough = :prunedThrough").setParameter("prunedThrough", prunedThrough).executeUpdate();
+        LOGGER.log(Level.INFO, "Deleted {0} naming change log entries up to {1}", new Object[] {deleted, prunedThrough});
+    }
+}
@@ -0,0 +1,151 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.services;
+
+import com.google.common.collect.Maps;
+import org.openepics.names.model.DeviceRevision;
+import org.openepics.names.util.As;
+
+import javax.annotation.Nullable;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An application-wide index resolving device convention names, current or not, to the latest revision holding them,
+ * and devices to their current revision. Together the two lookups tell whether a name is current, obsolete or deleted
+ * without querying the database. Changes made in a transaction are visible to lookups in the same transaction
+ * immediately and to other transactions once it commits.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class DeviceNameIndex {
+
+    private static final Object PENDING_CHANGES_KEY = new Object();
+
+    @PersistenceContext(unitName = "org.openepics.names.punit") private EntityManager em;
+    @Resource private TransactionSynchronizationRegistry transactionRegistry;
+
+    private volatile ConcurrentMap<String, Long> latestRevisionByName = Maps.newConcurrentMap();
+    private volatile ConcurrentMap<Long, Long> currentRevisionByDevice = Maps.newConcurrentMap();
+
+    /**
+     * Loads the index from the name history and the current revision pointers, replacing its previous contents.
+     */
+    public void rebuild() {
+        final ConcurrentMap<String, Long> newLatestRevisionByName = Maps.newConcurrentMap();
+        for (Object[] row : em.createQuery("SELECT n.conventionName, MAX(r.id) FROM DeviceNameHistory n JOIN n.latestRevision r GROUP BY n.conventionName", Object[].class).getResultList()) {
+            newLatestRevisionByName.put((String) row[0], (Long) row[1]);
+        }
+        final ConcurrentMap<Long, Long> newCurrentRevisionByDevice = Maps.newConcurrentMap();
+        for (Object[] row : em.createQuery("SELECT h.device.id, h.currentRevision.id FROM DeviceRevisionHead h", Object[].class).getResultList()) {
+            newCurrentRevisionByDevice.put((Long) row[0], (Long) row[1]);
+        }
+        latestRevisionByName = newLatestRevisionByName;
+        currentRevisionByDevice = newCurrentRevisionByDevice;
+    }
+
+    /**
+     * Reloads the current revisions of the given devices from the database, after they were changed by another
+     * server.
+     *
+     * @param deviceIds the IDs of the changed devices
+     */
+    public void refresh(Collection<Long> deviceIds) {
+        if (deviceIds.isEmpty()) return;
+        for (Object[] row : em.createQuery("SELECT h.device.id, r.id, r.conventionName FROM DeviceRevisionHead h JOIN h.currentRevision r WHERE h.device.id IN :ids", Object[].class).setParameter("ids", deviceIds).getResultList()) {
+            currentRevisionByDevice.put((Long) row[0], (Long) row[1]);
+            latestRevisionByName.put((String) row[2], (Long) row[1]);
+        }
+    }
+
+    /**
+     * @param conventionName the convention name
+     * @return the ID of the latest revision of any device with the given name, null if no device has ever had it
+     */
+    public @Nullable Long latestRevisionId(String conventionName) {
+        final @Nullable PendingChanges pendingChanges = pendingChanges(false);
+        final @Nullable Long pendingRevisionId = pendingChanges != null ? pendingChanges.latestRevisionByName.get(conventionName) : null;
+        return pendingRevisionId != null ? pendingRevisionId : latestRevisionByName.get(conventionName);
+    }
+
+    /**
+     * @param deviceId the ID of the device
+     * @return the ID of the current revision of the device, null if there is no such device
+     */
+    public @Nullable Long currentRevisionId(Long deviceId) {
+        final @Nullable PendingChanges pendingChanges = pendingChanges(false);
+        final @Nullable Long pendingRevisionId = pendingChanges != null ? pendingChanges.currentRevisionByDevice.get(deviceId) : null;
+        return pendingRevisionId != null ? pendingRevisionId : currentRevisionByDevice.get(deviceId);
+    }
+
+    /**
+     * Records a new revision of a device as its current revision and as the latest revision with its name.
+     *
+     * @param revision the new revision
+     */
+    public void update(DeviceRevision revision) {
+        final Long revisionId = As.notNull(revision.getId());
+        final Long deviceId = As.notNull(revision.getDevice().getId());
+        final @Nullable PendingChanges pendingChanges = pendingChanges(true);
+        (pendingChanges != null ? pendingChanges.latestRevisionByName : latestRevisionByName).put(revision.getConventionName(), revisionId);
+        (pendingChanges != null ? pendingChanges.currentRevisionByDevice : currentRevisionByDevice).put(deviceId, revisionId);
+    }
+
+    /**
+     * @param create true if the changes should be created if the current transaction has none yet
+     * @return the changes made in the current transaction, applied to the index when the transaction commits. Null if
+     * there are none, or if no transaction is active and changes should be applied directly.
+     */
+    private @Nullable PendingChanges pendingChanges(boolean create) {
+        if (transactionRegistry.getTransactionKey() == null) {
+            return null;
+        }
+        @Nullable PendingChanges pendingChanges = (PendingChanges) transactionRegistry.getResource(PENDING_CHANGES_KEY);
+        if (pendingChanges == null && create) {
+            final PendingChanges newChanges = new PendingChanges();
+            transactionRegistry.putResource(PENDING_CHANGES_KEY, newChanges);
+            transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+                @Override public void beforeCompletion() {}
+                @Override public void afterCompletion(int status) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        latestRevisionByName.putAll(newChanges.latestRevisionByName);
+                        currentRevisionByDevice.putAll(newChanges.currentRevisionByDevice);
+                    }
+                }
+            });
+            pendingChanges = newChanges;
+        }
+        return pendingChanges;
+    }
+
+    private static class PendingChanges {
+        private final Map<String, Long> latestRevisionByName = Maps.newHashMap();
+        private final Map<Long, Long> currentRevisionByDevice = Maps.newHashMap();
+    }
+}
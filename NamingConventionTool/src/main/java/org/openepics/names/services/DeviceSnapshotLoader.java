@@ -0,0 +1,107 @@
+/*
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.services;
+
+import com.google.common.base.Preconditions;
+import org.openepics.names.model.DeviceRevision;
+import org.openepics.names.model.NamePartRevision;
+import org.openepics.names.model.NamePartType;
+import org.openepics.names.services.views.DeviceSnapshot;
+
+import javax.persistence.EntityManager;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Loads current revisions in bulk. The associations of the revisions are fetched in the same query, so that the number
+ * of queries needed to load the revisions of all devices, sections and device types does not depend on how many of
+ * them there are.
+ */
+public class DeviceSnapshotLoader {
+
+    private final EntityManager em;
+
+    /**
+     * @param em the entity manager used to query the revisions
+     */
+    public DeviceSnapshotLoader(EntityManager em) {
+        this.em = Preconditions.checkNotNull(em);
+    }
+
+    /**
+     * @param includeDeleted true if deleted devices and name parts should be included
+     * @return the current revisions of all devices, and the approved revisions of all sections and device types
+     */
+    public DeviceSnapshot load(boolean includeDeleted) {
+        return new DeviceSnapshot(approvedNamePartRevisions(NamePartType.SECTION, includeDeleted), approvedNamePartRevisions(NamePartType.DEVICE_TYPE, includeDeleted), currentDeviceRevisions(includeDeleted));
+    }
+
+    /**
+     * @param type the type of the name parts
+     * @param includeDeleted true if the revisions of deleted name parts should be included
+     * @return the latest approved revisions of all name parts of the given type, with their name part, parent and
+     * users fetched
+     */
+    public List<NamePartRevision> approvedNamePartRevisions(NamePartType type, boolean includeDeleted) {
+        return em.createQuery("SELECT r FROM NamePartRevisionHead h JOIN h.approvedRevision r JOIN FETCH r.namePart LEFT JOIN FETCH r.parent LEFT JOIN FETCH r.requestedBy LEFT JOIN FETCH r.processedBy WHERE h.namePart.namePartType = :type" + (includeDeleted ? "" : " AND r.deleted = FALSE"), NamePartRevision.class).setParameter("type", type).getResultList();
+    }
+
+    /**
+     * @param type the type of the name parts
+     * @return the revisions pending approval of all name parts of the given type, with their name part, parent and
+     * users fetched
+     */
+    public List<NamePartRevision> pendingNamePartRevisions(NamePartType type) {
+        return em.createQuery("SELECT r FROM NamePartRevisionHead h JOIN h.pendingRevision r JOIN FETCH r.namePart LEFT JOIN FETCH r.parent LEFT JOIN FETCH r.requestedBy LEFT JOIN FETCH r.processedBy WHERE h.namePart.namePartType = :type", NamePartRevision.class).setParameter("type", type).getResultList();
+    }
+
+    /**
+     * @param namePartIds the IDs of the name parts
+     * @return the latest approved revisions of the given name parts, with their name part, parent and users fetched
+     */
+    public List<NamePartRevision> approvedNamePartRevisions(Collection<Long> namePartIds) {
+        return em.createQuery("SELECT r FROM NamePartRevisionHead h JOIN h.approvedRevision r JOIN FETCH r.namePart LEFT JOIN FETCH r.parent LEFT JOIN FETCH r.requestedBy LEFT JOIN FETCH r.processedBy WHERE h.namePart.id IN :namePartIds", NamePartRevision.class).setParameter("namePartIds", namePartIds).getResultList();
+    }
+
+    /**
+     * @param namePartIds the IDs of the name parts
+     * @return the revisions pending approval of the given name parts, with their name part, parent and users fetched
+     */
+    public List<NamePartRevision> pendingNamePartRevisions(Collection<Long> namePartIds) {
+        return em.createQuery("SELECT r FROM NamePartRevisionHead h JOIN h.pendingRevision r JOIN FETCH r.namePart LEFT JOIN FETCH r.parent LEFT JOIN FETCH r.requestedBy LEFT JOIN FETCH r.processedBy WHERE h.namePart.id IN :namePartIds", NamePartRevision.class).setParameter("namePartIds", namePartIds).getResultList();
+    }
+
+    /**
+     * @param deviceIds the IDs of the devices
+     * @return the current revisions of the given devices, with their device, section, device type and requesting user
+     * fetched
+     */
+    public List<DeviceRevision> currentDeviceRevisions(Collection<Long> deviceIds) {
+        return em.createQuery("SELECT r FROM DeviceRevisionHead h JOIN h.currentRevision r JOIN FETCH r.device JOIN FETCH r.section JOIN FETCH r.deviceType LEFT JOIN FETCH r.requestedBy WHERE h.device.id IN :deviceIds", DeviceRevision.class).setParameter("deviceIds", deviceIds).getResultList();
+    }
+
+    /**
+     * @param includeDeleted true if the revisions of deleted devices should be included
+     * @return the current revisions of all devices, with their device, section, device type and requesting user
+     * fetched
+     */
+    public List<DeviceRevision> currentDeviceRevisions(boolean includeDeleted) {
+        return em.createQuery("SELECT r FROM DeviceRevisionHead h JOIN h.currentRevision r JOIN FETCH r.device JOIN FETCH r.section JOIN FETCH r.deviceType LEFT JOIN FETCH r.requestedBy" + (includeDeleted ? "" : " WHERE r.deleted = false"), DeviceRevision.class).getResultList();
+    }
+}
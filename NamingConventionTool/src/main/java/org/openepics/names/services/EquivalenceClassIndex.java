@@ -0,0 +1,208 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.services;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+import org.openepics.names.model.Device;
+import org.openepics.names.model.DeviceRevision;
+import org.openepics.names.model.NamePart;
+import org.openepics.names.model.NamePartRevision;
+import org.openepics.names.util.As;
+
+import javax.annotation.Nullable;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An application-wide index from the equivalence classes of mnemonics and device names to the name parts and devices
+ * currently holding them, used to answer uniqueness checks without querying the database.
+ *
+ * Name parts hold the equivalence classes of the mnemonics of their approved and pending revisions, devices the
+ * equivalence class of the name of their current revision; deleted revisions hold nothing. Changes made in a
+ * transaction are visible to lookups in the same transaction immediately and to other transactions once it commits.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class EquivalenceClassIndex {
+
+    private static final Object PENDING_CHANGES_KEY = new Object();
+
+    @PersistenceContext(unitName = "org.openepics.names.punit") private EntityManager em;
+    @Resource private TransactionSynchronizationRegistry transactionRegistry;
+
+    private volatile EquivalenceClassMap namePartMnemonics = new EquivalenceClassMap();
+    private volatile EquivalenceClassMap deviceNames = new EquivalenceClassMap();
+
+    /**
+     * Loads the index from the current revisions in the database, replacing its previous contents.
+     */
+    public void rebuild() {
+        final SetMultimap<Long, String> mnemonicsByNamePart = HashMultimap.create();
+        for (Object[] row : em.createQuery("SELECT h.namePart.id, r.mnemonicEqClass FROM NamePartRevisionHead h, NamePartRevision r WHERE (r = h.approvedRevision OR r = h.pendingRevision) AND r.deleted = false AND r.mnemonicEqClass IS NOT NULL", Object[].class).getResultList()) {
+            mnemonicsByNamePart.put((Long) row[0], (String) row[1]);
+        }
+        final EquivalenceClassMap newNamePartMnemonics = new EquivalenceClassMap();
+        for (Long namePartId : mnemonicsByNamePart.keySet()) {
+            newNamePartMnemonics.put(namePartId, mnemonicsByNamePart.get(namePartId));
+        }
+        final EquivalenceClassMap newDeviceNames = new EquivalenceClassMap();
+        for (Object[] row : em.createQuery("SELECT r.device.id, r.conventionNameEqClass FROM DeviceRevisionHead h JOIN h.currentRevision r WHERE r.deleted = false", Object[].class).getResultList()) {
+            newDeviceNames.put((Long) row[0], ImmutableSet.of((String) row[1]));
+        }
+        namePartMnemonics = newNamePartMnemonics;
+        deviceNames = newDeviceNames;
+    }
+
+    /**
+     * Reloads the entries of the given name parts and devices from the database, after they were changed by another
+     * server.
+     *
+     * @param namePartIds the IDs of the changed name parts
+     * @param deviceIds the IDs of the changed devices
+     */
+    public void refresh(Collection<Long> namePartIds, Collection<Long> deviceIds) {
+        if (!namePartIds.isEmpty()) {
+            final SetMultimap<Long, String> mnemonicsByNamePart = HashMultimap.create();
+            for (Object[] row : em.createQuery("SELECT h.namePart.id, r.mnemonicEqClass FROM NamePartRevisionHead h, NamePartRevision r WHERE (r = h.approvedRevision OR r = h.pendingRevision) AND r.deleted = false AND r.mnemonicEqClass IS NOT NULL AND h.namePart.id IN :ids", Object[].class).setParameter("ids", namePartIds).getResultList()) {
+                mnemonicsByNamePart.put((Long) row[0], (String) row[1]);
+            }
+            for (Long namePartId : namePartIds) {
+                namePartMnemonics.put(namePartId, mnemonicsByNamePart.get(namePartId));
+            }
+        }
+        if (!deviceIds.isEmpty()) {
+            final Map<Long, String> nameByDevice = Maps.newHashMap();
+            for (Object[] row : em.createQuery("SELECT r.device.id, r.conventionNameEqClass FROM DeviceRevisionHead h JOIN h.currentRevision r WHERE r.deleted = false AND r.device.id IN :ids", Object[].class).setParameter("ids", deviceIds).getResultList()) {
+                nameByDevice.put((Long) row[0], (String) row[1]);
+            }
+            for (Long deviceId : deviceIds) {
+                final @Nullable String name = nameByDevice.get(deviceId);
+                deviceNames.put(deviceId, name != null ? ImmutableSet.of(name) : ImmutableSet.<String>of());
+            }
+        }
+    }
+
+    /**
+     * @param mnemonicEqClass the equivalence class of a mnemonic
+     * @return the IDs of the name parts whose approved or pending revision has a mnemonic in the equivalence class
+     */
+    public Set<Long> namePartsWithMnemonic(String mnemonicEqClass) {
+        final @Nullable PendingChanges pendingChanges = pendingChanges(false);
+        return holders(namePartMnemonics, pendingChanges != null ? pendingChanges.namePartMnemonics : null, mnemonicEqClass);
+    }
+
+    /**
+     * @param conventionNameEqClass the equivalence class of a device name
+     * @return the IDs of the devices whose current revision has a name in the equivalence class
+     */
+    public Set<Long> devicesWithName(String conventionNameEqClass) {
+        final @Nullable PendingChanges pendingChanges = pendingChanges(false);
+        return holders(deviceNames, pendingChanges != null ? pendingChanges.deviceNames : null, conventionNameEqClass);
+    }
+
+    /**
+     * Records the mnemonics held by a name part after its approved or pending revision has changed.
+     *
+     * @param namePart the name part
+     * @param approvedRevision the approved revision of the name part, null if none
+     * @param pendingRevision the pending revision of the name part, null if none
+     */
+    public void updateNamePart(NamePart namePart, @Nullable NamePartRevision approvedRevision, @Nullable NamePartRevision pendingRevision) {
+        final Set<String> eqClasses = Sets.newHashSet();
+        for (@Nullable NamePartRevision revision : new NamePartRevision[] {approvedRevision, pendingRevision}) {
+            if (revision != null && !revision.isDeleted() && revision.getMnemonicEqClass() != null) {
+                eqClasses.add(revision.getMnemonicEqClass());
+            }
+        }
+        final @Nullable PendingChanges pendingChanges = pendingChanges(true);
+        (pendingChanges != null ? pendingChanges.namePartMnemonics : namePartMnemonics).put(As.notNull(namePart.getId()), eqClasses);
+    }
+
+    /**
+     * Records the name held by a device after a new revision of it has been created.
+     *
+     * @param device the device
+     * @param currentRevision the new current revision of the device
+     */
+    public void updateDevice(Device device, DeviceRevision currentRevision) {
+        final Set<String> eqClasses = currentRevision.isDeleted() ? ImmutableSet.<String>of() : ImmutableSet.of(currentRevision.getConventionNameEqClass());
+        final @Nullable PendingChanges pendingChanges = pendingChanges(true);
+        (pendingChanges != null ? pendingChanges.deviceNames : deviceNames).put(As.notNull(device.getId()), eqClasses);
+    }
+
+    private static Set<Long> holders(EquivalenceClassMap committed, @Nullable EquivalenceClassMap pending, String eqClass) {
+        if (pending == null) {
+            return committed.holders(eqClass);
+        } else {
+            final Set<Long> holders = Sets.newHashSet(pending.holders(eqClass));
+            for (Long holder : committed.holders(eqClass)) {
+                if (!pending.containsHolder(holder)) {
+                    holders.add(holder);
+                }
+            }
+            return holders;
+        }
+    }
+
+    /**
+     * @param create true if the changes should be created if the current transaction has none yet
+     * @return the changes made in the current transaction, applied to the index when the transaction commits. Null if
+     * there are none, or if no transaction is active and changes should be applied directly.
+     */
+    private @Nullable PendingChanges pendingChanges(boolean create) {
+        if (transactionRegistry.getTransactionKey() == null) {
+            return null;
+        }
+        @Nullable PendingChanges pendingChanges = (PendingChanges) transactionRegistry.getResource(PENDING_CHANGES_KEY);
+        if (pendingChanges == null && create) {
+            final PendingChanges newChanges = new PendingChanges();
+            transactionRegistry.putResource(PENDING_CHANGES_KEY, newChanges);
+            transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+                @Override public void beforeCompletion() {}
+                @Override public void afterCompletion(int status) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        namePartMnemonics.putAll(newChanges.namePartMnemonics);
+                        deviceNames.putAll(newChanges.deviceNames);
+                    }
+                }
+            });
+            pendingChanges = newChanges;
+        }
+        return pendingChanges;
+    }
+
+    private static class PendingChanges {
+        private final EquivalenceClassMap namePartMnemonics = new EquivalenceClassMap();
+        private final EquivalenceClassMap deviceNames = new EquivalenceClassMap();
+    }
+}
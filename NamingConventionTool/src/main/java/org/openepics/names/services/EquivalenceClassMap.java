@@ -0,0 +1,95 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.services;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A two-way mapping between holders, identified by the database ID of a name part or device, and the equivalence
+ * classes of the names they currently hold. Lookups may run concurrently with each other and with updates.
+ */
+class EquivalenceClassMap {
+
+    private final ConcurrentMap<Long, Set<String>> classesByHolder = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, Set<Long>> holdersByClass = Maps.newConcurrentMap();
+
+    /**
+     * @param eqClass the equivalence class
+     * @return the holders of names in the given equivalence class
+     */
+    Set<Long> holders(String eqClass) {
+        final @Nullable Set<Long> holders = holdersByClass.get(eqClass);
+        return holders != null ? ImmutableSet.copyOf(holders) : ImmutableSet.<Long>of();
+    }
+
+    /**
+     * @param holder the holder
+     * @return true if the map has an entry for the holder, possibly an empty one
+     */
+    boolean containsHolder(Long holder) {
+        return classesByHolder.containsKey(holder);
+    }
+
+    /**
+     * Replaces the equivalence classes held by the holder.
+     *
+     * @param holder the holder
+     * @param eqClasses the equivalence classes of the names the holder now holds, empty if it holds none
+     */
+    synchronized void put(Long holder, Set<String> eqClasses) {
+        final @Nullable Set<String> oldClasses = classesByHolder.put(holder, ImmutableSet.copyOf(eqClasses));
+        if (oldClasses != null) {
+            for (String oldClass : oldClasses) {
+                final @Nullable Set<Long> holders = holdersByClass.get(oldClass);
+                if (holders != null) {
+                    holders.remove(holder);
+                    if (holders.isEmpty()) {
+                        holdersByClass.remove(oldClass);
+                    }
+                }
+            }
+        }
+        for (String eqClass : eqClasses) {
+            @Nullable Set<Long> holders = holdersByClass.get(eqClass);
+            if (holders == null) {
+                holders = Sets.newConcurrentHashSet();
+                holdersByClass.put(eqClass, holders);
+            }
+            holders.add(holder);
+        }
+    }
+
+    /**
+     * Applies all entries of another map to this one.
+     *
+     * @param changes the map holding the entries to apply
+     */
+    synchronized void putAll(EquivalenceClassMap changes) {
+        for (Map.Entry<Long, Set<String>> entry : changes.classesByHolder.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+package org.openepics.names.services;
+
+import com.google.common.base.Preconditions;
+import org.openepics.names.model.IdSequence;
+import org.openepics.names.model.Persistable;
+
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.SessionContext;
+import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * Hands out entity IDs from blocks reserved in the ID generator table, and takes the naming lock serializing the
+ * transactions that change the naming data across all servers sharing the database.
+ *
+ * Taking the naming lock discards the rest of the current block, so that the IDs of the revisions and change log
+ * entries created by a naming transaction are greater than those created by any naming transaction that committed
+ * before it, on any server. The revision with the highest ID is thereby the most recent one, and the change log can
+ * be read in commit order by ID.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class IdAllocator {
+
+    private static final Object NAMING_LOCK_KEY = new Object();
+
+    @PersistenceContext(unitName = "org.openepics.names.punit") private EntityManager em;
+    @Resource private TransactionSynchronizationRegistry transactionRegistry;
+    @Resource private SessionContext context;
+
+    private long nextId;
+    private long blockEnd;
+
+    /**
+     * Takes the naming lock in the current transaction, waiting for the naming transactions of other servers to end.
+     * The lock is held until the transaction ends. Must be called before the transaction creates any revision.
+     */
+    public void lockNaming() {
+        if (transactionRegistry.getResource(NAMING_LOCK_KEY) == null) {
+            final int locked = em.createQuery("UPDATE IdSequence s SET s.nextValue = s.nextValue + 1 WHERE s.sequenceName = :sequenceName").setParameter("sequenceName", IdSequence.NAMING_LOCK).executeUpdate();
+            Preconditions.checkState(locked == 1, "The naming lock is missing from the ID generator table.");
+            transactionRegistry.putResource(NAMING_LOCK_KEY, Boolean.TRUE);
+            discardBlock();
+        }
+    }
+
+    /**
+     * @return true if the current transaction holds the naming lock
+     */
+    public boolean holdsNamingLock() {
+        return transactionRegistry.getResource(NAMING_LOCK_KEY) != null;
+    }
+
+    /**
+     * @return the next ID of the current block, reserving a new block first if the current one is used up
+     */
+    public synchronized long nextId() {
+        if (nextId == blockEnd) {
+            nextId = context.getBusinessObject(IdAllocator.class).reserveBlock();
+            blockEnd = nextId + Persistable.ID_ALLOCATION_SIZE;
+        }
+        return nextId++;
+    }
+
+    /**
+     * Reserves a block of IDs in a transaction of its own, so that the block is taken once it is returned even if the
+     * transaction using it rolls back.
+     *
+     * @return the first ID of the reserved block
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public long reserveBlock() {
+        em.createQuery("UPDATE IdSequence s SET s.nextValue = s.nextValue + :size WHERE s.sequenceName = :sequenceName").setParameter("size", (long) Persistable.ID_ALLOCATION_SIZE).setParameter("sequenceName", IdSequence.ENTITY_IDS).executeUpdate();
+        return em.createQuery("SELECT s.nextValue FROM IdSequence s WHERE s.sequenceName = :sequenceName", Long.class).setParameter("sequenceName", IdSequence.ENTITY_IDS).getSingleResult() - Persistable.ID_ALLOCATION_SIZE;
+    }
+
+    private synchronized void discardBlock() {
+        nextId = blockEnd;
+    }
+}
@@ -47,7 +47,7 @@ import java.util.Map;
 public class InitialDataImportService {
     
     @Inject private NamePartService namePartService;
-    @PersistenceContext private EntityManager em;
+    @PersistenceContext(unitName = "org.openepics.names.punit") private EntityManager em;
 
     private XSSFWorkbook workbook;
     private Map<Integer, NamePart> namePartsMap = Maps.newHashMap();
@@ -17,13 +17,20 @@
  */
 package org.openepics.names.services;
 
+import com.google.common.base.Function;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 import org.openepics.names.model.*;
 import org.openepics.names.services.views.BatchViewProvider;
+import org.openepics.names.services.views.DeviceSnapshot;
 import org.openepics.names.services.views.NamePartRevisionProvider;
 import org.openepics.names.services.views.NamePartView;
 import org.openepics.names.util.As;
@@ -35,26 +42,70 @@ import javax.ejb.Stateless;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 /**
  * A service bean managing NamePart and Device entities.
  *
+ * Every method changing naming data takes the naming lock of {@link IdAllocator} before it reads the state it checks,
+ * so that naming transactions are serialized across all servers sharing the database and the IDs of their revisions
+ * follow the commit order.
+ *
  * @author Marko Kolar  
  * @author Karin Rahtsman  
  */
 @Stateless
 public class NamePartService {
 
+	/**
+	 * Upper bound on the depth of the name part hierarchy, guarding against cycles in corrupted data.
+	 */
+	private static final int MAX_HIERARCHY_DEPTH = 16;
+
+	/**
+	 * Upper bound on the number of names passed to a single IN clause.
+	 */
+	private static final int MAX_NAMES_PER_QUERY = 500;
+
+	/**
+	 * Orders revisions from the oldest to the latest, across the current and the archived ones.
+	 */
+	private static final Comparator<Persistable> BY_ID = new Comparator<Persistable>() {
+		@Override public int compare(Persistable left, Persistable right) {
+			return As.notNull(left.getId()).compareTo(As.notNull(right.getId()));
+		}
+	};
+
+
 	@Inject private NamingConvention namingConvention;
-	@PersistenceContext private EntityManager em;
+	@Inject private EquivalenceClassIndex equivalenceClassIndex;
+	@Inject private DeviceNameIndex deviceNameIndex;
+	@Inject private ReadReplicaRouter readRouter;
+	@Inject private NamingSnapshotService namingSnapshotService;
+	@Inject private IdAllocator idAllocator;
+	@PersistenceContext(unitName = "org.openepics.names.punit") private EntityManager em;
 
 	private List<String> getMnemonicPath(@Nullable NamePart namePart){
-		final @Nullable NamePartView namePartView = namePart != null ? view(namePart) : null;
-		return namePartView != null ? namePartView.getMnemonicPath() : ImmutableList.<String>of();
+		if (namePart == null) return ImmutableList.of();
+		final List<NamePartRevision> pathRevisions = em.createQuery("SELECT r FROM NamePartClosure c, NamePartRevisionHead h, NamePartRevision r WHERE c.type = :type AND c.descendant = :namePart AND h.namePart = c.ancestor AND (r = h.approvedRevision OR (h.approvedRevision IS NULL AND r = h.pendingRevision)) ORDER BY c.depth DESC", NamePartRevision.class).setParameter("type", NamePartClosureType.APPROVED).setParameter("namePart", namePart).getResultList();
+		final ImmutableList.Builder<String> mnemonicPath = ImmutableList.builder();
+		for (NamePartRevision pathRevision : pathRevisions) {
+			mnemonicPath.add(pathRevision.getMnemonic() != null ? pathRevision.getMnemonic() : "");
+		}
+		return mnemonicPath.build();
+	}
+
+	private List<String> getMnemonicPathWithChild(@Nullable NamePart namePart, @Nullable String mnemonic){
+		return ImmutableList.<String>builder().addAll(getMnemonicPath(namePart)).add(mnemonic != null ? mnemonic : "").build();
 	}
 
 	/**
@@ -64,8 +115,7 @@ public class NamePartService {
 	 * @return True if the mnemonic can be null.
 	 */
 	public boolean isMnemonicRequired(NamePartType namePartType, @Nullable NamePart namePart) {
-		final @Nullable NamePartView namePartView = namePart != null ? view(namePart) : null;
-		final List<String> mnemonicPath = namePartView != null ? namePartView.getMnemonicPath() : ImmutableList.<String>of();
+		final List<String> mnemonicPath = getMnemonicPath(namePart);
 		return namingConvention.isMnemonicRequired(mnemonicPath, namePartType);
 	}
 
@@ -76,8 +126,7 @@ public class NamePartService {
 	 * @return True if the mnemonic of a child name part can be null.
 	 */
 	public boolean isMnemonicRequiredForChild(NamePartType namePartType, NamePart namePart) {
-		final @Nullable NamePartView namePartView = namePart != null ? view(namePart) : null;
-		final List<String> addMnemonicPath = namePartView != null ? namePartView.getMnemonicPathWithChild("") : ImmutableList.<String>of("");
+		final List<String> addMnemonicPath = getMnemonicPathWithChild(namePart, "");
 		return namingConvention.isMnemonicRequired(addMnemonicPath, namePartType);
 	}
 
@@ -88,8 +137,7 @@ public class NamePartService {
 	 * @return The name of the name part type to be used in dialog header and menus. Example: "Modify mnemonic for namePartTypeName" where namePartTypeName can be section, subsection, discipline etc... 
 	 */
 	public String getNamePartTypeName(NamePartType namePartType, NamePart namePart) {
-		final @Nullable NamePartView namePartView = namePart != null ? view(namePart) : null;
-		final List<String> mnemonicPath = namePartView != null ? namePartView.getMnemonicPath() : ImmutableList.<String>of();
+		final List<String> mnemonicPath = getMnemonicPath(namePart);
 		return namingConvention.getNamePartTypeName(mnemonicPath, namePartType);
 	}
 
@@ -100,8 +148,7 @@ public class NamePartService {
 	 * @return The name of the name part type to be used in dialog header and menus. Example: "Add mnemonic for namePartTypeName" where namePartTypeName can be section, subsection, discipline etc... 
 	 */
 	public String getNamePartTypeNameForChild(NamePartType namePartType, NamePart namePart) {
-		final @Nullable NamePartView namePartView = namePart != null ? view(namePart) : null;
-		final List<String> mnemonicPath = namePartView != null ? namePartView.getMnemonicPathWithChild("") : ImmutableList.<String>of("");
+		final List<String> mnemonicPath = getMnemonicPathWithChild(namePart, "");
 		return namingConvention.getNamePartTypeName(mnemonicPath, namePartType);
 	}
 
@@ -112,8 +159,7 @@ public class NamePartService {
 	 * @return The mnemonic of the name part type to be used in dialogs. Example: "' Mnemonic: namePartTypeMnemonic" where namePartTypeMnemonic can be Sec, Dev  etc... 
 	 */
 	public String getNamePartTypeMnemonic(NamePartType namePartType, NamePart namePart) {
-		final @Nullable NamePartView namePartView = namePart != null ? view(namePart) : null;
-		final List<String> mnemonicPath = namePartView != null ? namePartView.getMnemonicPath() : ImmutableList.<String>of();
+		final List<String> mnemonicPath = getMnemonicPath(namePart);
 		return namingConvention.getNamePartTypeMnemonic(mnemonicPath, namePartType);
 	}
 
@@ -124,8 +170,7 @@ public class NamePartService {
 	 * @return The mnemonic of the name part type to be used in dialogs. Example: "' Mnemonic: namePartTypeMnemonic" where namePartTypeMnemonic can be Sec, Dev  etc... 
 	 */
 	public String getNamePartTypeMnemonicForChild(NamePartType namePartType, NamePart namePart) {
-		final @Nullable NamePartView namePartView = namePart != null ? view(namePart) : null;
-		final List<String> mnemonicPath = namePartView != null ? namePartView.getMnemonicPathWithChild("") : ImmutableList.<String>of("");
+		final List<String> mnemonicPath = getMnemonicPathWithChild(namePart, "");
 		return namingConvention.getNamePartTypeMnemonic(mnemonicPath, namePartType);
 	}
 
@@ -138,8 +183,7 @@ public class NamePartService {
 	 * @return True if the mnemonic of a name part is valid in the context of the parent.
 	 */
 	public boolean isMnemonicValid(NamePartType type, @Nullable NamePart parent, @Nullable String mnemonic) {
-		final @Nullable NamePartView namePartParentView = parent != null ? view(parent) : null;
-		final List<String> mnemonicPath = namePartParentView != null ? namePartParentView.getMnemonicPathWithChild(mnemonic) : ImmutableList.<String>of(mnemonic!=null? mnemonic: "");
+		final List<String> mnemonicPath = getMnemonicPathWithChild(parent, mnemonic);
 		return namingConvention.isMnemonicValid(mnemonicPath, type);
 	}
 
@@ -153,22 +197,32 @@ public class NamePartService {
 	public boolean isMnemonicUniqueOnAdd(NamePartType type, @Nullable NamePart parent, @Nullable String mnemonic) {        
 		if(mnemonic==null) {
 			return false;
+		} else if (equivalenceClassIndex.namePartsWithMnemonic(namingConvention.equivalenceClassRepresentative(mnemonic)).isEmpty()) {
+			return true;
 		} else {
-			final String mnemonicEquivalenceClass = namingConvention.equivalenceClassRepresentative(mnemonic);
-			final List<NamePartRevision> sameEqClassRevisions = em.createQuery("SELECT r FROM NamePartRevision r WHERE (r.id = (SELECT MAX(r2.id) FROM NamePartRevision r2 WHERE r2.namePart = r.namePart AND r2.status = :approved) OR r.id = (SELECT MAX(r2.id) FROM NamePartRevision r2 WHERE r2.namePart = r.namePart AND r2.status = :pending)) AND r.deleted = FALSE AND r.mnemonicEqClass = :mnemonicEquivalenceClass", NamePartRevision.class).setParameter("approved", NamePartRevisionStatus.APPROVED).setParameter("pending", NamePartRevisionStatus.PENDING).setParameter("mnemonicEquivalenceClass", mnemonicEquivalenceClass).getResultList();
-			for (NamePartRevision sameEqClassRevision : sameEqClassRevisions) {
-				if (Objects.equal(sameEqClassRevision.getParent(), parent)) {
-					return false;
-				}
-			}           
-			final List<String> newMnemonicPath = ImmutableList.<String>builder().addAll(parent == null ? ImmutableList.<String>of() : view(parent).getMnemonicPath()).add(mnemonic).build();
-			for (NamePartRevision sameEqClassRevision : sameEqClassRevisions) {
-				if (!namingConvention.canMnemonicsCoexist(newMnemonicPath, type, view(sameEqClassRevision.getNamePart()).getMnemonicPath(), sameEqClassRevision.getNamePart().getNamePartType())) {
-					return false;
-				}
+			return isMnemonicUniqueOnAddInDatabase(type, parent, mnemonic);
+		}
+	}
+
+	/**
+	 * Checks the uniqueness of the mnemonic of a name part that is to be added against the database rather than the
+	 * equivalence class index, which may not yet know the changes committed by other servers.
+	 */
+	private boolean isMnemonicUniqueOnAddInDatabase(NamePartType type, @Nullable NamePart parent, String mnemonic) {
+		final String mnemonicEquivalenceClass = namingConvention.equivalenceClassRepresentative(mnemonic);
+		final List<NamePartRevision> sameEqClassRevisions = em.createQuery("SELECT r FROM NamePartRevision r, NamePartRevisionHead h WHERE h.namePart = r.namePart AND (r = h.approvedRevision OR r = h.pendingRevision) AND r.deleted = FALSE AND r.mnemonicEqClass = :mnemonicEquivalenceClass", NamePartRevision.class).setParameter("mnemonicEquivalenceClass", mnemonicEquivalenceClass).getResultList();
+		for (NamePartRevision sameEqClassRevision : sameEqClassRevisions) {
+			if (Objects.equal(sameEqClassRevision.getParent(), parent)) {
+				return false;
+			}
+		}           
+		final List<String> newMnemonicPath = getMnemonicPathWithChild(parent, mnemonic);
+		for (NamePartRevision sameEqClassRevision : sameEqClassRevisions) {
+			if (!namingConvention.canMnemonicsCoexist(newMnemonicPath, type, getMnemonicPath(sameEqClassRevision.getNamePart()), sameEqClassRevision.getNamePart().getNamePartType())) {
+				return false;
 			}
-			return true; 
 		}
+		return true; 
 	}
 
 	/**
@@ -178,23 +232,32 @@ public class NamePartService {
 	 * @return True if the mnemonic of a name part that is to be modify is unique according to the naming convention rules.
 	 */
 	public boolean isMnemonicUniqueOnModify(NamePart namePart, @Nullable NamePart parent, String mnemonic){
+		final String mnemonicEquivalenceClass = namingConvention.equivalenceClassRepresentative(mnemonic);    	
+		if (Sets.difference(equivalenceClassIndex.namePartsWithMnemonic(mnemonicEquivalenceClass), ImmutableSet.of(namePart.getId())).isEmpty()) {
+			return true;
+		}
+		return isMnemonicUniqueOnModifyInDatabase(namePart, parent, mnemonic);
+	}
+
+	/**
+	 * Checks the uniqueness of the mnemonic of a name part that is to be modified against the database rather than the
+	 * equivalence class index, which may not yet know the changes committed by other servers.
+	 */
+	private boolean isMnemonicUniqueOnModifyInDatabase(NamePart namePart, @Nullable NamePart parent, String mnemonic){
 		NamePartType namePartType=namePart.getNamePartType();
-		final List<String> newMnemonicPath = ImmutableList.<String>builder().addAll(getMnemonicPath(parent)).add(mnemonic!=null? mnemonic:"").build();
-//		if(namingConvention.isMnemonicRequired(newMnemonicPath, namePartType)) {
-			final String mnemonicEquivalenceClass = namingConvention.equivalenceClassRepresentative(mnemonic);    	
-			final List<NamePartRevision> sameEqClassRevisions = em.createQuery("SELECT r FROM NamePartRevision r WHERE (r.id = (SELECT MAX(r2.id) FROM NamePartRevision r2 WHERE r2.namePart = r.namePart AND r2.status = :approved) OR r.id = (SELECT MAX(r2.id) FROM NamePartRevision r2 WHERE r2.namePart = r.namePart AND r2.status = :pending)) AND r.deleted = FALSE AND r.mnemonicEqClass = :mnemonicEquivalenceClass", NamePartRevision.class).setParameter("approved", NamePartRevisionStatus.APPROVED).setParameter("pending", NamePartRevisionStatus.PENDING).setParameter("mnemonicEquivalenceClass", mnemonicEquivalenceClass).getResultList();
-			for (NamePartRevision sameEqClassRevision : sameEqClassRevisions) {
-				final NamePart sameEqClassNamePart=sameEqClassRevision.getNamePart();
-				if(! Objects.equal(namePart,sameEqClassNamePart)){     		
-					final List<String> sameEqClassNamePartPath =getMnemonicPath(sameEqClassNamePart);
-					final NamePartType sameEqClassNamePartType=sameEqClassNamePart.getNamePartType();
-					if (!namingConvention.canMnemonicsCoexist(newMnemonicPath, namePartType, sameEqClassNamePartPath, sameEqClassNamePartType) ) {
-						return false;
-					}           
-				}    	
-			}			
-//		}
-		
+		final List<String> newMnemonicPath = getMnemonicPathWithChild(parent, mnemonic);
+		final String mnemonicEquivalenceClass = namingConvention.equivalenceClassRepresentative(mnemonic);    	
+		final List<NamePartRevision> sameEqClassRevisions = em.createQuery("SELECT r FROM NamePartRevision r, NamePartRevisionHead h WHERE h.namePart = r.namePart AND (r = h.approvedRevision OR r = h.pendingRevision) AND r.deleted = FALSE AND r.mnemonicEqClass = :mnemonicEquivalenceClass", NamePartRevision.class).setParameter("mnemonicEquivalenceClass", mnemonicEquivalenceClass).getResultList();
+		for (NamePartRevision sameEqClassRevision : sameEqClassRevisions) {
+			final NamePart sameEqClassNamePart=sameEqClassRevision.getNamePart();
+			if(! Objects.equal(namePart,sameEqClassNamePart)){     		
+				final List<String> sameEqClassNamePartPath =getMnemonicPath(sameEqClassNamePart);
+				final NamePartType sameEqClassNamePartType=sameEqClassNamePart.getNamePartType();
+				if (!namingConvention.canMnemonicsCoexist(newMnemonicPath, namePartType, sameEqClassNamePartPath, sameEqClassNamePartType) ) {
+					return false;
+				}           
+			}    	
+		}			
 		return true;
 	}
 
@@ -206,9 +269,7 @@ public class NamePartService {
 	 * @return True if the instance index of a device defined by a section and device type is valid.
 	 */
 	public boolean isInstanceIndexValid(NamePart subsection, NamePart deviceType, @Nullable String instanceIndex) {
-		final NamePartView subsectionView = view(subsection);
-		final NamePartView deviceTypeView = view(deviceType);
-		return namingConvention.isInstanceIndexValid(subsectionView.getMnemonicPath(), deviceTypeView.getMnemonicPath(), instanceIndex);
+		return namingConvention.isInstanceIndexValid(getMnemonicPath(subsection), getMnemonicPath(deviceType), instanceIndex);
 	}
 
 	/**
@@ -233,10 +294,7 @@ public class NamePartService {
 	public boolean isDeviceConventionNameUniqueExceptForItself(Device device, NamePart subsection, NamePart deviceType, @Nullable String instanceIndex) {
 		final String conventionName=conventionName(subsection, deviceType, instanceIndex);
 		final String conventionNameEqClass = namingConvention.equivalenceClassRepresentative(conventionName);
-		final DeviceRevision currentRevision = currentRevision(device);
-		String currentConventionNameEqClass=currentRevision.getConventionNameEqClass();
-		boolean nameIsEquivalentToCurrentRevision=conventionNameEqClass.equals(currentConventionNameEqClass);
-		return isDeviceConventionNameUnique(conventionName) || nameIsEquivalentToCurrentRevision;
+		return Sets.difference(equivalenceClassIndex.devicesWithName(conventionNameEqClass), ImmutableSet.of(device.getId())).isEmpty();
 	}
 
 	/**
@@ -246,7 +304,7 @@ public class NamePartService {
 	 */
 	public boolean isDeviceConventionNameUnique(String conventionName) {
 		final String equivalenceClass = namingConvention.equivalenceClassRepresentative(conventionName);
-		return em.createQuery("SELECT r FROM DeviceRevision r WHERE r.id = (SELECT MAX(r2.id) FROM DeviceRevision r2 WHERE r2.device = r.device) AND r.deleted = false AND r.conventionNameEqClass = :conventionNameEqClass", DeviceRevision.class).setParameter("conventionNameEqClass", equivalenceClass).getResultList().isEmpty();
+		return equivalenceClassIndex.devicesWithName(equivalenceClass).isEmpty();
 	}
 
 	/**
@@ -262,6 +320,7 @@ public class NamePartService {
 	 * @return the resulting proposed NamePart revision
 	 */
 	public NamePartRevision addNamePart(String name, @Nullable String mnemonic, @Nullable String description, NamePartType namePartType, @Nullable NamePart parent, @Nullable UserAccount user, @Nullable String comment) {
+		idAllocator.lockNaming();
 		Preconditions.checkArgument(parent == null || parent.getNamePartType() == namePartType);
 
 		final @Nullable NamePartView parentView = parent != null ? view(parent) : null;
@@ -273,13 +332,13 @@ public class NamePartService {
 		}
 
 		Preconditions.checkState(isMnemonicValid(namePartType, parent, mnemonic));
-		if(mnemonic!=null) Preconditions.checkState(isMnemonicUniqueOnAdd(namePartType, parent, mnemonic));
+		if(mnemonic!=null) Preconditions.checkState(isMnemonicUniqueOnAddInDatabase(namePartType, parent, mnemonic));
 		final String  mnemonicEqClass = mnemonic !=null ? namingConvention.equivalenceClassRepresentative(mnemonic):null;
 		final NamePart namePart = new NamePart(UUID.randomUUID(), namePartType);
 		final NamePartRevision newRevision = new NamePartRevision(namePart, new Date(), user, comment, false, parent, name, mnemonic, description, mnemonicEqClass);
 
 		em.persist(namePart);
-		em.persist(newRevision);
+		persistRevision(newRevision);
 
 		return newRevision;
 	}
@@ -296,6 +355,7 @@ public class NamePartService {
 	 * @return the resulting proposed NamePart revision
 	 */
 	public NamePartRevision modifyNamePart(NamePart namePart, String name, @Nullable String mnemonic, @Nullable String description, @Nullable UserAccount user, @Nullable String comment) {
+		idAllocator.lockNaming();
 		// namePart
 		final NamePartView namePartView = view(namePart);				
 		final NamePartRevision baseRevision = namePartView.getCurrentOrElsePendingRevision();
@@ -315,7 +375,7 @@ public class NamePartService {
 
 			if(isMnemonicRequiredForChild(parent, namePartType)){
 				//		Preconditions.checkState(!(hasDevices(namePart)));
-				Preconditions.checkState(isMnemonicUniqueOnModify(namePart, parent, mnemonic), "mnemonic is not unique");
+				Preconditions.checkState(isMnemonicUniqueOnModifyInDatabase(namePart, parent, mnemonic), "mnemonic is not unique");
 			}
 		}
 
@@ -326,7 +386,7 @@ public class NamePartService {
 		final String mnemonicEqClass = mnemonic!=null ? namingConvention.equivalenceClassRepresentative(mnemonic): null ;
 		final NamePartRevision newRevision = new NamePartRevision(namePart, new Date(), user, comment, false, parent, name, mnemonic, description, mnemonicEqClass);
 
-		em.persist(newRevision);
+		persistRevision(newRevision);
 
 		final NamePartRevision currentRevision=namePartView.getCurrentRevision();
 		//	 	if(newRevision.isEquivalentWith(namePartView.getCurrentRevision())) cancelChangesForNamePart(namePart, null, "Automatically cancelled: Equivalent with current approved revision", false);	
@@ -343,6 +403,7 @@ public class NamePartService {
 	 * @return the resulting proposed NamePart revision
 	 */
 	public NamePartRevision moveNamePart(NamePart namePart, @Nullable NamePart destinationParent, @Nullable UserAccount user, @Nullable String comment) {
+		idAllocator.lockNaming();
 		// namePart
 		final NamePartView namePartView = view(namePart);				
 		final NamePartRevision baseRevision = namePartView.getCurrentOrElsePendingRevision();
@@ -369,7 +430,7 @@ public class NamePartService {
 		Preconditions.checkState(!namePartView.isDeleted() && !namePartView.isPendingDeletion(), "name part is deleted or pending deletion");
 
 		if(isMnemonicRequiredForChild(destinationParent, namePartType)){
-			Preconditions.checkState(isMnemonicUniqueOnModify(namePart, destinationParent, mnemonic), "mnemonic is not unique");
+			Preconditions.checkState(isMnemonicUniqueOnModifyInDatabase(namePart, destinationParent, mnemonic), "mnemonic is not unique");
 		}
 
 		//	if (pendingRevision != null) {
@@ -379,7 +440,7 @@ public class NamePartService {
 		final String mnemonicEqClass = mnemonic!=null ? namingConvention.equivalenceClassRepresentative(mnemonic): null ;
 		final NamePartRevision newRevision = new NamePartRevision(namePart, new Date(), user, comment, false, destinationParent, namePartView.getName(), mnemonic, namePartView.getDescription(), mnemonicEqClass);
 
-		em.persist(newRevision);
+		persistRevision(newRevision);
 
 		final NamePartRevision currentRevision=namePartView.getCurrentRevision();
 		//	 	if(newRevision.isEquivalentWith(namePartView.getCurrentRevision())) cancelChangesForNamePart(namePart, null, "Automatically cancelled: Equivalent with current approved revision", false);	
@@ -392,24 +453,7 @@ public class NamePartService {
 	 * @return True if the name part has dependent devices
 	 */
 	private boolean hasDevices(NamePart namePart) {
-		List<String> mnemonicPath=getMnemonicPath(namePart);
-
-		if(mnemonicPath.size()==3){
-			List<Device> devices=selectDevicesFrom(namePart); 
-			if(devices!=null && !devices.isEmpty()){
-				return true;
-			} else {
-				return false;
-			}
-		} else {
-			List<NamePart> children= approvedAndProposedChildren(namePart);
-			for (NamePart child : children) {
-				if(hasDevices(child)){
-					return true;
-				}
-			}
-		}
-		return false;
+		return !subtreeDevices(namePart, NamePartClosureType.PROPOSED).setMaxResults(1).getResultList().isEmpty();
 	}
 
 	/**
@@ -488,27 +532,37 @@ public class NamePartService {
 	 * @return the resulting proposed NamePart revision
 	 */
 	public NamePartRevision deleteNamePart(NamePart namePart, @Nullable UserAccount user, @Nullable String comment) {
+		idAllocator.lockNaming();
 		final @Nullable NamePartRevision approvedRevision = approvedRevision(namePart);
 		final @Nullable NamePartRevision pendingRevision = pendingRevision(namePart);
 
 		if ((approvedRevision == null || !approvedRevision.isDeleted()) && (pendingRevision == null || !pendingRevision.isDeleted())) {
-			if (pendingRevision != null) {
-				updateRevisionStatus(pendingRevision, NamePartRevisionStatus.CANCELLED, user, null);
+			final List<NamePart> descendants = approvedAndProposedDescendants(namePart);
+			final NamePartRevision revision = deleteSingleNamePart(namePart, approvedRevision, pendingRevision, user, comment);
+			for (NamePart descendant : descendants) {
+				final @Nullable NamePartRevision descendantApprovedRevision = approvedRevision(descendant);
+				final @Nullable NamePartRevision descendantPendingRevision = pendingRevision(descendant);
+				if ((descendantApprovedRevision == null || !descendantApprovedRevision.isDeleted()) && (descendantPendingRevision == null || !descendantPendingRevision.isDeleted())) {
+					deleteSingleNamePart(descendant, descendantApprovedRevision, descendantPendingRevision, user, comment);
+				}
 			}
+			return revision;
+		} else {
+			return approvedRevision != null ? approvedRevision : pendingRevision;
+		}
+	}
 
-			for (NamePart child : approvedAndProposedChildren(namePart)) {
-				deleteNamePart(child, user, comment);
-			}
+	private NamePartRevision deleteSingleNamePart(NamePart namePart, @Nullable NamePartRevision approvedRevision, @Nullable NamePartRevision pendingRevision, @Nullable UserAccount user, @Nullable String comment) {
+		if (pendingRevision != null) {
+			updateRevisionStatus(pendingRevision, NamePartRevisionStatus.CANCELLED, user, null);
+		}
 
-			if (approvedRevision != null) {
-				final NamePartRevision newRevision = new NamePartRevision(namePart, new Date(), user, comment, true, approvedRevision.getParent(), approvedRevision.getName(), approvedRevision.getMnemonic(), approvedRevision.getDescription(), approvedRevision.getMnemonicEqClass());
-				em.persist(newRevision);
-				return newRevision;
-			} else {
-				return pendingRevision;
-			}
+		if (approvedRevision != null) {
+			final NamePartRevision newRevision = new NamePartRevision(namePart, new Date(), user, comment, true, approvedRevision.getParent(), approvedRevision.getName(), approvedRevision.getMnemonic(), approvedRevision.getDescription(), approvedRevision.getMnemonicEqClass());
+			persistRevision(newRevision);
+			return newRevision;
 		} else {
-			return approvedRevision != null ? approvedRevision : pendingRevision;
+			return As.notNull(pendingRevision);
 		}
 	}
 
@@ -523,16 +577,16 @@ public class NamePartService {
 	 * @return the affected NamePart revision
 	 */
 	public NamePartRevision cancelChangesForNamePart(NamePart namePart, @Nullable UserAccount user, @Nullable String comment, boolean markAsRejected) {
+		idAllocator.lockNaming();
 		final @Nullable NamePartRevision approvedRevision = approvedRevision(namePart);
 		final @Nullable NamePartRevision pendingRevision = pendingRevision(namePart);
 
 		if (pendingRevision != null && pendingRevision.getStatus() == NamePartRevisionStatus.PENDING) {
 			if (canCancelChild(pendingRevision.getParent())) {
+				final List<NamePart> descendants = approvedRevision == null || pendingRevision.isDeleted() ? approvedAndProposedDescendants(namePart) : ImmutableList.<NamePart>of();
 				updateRevisionStatus(pendingRevision, markAsRejected ? NamePartRevisionStatus.REJECTED : NamePartRevisionStatus.CANCELLED, user, comment);
-				if (approvedRevision == null || pendingRevision.isDeleted()) {
-					for (NamePart child : approvedAndProposedChildren(pendingRevision.getNamePart())) {
-						cancelChildNamePart(child, user, comment, markAsRejected);
-					}
+				for (NamePart descendant : descendants) {
+					cancelChildNamePart(descendant, user, comment, markAsRejected);
 				}
 				return pendingRevision;
 			} else {
@@ -554,26 +608,23 @@ public class NamePartService {
 	 * @return the affected NamePart revision
 	 */
 	public NamePartRevision approveNamePartRevision(NamePartRevision namePartRevision, @Nullable UserAccount user, @Nullable String comment) {
+		idAllocator.lockNaming();
 		namePartRevision = emAttached(namePartRevision);
 		if (namePartRevision.getStatus() == NamePartRevisionStatus.PENDING) {
 			if (canApproveChild(namePartRevision.getParent())) {
 				updateRevisionStatus(namePartRevision, NamePartRevisionStatus.APPROVED, user, comment);
 
 				if (namePartRevision.isDeleted()) {
-					for (Device device : associatedDevices(namePartRevision.getNamePart(), false)) {
+					final List<NamePart> deletedNameParts = Lists.newArrayList(namePartRevision.getNamePart());
+					for (NamePart descendant : approvedAndProposedDescendants(namePartRevision.getNamePart())) {
+						updateRevisionStatus(As.notNull(pendingRevision(descendant)), NamePartRevisionStatus.APPROVED, user, null);
+						deletedNameParts.add(descendant);
+					}
+					for (Device device : devicesOf(deletedNameParts)) {
 						deleteDevice(device, user);
 					}
 				} else {
-					for (Device device : associatedDevices(namePartRevision.getNamePart(), true)) {
-						final DeviceRevision currentDeviceRevision = currentRevision(device);
-						modifyDevice(device, currentDeviceRevision.getSection(), currentDeviceRevision.getDeviceType(), currentDeviceRevision.getInstanceIndex(), currentDeviceRevision.getAdditionalInfo(), user);
-					}
-				}
-
-				if (namePartRevision.isDeleted()) {
-					for (NamePart child : approvedAndProposedChildren(namePartRevision.getNamePart())) {
-						approveChildNamePartForDelete(child, user);
-					}
+					updateAssociatedDeviceNames(namePartRevision.getNamePart(), user);
 				}
 
 				return namePartRevision;
@@ -587,6 +638,75 @@ public class NamePartService {
 		}
 	}
 
+	/**
+	 * Brings the convention names of all devices associated with the name part, directly or through its children,
+	 * up to date with the approved mnemonic paths. The new names are computed in memory from the approved structure,
+	 * checked for uniqueness as a set before the new device revisions are persisted. The published name rows of all
+	 * the devices are refreshed, renamed or not, since mnemonics that are not part of the names may have changed too.
+	 * The old names are retired before the new ones are published, as a new name may be the old name of another device.
+	 */
+	private void updateAssociatedDeviceNames(NamePart namePart, @Nullable UserAccount user) {
+		final String deviceProperty = namePart.getNamePartType() == NamePartType.SECTION ? "section" : "deviceType";
+		final List<DeviceRevisionHead> heads = em.createQuery("SELECT h FROM NamePartClosure c, DeviceRevisionHead h JOIN FETCH h.currentRevision r JOIN FETCH r.device WHERE c.type = :type AND c.ancestor = :namePart AND r." + deviceProperty + " = c.descendant AND r.deleted = false", DeviceRevisionHead.class).setParameter("type", NamePartClosureType.APPROVED).setParameter("namePart", namePart).getResultList();
+		if (heads.isEmpty()) return;
+
+		final DeviceSnapshotLoader loader = new DeviceSnapshotLoader(em);
+		final BatchViewProvider viewProvider = new BatchViewProvider(loader.approvedNamePartRevisions(NamePartType.SECTION, false), loader.approvedNamePartRevisions(NamePartType.DEVICE_TYPE, false), ImmutableList.<DeviceRevision>of());
+		final Date requestDate = new Date();
+		final Map<DeviceRevisionHead, DeviceRevision> newRevisions = Maps.newLinkedHashMap();
+		for (DeviceRevisionHead head : heads) {
+			final DeviceRevision currentRevision = head.getCurrentRevision();
+			final List<String> sectionPath = viewProvider.view(currentRevision.getSection()).getMnemonicPath();
+			final List<String> deviceTypePath = viewProvider.view(currentRevision.getDeviceType()).getMnemonicPath();
+			final String conventionName = namingConvention.conventionName(sectionPath, deviceTypePath, currentRevision.getInstanceIndex());
+			if (!conventionName.equals(currentRevision.getConventionName())) {
+				Preconditions.checkState(namingConvention.isInstanceIndexValid(sectionPath, deviceTypePath, currentRevision.getInstanceIndex()), "Instance index of %s is not valid after renaming", conventionName);
+				newRevisions.put(head, new DeviceRevision(currentRevision.getDevice(), requestDate, user, false, currentRevision.getSection(), currentRevision.getDeviceType(), currentRevision.getInstanceIndex(), conventionName, namingConvention.equivalenceClassRepresentative(conventionName), currentRevision.getAdditionalInfo()));
+			}
+		}
+
+		checkConventionNamesUnique(newRevisions.values());
+		final Map<String, DeviceNameSnapshot> nameSnapshots = Maps.newHashMap();
+		for (DeviceNameSnapshot nameSnapshot : em.createQuery("SELECT s FROM NamePartClosure c, DeviceRevisionHead h JOIN h.currentRevision r, DeviceNameSnapshot s WHERE c.type = :type AND c.ancestor = :namePart AND r." + deviceProperty + " = c.descendant AND r.deleted = false AND s.name = r.conventionName", DeviceNameSnapshot.class).setParameter("type", NamePartClosureType.APPROVED).setParameter("namePart", namePart).getResultList()) {
+			nameSnapshots.put(nameSnapshot.getName(), nameSnapshot);
+		}
+		for (Map.Entry<DeviceRevisionHead, DeviceRevision> entry : newRevisions.entrySet()) {
+			final DeviceRevision previousRevision = entry.getKey().getCurrentRevision();
+			em.persist(entry.getValue());
+			entry.getKey().update(entry.getValue());
+			retireName(previousRevision.getConventionName(), entry.getValue(), nameSnapshots);
+		}
+		for (DeviceRevisionHead head : heads) {
+			final DeviceRevision currentRevision = head.getCurrentRevision();
+			updateNameSnapshot(currentRevision, null, viewProvider.view(currentRevision.getSection()), viewProvider.view(currentRevision.getDeviceType()), nameSnapshots);
+			if (newRevisions.containsKey(head)) {
+				indexDeviceRevision(currentRevision, false);
+			}
+		}
+	}
+
+	/**
+	 * Checks that the new names of a set of added or renamed devices are unique among themselves and do not clash with
+	 * the names of any other device. The old names of the renamed devices are considered free. The current names are
+	 * read from the database rather than the equivalence class index, which may not yet know the changes committed by
+	 * other servers; the naming lock keeps them from changing until the new names are committed.
+	 */
+	private void checkConventionNamesUnique(Collection<DeviceRevision> newRevisions) {
+		final Set<Long> renamedDevices = Sets.newHashSet();
+		final Set<String> newEqClasses = Sets.newHashSet();
+		for (DeviceRevision newRevision : newRevisions) {
+			if (newRevision.getDevice().getId() != null) {
+				renamedDevices.add(newRevision.getDevice().getId());
+			}
+			Preconditions.checkState(newEqClasses.add(newRevision.getConventionNameEqClass()), "Device name %s is not unique", newRevision.getConventionName());
+		}
+		for (List<String> eqClasses : Iterables.partition(newEqClasses, MAX_NAMES_PER_QUERY)) {
+			for (Long holder : em.createQuery("SELECT r.device.id FROM DeviceRevisionHead h JOIN h.currentRevision r WHERE r.deleted = false AND r.conventionNameEqClass IN :eqClasses", Long.class).setParameter("eqClasses", eqClasses).getResultList()) {
+				Preconditions.checkState(renamedDevices.contains(holder), "Device name clashes with the name of the device with id %s", holder);
+			}
+		}
+	}
+
 	/**
 	 *
 	 * @param namePart the name part
@@ -594,42 +714,66 @@ public class NamePartService {
 	 * @return The list of devices associated by the given name part (contained under a section or of a given device type)
 	 */
 	public List<Device> associatedDevices(NamePart namePart, boolean recursive) {
-		final List<Device> associatedDevices = Lists.newArrayList();
-		if (namePart.getNamePartType() == NamePartType.SECTION) {
-			associatedDevices.addAll(devicesInSection(namePart));
+		if (recursive) {
+			return subtreeDevices(namePart, NamePartClosureType.APPROVED).getResultList();
+		} else if (namePart.getNamePartType() == NamePartType.SECTION) {
+			return devicesInSection(namePart);
 		} else if (namePart.getNamePartType() == NamePartType.DEVICE_TYPE) {
-			associatedDevices.addAll(devicesOfType(namePart));
+			return devicesOfType(namePart);
 		} else {
 			throw new UnhandledCaseException();
 		}
-		if (recursive) {
-			for (NamePart child : approvedChildren(namePart)) {
-				associatedDevices.addAll(associatedDevices(child, true));
-			}
-		}
-		return associatedDevices;
 	}
 
+	/**
+	 * @param namePart the name part
+	 * @return The number of devices contained in the section or of the device type, including those associated by the
+	 * name part's children deeper down in the hierarchy
+	 */
+	public long associatedDeviceCount(NamePart namePart) {
+		final String deviceProperty = namePart.getNamePartType() == NamePartType.SECTION ? "section" : "deviceType";
+		return em.createQuery("SELECT COUNT(r) FROM NamePartClosure c, DeviceRevisionHead h JOIN h.currentRevision r WHERE c.type = :type AND c.ancestor = :namePart AND r." + deviceProperty + " = c.descendant AND r.deleted = false", Long.class).setParameter("type", NamePartClosureType.APPROVED).setParameter("namePart", namePart).getSingleResult();
+	}
+
+	/**
+	 * @param namePart the name part
+	 * @param type the hierarchy to search
+	 * @return The name part's ancestors in the given hierarchy, starting from the root of the hierarchy
+	 */
+	public List<NamePart> ancestors(NamePart namePart, NamePartClosureType type) {
+		return em.createQuery("SELECT c.ancestor FROM NamePartClosure c WHERE c.type = :type AND c.descendant = :namePart AND c.depth > 0 ORDER BY c.depth DESC", NamePart.class).setParameter("type", type).setParameter("namePart", namePart).getResultList();
+	}
+
+	/**
+	 * @param namePart the name part
+	 * @param type the hierarchy to search
+	 * @return All name parts below the given one in the given hierarchy, parents before their children
+	 */
+	public List<NamePart> descendants(NamePart namePart, NamePartClosureType type) {
+		return em.createQuery("SELECT c.descendant FROM NamePartClosure c WHERE c.type = :type AND c.ancestor = :namePart AND c.depth > 0 ORDER BY c.depth", NamePart.class).setParameter("type", type).setParameter("namePart", namePart).getResultList();
+	}
+
+
 	/**
 	 *
 	 * @param type the type of the name parts
 	 * @param includeDeleted true if the list should also include revisions for deleted name parts
 	 * @return The list of current, most recent approved revisions of all name parts of a given type in the database.
 	 */
-	public List<NamePartRevision> currentApprovedNamePartRevisions(NamePartType type, boolean includeDeleted) {
-		if (includeDeleted)
-			return em.createQuery("SELECT r FROM NamePartRevision r WHERE r.id = (SELECT MAX(r2.id) FROM NamePartRevision r2 WHERE r2.namePart = r.namePart AND r2.namePart.namePartType = :type AND r2.status = :approved)", NamePartRevision.class).setParameter("type", type).setParameter("approved", NamePartRevisionStatus.APPROVED).getResultList();
-		else {
-			return em.createQuery("SELECT r FROM NamePartRevision r WHERE r.id = (SELECT MAX(r2.id) FROM NamePartRevision r2 WHERE r2.namePart = r.namePart AND r2.namePart.namePartType = :type AND r2.status = :approved) AND r.deleted = FALSE", NamePartRevision.class).setParameter("type", type).setParameter("approved", NamePartRevisionStatus.APPROVED).getResultList();
-		}
+	public List<NamePartRevision> currentApprovedNamePartRevisions(final NamePartType type, final boolean includeDeleted) {
+		return readRouter.read(em, new Function<EntityManager, List<NamePartRevision>>() {
+			@Override public List<NamePartRevision> apply(EntityManager readEm) {
+				return new DeviceSnapshotLoader(readEm).approvedNamePartRevisions(type, includeDeleted);
+			}
+		});
 	}
 
 	
 	public List<NamePartRevision> currentApprovedNamePartRevisionRoots(NamePartType type, boolean includeDeleted) {
 		if (includeDeleted)
-			return em.createQuery("SELECT r FROM NamePartRevision r WHERE r.id = (SELECT MAX(r2.id) FROM NamePartRevision r2 WHERE r2.namePart = r.namePart AND r2.namePart.namePartType = :type AND r2.status = :approved) AND r.parent IS NULL ORDER BY r.name", NamePartRevision.class).setParameter("type", type).setParameter("approved", NamePartRevisionStatus.APPROVED).getResultList();
+			return em.createQuery("SELECT r FROM NamePartRevisionHead h JOIN h.approvedRevision r WHERE h.namePart.namePartType = :type AND r.parent IS NULL ORDER BY r.name", NamePartRevision.class).setParameter("type", type).getResultList();
 		else {
-			return em.createQuery("SELECT r FROM NamePartRevision r WHERE r.id = (SELECT MAX(r2.id) FROM NamePartRevision r2 WHERE r2.namePart = r.namePart AND r2.namePart.namePartType = :type AND r2.status = :approved) AND r.deleted = FALSE AND r.parent IS NULL ORDER BY r.name", NamePartRevision.class).setParameter("type", type).setParameter("approved", NamePartRevisionStatus.APPROVED).getResultList();
+			return em.createQuery("SELECT r FROM NamePartRevisionHead h JOIN h.approvedRevision r WHERE h.namePart.namePartType = :type AND r.deleted = FALSE AND r.parent IS NULL ORDER BY r.name", NamePartRevision.class).setParameter("type", type).getResultList();
 		}
 	}
 
@@ -642,6 +786,93 @@ public class NamePartService {
 		return em.createQuery("SELECT r FROM NamePartRevision r", NamePartRevision.class).getResultList();
 	}
 
+	/**
+	 * Creates the current revision pointers for name parts and devices that do not have them yet. Used to bring a
+	 * database created by an older version of the application up to date; name parts and devices added by this version
+	 * get their pointers maintained as revisions are added and processed.
+	 */
+	public void initializeRevisionHeads() {
+		final Map<NamePart, NamePartRevisionHead> namePartHeads = Maps.newHashMap();
+		final List<NamePartRevision> namePartRevisions = em.createQuery("SELECT r FROM NamePartRevision r WHERE r.namePart NOT IN (SELECT h.namePart FROM NamePartRevisionHead h) AND (r.id = (SELECT MAX(r2.id) FROM NamePartRevision r2 WHERE r2.namePart = r.namePart AND r2.status = :approved) OR r.id = (SELECT MAX(r2.id) FROM NamePartRevision r2 WHERE r2.namePart = r.namePart AND r2.status = :pending)) ORDER BY r.id", NamePartRevision.class).setParameter("approved", NamePartRevisionStatus.APPROVED).setParameter("pending", NamePartRevisionStatus.PENDING).getResultList();
+		for (NamePartRevision revision : namePartRevisions) {
+			@Nullable NamePartRevisionHead head = namePartHeads.get(revision.getNamePart());
+			if (head == null) {
+				head = new NamePartRevisionHead(revision.getNamePart());
+				em.persist(head);
+				namePartHeads.put(revision.getNamePart(), head);
+			}
+			head.update(revision);
+		}
+
+		final List<DeviceRevision> deviceRevisions = em.createQuery("SELECT r FROM DeviceRevision r WHERE r.device NOT IN (SELECT h.device FROM DeviceRevisionHead h) AND r.id = (SELECT MAX(r2.id) FROM DeviceRevision r2 WHERE r2.device = r.device)", DeviceRevision.class).getResultList();
+		for (DeviceRevision revision : deviceRevisions) {
+			em.persist(new DeviceRevisionHead(revision));
+		}
+	}
+	/**
+	 * Records the names held by each device so far in the name history. Used to bring a database created by an older
+	 * version of the application up to date; afterwards the history is maintained as device revisions are added.
+	 */
+	public void initializeDeviceNameHistory() {
+		em.createQuery("DELETE FROM DeviceNameHistory n").executeUpdate();
+		for (DeviceRevision revision : em.createQuery("SELECT r FROM DeviceRevision r WHERE r.id = (SELECT MAX(r2.id) FROM DeviceRevision r2 WHERE r2.device = r.device AND r2.conventionName = r.conventionName)", DeviceRevision.class).getResultList()) {
+			em.persist(new DeviceNameHistory(revision));
+		}
+	}
+
+	/**
+	 * Publishes the rows of all device names used so far. Used to bring a database created by an older version of the
+	 * application up to date; afterwards the rows are maintained as device revisions are added and name part changes
+	 * are approved.
+	 */
+	public void initializeDeviceNameSnapshot() {
+		em.createQuery("DELETE FROM DeviceNameSnapshot s").executeUpdate();
+		final DeviceSnapshot snapshot = new DeviceSnapshotLoader(em).load(false);
+		final Map<String, DeviceNameSnapshot> nameSnapshots = Maps.newHashMap();
+		for (DeviceRevision revision : snapshot.getDeviceRevisions()) {
+			final DeviceNameSnapshot nameSnapshot = new DeviceNameSnapshot(revision.getConventionName());
+			updateActive(nameSnapshot, revision, snapshot.getViewProvider().view(revision.getSection()), snapshot.getViewProvider().view(revision.getDeviceType()));
+			nameSnapshots.put(revision.getConventionName(), nameSnapshot);
+		}
+		for (DeviceRevision revision : latestObsoleteDeviceRevisionsGroupedByName(em)) {
+			if (!nameSnapshots.containsKey(revision.getConventionName())) {
+				final DeviceNameSnapshot nameSnapshot = new DeviceNameSnapshot(revision.getConventionName());
+				nameSnapshot.updateRetired(revision.getDevice().getUuid(), revision.isDeleted());
+				nameSnapshots.put(revision.getConventionName(), nameSnapshot);
+			}
+		}
+		for (DeviceNameSnapshot nameSnapshot : nameSnapshots.values()) {
+			em.persist(nameSnapshot);
+		}
+	}
+
+	/**
+	 * Rebuilds the ancestor / descendant pairs of both name part hierarchies from the current revision pointers. Used
+	 * to bring a database created by an older version of the application up to date; afterwards the pairs are
+	 * maintained as revisions are added and processed.
+	 */
+	public void initializeNamePartClosure() {
+		em.createQuery("DELETE FROM NamePartClosure c").executeUpdate();
+		final List<NamePartRevisionHead> heads = em.createQuery("SELECT h FROM NamePartRevisionHead h JOIN FETCH h.namePart LEFT JOIN FETCH h.approvedRevision LEFT JOIN FETCH h.pendingRevision", NamePartRevisionHead.class).getResultList();
+		for (NamePartClosureType type : NamePartClosureType.values()) {
+			final Map<NamePart, NamePart> parents = Maps.newHashMap();
+			for (NamePartRevisionHead head : heads) {
+				final @Nullable NamePartRevision first = type == NamePartClosureType.APPROVED ? head.getApprovedRevision() : head.getPendingRevision();
+				final @Nullable NamePartRevision structuralRevision = first != null ? first : (type == NamePartClosureType.APPROVED ? head.getPendingRevision() : head.getApprovedRevision());
+				if (structuralRevision != null) {
+					parents.put(head.getNamePart(), structuralRevision.getParent());
+				}
+			}
+			for (NamePart namePart : parents.keySet()) {
+				int depth = 0;
+				for (@Nullable NamePart ancestor = namePart; ancestor != null && depth <= MAX_HIERARCHY_DEPTH; ancestor = parents.get(ancestor), depth++) {
+					em.persist(new NamePartClosure(type, ancestor, namePart, depth));
+				}
+			}
+		}
+	}
+
+
 	/**
 	 *
 	 * @param type the type of the name parts
@@ -650,18 +881,64 @@ public class NamePartService {
 	 */
 	public List<NamePartRevision> currentPendingNamePartRevisions(NamePartType type, boolean includeDeleted) {
 		if (includeDeleted)
-			return em.createQuery("SELECT r FROM NamePartRevision r WHERE r.id = (SELECT MAX(r2.id) FROM NamePartRevision r2 WHERE r2.namePart = r.namePart AND r2.namePart.namePartType = :type AND r2.status = :pending)", NamePartRevision.class).setParameter("type", type).setParameter("pending", NamePartRevisionStatus.PENDING).getResultList();
+			return em.createQuery("SELECT r FROM NamePartRevisionHead h JOIN h.pendingRevision r WHERE h.namePart.namePartType = :type", NamePartRevision.class).setParameter("type", type).getResultList();
 		else {
-			return em.createQuery("SELECT r FROM NamePartRevision r WHERE r.id = (SELECT MAX(r2.id) FROM NamePartRevision r2 WHERE r2.namePart = r.namePart AND r2.namePart.namePartType = :type AND r2.status = :pending) AND NOT (r.status = :approved AND r.deleted = TRUE)", NamePartRevision.class).setParameter("type", type).setParameter("pending", NamePartRevisionStatus.PENDING).getResultList();
+			return em.createQuery("SELECT r FROM NamePartRevisionHead h JOIN h.pendingRevision r WHERE h.namePart.namePartType = :type AND NOT (r.status = :approved AND r.deleted = TRUE)", NamePartRevision.class).setParameter("type", type).setParameter("approved", NamePartRevisionStatus.APPROVED).getResultList();
 		}
 	}
 
+	/**
+	 * Returns a page of the revision history of a name part, using the revision ID as the key, so that the cost of a
+	 * page does not depend on the length of the history.
+	 *
+	 * @param namePart the name part
+	 * @param boundaryId the ID of the revision the page starts after, in the direction of the page. Null for the first
+	 * page: the oldest revisions if ascending, the latest ones otherwise.
+	 * @param pageSize the maximum number of revisions in the page
+	 * @param ascending true if the page should contain the revisions following the boundary from the oldest on, false
+	 * if it should contain the revisions preceding the boundary from the latest back
+	 * @return the revisions of the page, in the direction of the page
+	 */
+	public List<NamePartRevision> revisions(final NamePart namePart, final @Nullable Long boundaryId, final int pageSize, final boolean ascending) {
+		Preconditions.checkArgument(pageSize > 0);
+		return readRouter.read(em, new Function<EntityManager, List<NamePartRevision>>() {
+			@Override public List<NamePartRevision> apply(EntityManager readEm) {
+				final TypedQuery<ArchivedNamePartRevision> archivedQuery = readEm.createQuery("SELECT r FROM ArchivedNamePartRevision r WHERE r.namePart = :namePart" + keysetCondition("r.revisionId", boundaryId, ascending), ArchivedNamePartRevision.class).setParameter("namePart", namePart);
+				final TypedQuery<NamePartRevision> query = readEm.createQuery("SELECT r FROM NamePartRevision r WHERE r.namePart = :namePart" + keysetCondition("r.id", boundaryId, ascending), NamePartRevision.class).setParameter("namePart", namePart);
+				if (boundaryId != null) {
+					archivedQuery.setParameter("boundaryId", boundaryId);
+					query.setParameter("boundaryId", boundaryId);
+				}
+				final List<NamePartRevision> revisions = Lists.newArrayList(query.setMaxResults(pageSize).getResultList());
+				final Set<Long> revisionIds = ids(revisions);
+				for (ArchivedNamePartRevision archivedRevision : archivedQuery.setMaxResults(pageSize).getResultList()) {
+					if (!revisionIds.contains(archivedRevision.getRevisionId())) {
+						revisions.add(archivedRevision.toRevision());
+					}
+				}
+				return page(revisions, pageSize, ascending);
+			}
+		});
+	}
+
 	/**
 	 * @param namePart the name part
 	 * @return The list of all revisions of the given name part, including approved, pending, canceled or rejected, starting from the oldest to the latest.
 	 */
-	public List<NamePartRevision> revisions(NamePart namePart) {
-		return em.createQuery("SELECT r FROM NamePartRevision r WHERE r.namePart = :namePart ORDER BY r.id", NamePartRevision.class).setParameter("namePart", namePart).getResultList();
+	public List<NamePartRevision> revisions(final NamePart namePart) {
+		return readRouter.read(em, new Function<EntityManager, List<NamePartRevision>>() {
+			@Override public List<NamePartRevision> apply(EntityManager readEm) {
+				final List<NamePartRevision> revisions = Lists.newArrayList(readEm.createQuery("SELECT r FROM NamePartRevision r WHERE r.namePart = :namePart ORDER BY r.id", NamePartRevision.class).setParameter("namePart", namePart).getResultList());
+				final Set<Long> revisionIds = ids(revisions);
+				for (ArchivedNamePartRevision archivedRevision : readEm.createQuery("SELECT r FROM ArchivedNamePartRevision r WHERE r.namePart = :namePart ORDER BY r.revisionId", ArchivedNamePartRevision.class).setParameter("namePart", namePart).getResultList()) {
+					if (!revisionIds.contains(archivedRevision.getRevisionId())) {
+						revisions.add(archivedRevision.toRevision());
+					}
+				}
+				Collections.sort(revisions, BY_ID);
+				return revisions;
+			}
+		});
 	}
 
 	/**
@@ -670,7 +947,7 @@ public class NamePartService {
 	 * @return The current, most recent approved revision of the given name part. Null if no approved revision exists for this name part.
 	 */
 	public @Nullable NamePartRevision approvedRevision(NamePart namePart) {
-		return JpaHelper.getSingleResultOrNull(em.createQuery("SELECT r FROM NamePartRevision r WHERE r.namePart = :namePart AND r.status = :status ORDER BY r.id DESC", NamePartRevision.class).setParameter("namePart", namePart).setParameter("status", NamePartRevisionStatus.APPROVED).setMaxResults(1));
+		return JpaHelper.getSingleResultOrNull(em.createQuery("SELECT r FROM NamePartRevisionHead h JOIN h.approvedRevision r WHERE h.namePart = :namePart", NamePartRevision.class).setParameter("namePart", namePart));
 	}
 
 	/**
@@ -679,10 +956,7 @@ public class NamePartService {
 	 * @return The revision of the given name part currently pending approval. Null if no revision is pending approval.
 	 */
 	public @Nullable NamePartRevision pendingRevision(NamePart namePart) {
-		final @Nullable NamePartRevision lastPendingOrApprovedRevision = JpaHelper.getSingleResultOrNull(em.createQuery("SELECT r FROM NamePartRevision r WHERE r.namePart = :namePart AND (r.status = :approved OR r.status = :pending) ORDER BY r.id DESC", NamePartRevision.class).setParameter("namePart", namePart).setParameter("approved", NamePartRevisionStatus.APPROVED).setParameter("pending", NamePartRevisionStatus.PENDING).setMaxResults(1));
-		if (lastPendingOrApprovedRevision == null) return null;
-		else if (lastPendingOrApprovedRevision.getStatus() == NamePartRevisionStatus.PENDING) return lastPendingOrApprovedRevision;
-		else return null;
+		return JpaHelper.getSingleResultOrNull(em.createQuery("SELECT r FROM NamePartRevisionHead h JOIN h.pendingRevision r WHERE h.namePart = :namePart", NamePartRevision.class).setParameter("namePart", namePart));
 	}
 
 	/**
@@ -692,7 +966,10 @@ public class NamePartService {
 	 * @param user the user adding the devices. Null if done by an automated process.
 	 */
 	public void batchAddDevices(Iterable<DeviceDefinition> devices, @Nullable UserAccount user) {
-		final BatchViewProvider batchViewProvider = new BatchViewProvider(currentApprovedNamePartRevisions(NamePartType.SECTION, false), currentApprovedNamePartRevisions(NamePartType.DEVICE_TYPE, false), ImmutableList.<DeviceRevision>of());
+		idAllocator.lockNaming();
+		final DeviceSnapshotLoader loader = new DeviceSnapshotLoader(em);
+		final BatchViewProvider batchViewProvider = new BatchViewProvider(loader.approvedNamePartRevisions(NamePartType.SECTION, false), loader.approvedNamePartRevisions(NamePartType.DEVICE_TYPE, false), ImmutableList.<DeviceRevision>of());
+		final List<DeviceRevision> newRevisions = Lists.newArrayList();
 		for (DeviceDefinition device : devices) {
 			final NamePartView sectionView = batchViewProvider.view(device.section());
 			final NamePartView deviceTypeView = batchViewProvider.view(device.deviceType());
@@ -703,13 +980,18 @@ public class NamePartService {
 			final String conventionNameEqClass = namingConvention.equivalenceClassRepresentative(conventionName);
 
 			Preconditions.checkState(namingConvention.isInstanceIndexValid(sectionView.getMnemonicPath(), deviceTypeView.getMnemonicPath(), device.instanceIndex()));
-			Preconditions.checkState(isDeviceConventionNameUnique(conventionName));
 
 			final Device deviceEntity = new Device(UUID.randomUUID());
-			final DeviceRevision newRevision = new DeviceRevision(deviceEntity, new Date(), user, false, device.section(), device.deviceType(), device.instanceIndex(), conventionName, conventionNameEqClass, device.additionalInfo());
+			newRevisions.add(new DeviceRevision(deviceEntity, new Date(), user, false, device.section(), device.deviceType(), device.instanceIndex(), conventionName, conventionNameEqClass, device.additionalInfo()));
+		}
 
-			em.persist(deviceEntity);
+		checkConventionNamesUnique(newRevisions);
+		for (DeviceRevision newRevision : newRevisions) {
+			em.persist(newRevision.getDevice());
 			em.persist(newRevision);
+			em.persist(new DeviceRevisionHead(newRevision));
+			updateNameSnapshot(newRevision, null, batchViewProvider.view(newRevision.getSection()), batchViewProvider.view(newRevision.getDeviceType()), ImmutableMap.<String, DeviceNameSnapshot>of());
+			indexDeviceRevision(newRevision, true);
 		}
 	}
 
@@ -724,6 +1006,7 @@ public class NamePartService {
 	 * @return current revision of the added device
 	 */
 	public DeviceRevision addDevice(NamePart section, NamePart deviceType, @Nullable String instanceIndex,@Nullable String additionalInfo, @Nullable UserAccount user) {
+		idAllocator.lockNaming();
 		final NamePartRevision sectionRevision = As.notNull(approvedRevision(section));
 		final NamePartRevision deviceTypeRevision = As.notNull(approvedRevision(deviceType));
 		Preconditions.checkArgument(!sectionRevision.isDeleted());
@@ -733,12 +1016,12 @@ public class NamePartService {
 		final String conventionNameEqClass = namingConvention.equivalenceClassRepresentative(conventionName);
 
 		Preconditions.checkState(isInstanceIndexValid(section, deviceType, instanceIndex));
-		Preconditions.checkState(isDeviceConventionNameUnique(section, deviceType, instanceIndex));
 		final Device device = new Device(UUID.randomUUID());
 		final DeviceRevision newRevision = new DeviceRevision(device, new Date(), user, false, section, deviceType, instanceIndex, conventionName, conventionNameEqClass, additionalInfo);
+		checkConventionNamesUnique(ImmutableList.of(newRevision));
 
 		em.persist(device);
-		em.persist(newRevision);
+		persistRevision(newRevision);
 
 		return newRevision;
 	}
@@ -755,6 +1038,7 @@ public class NamePartService {
 	 * @return the revision of the device resulting from the modification
 	 */
 	public DeviceRevision modifyDevice(Device device, NamePart section, NamePart deviceType, @Nullable String instanceIndex,@Nullable String additionalInfo, @Nullable UserAccount user) {
+		idAllocator.lockNaming();
 		final DeviceRevision currentRevision = currentRevision(device);
 		Preconditions.checkArgument(!currentRevision.isDeleted());
 		device.getUuid();
@@ -775,9 +1059,9 @@ public class NamePartService {
 				Objects.equal(additionalInfo,currentRevision.getAdditionalInfo());
 		if (!sameName) {
 			Preconditions.checkState(isInstanceIndexValid(section, deviceType, instanceIndex));
-			Preconditions.checkState(isDeviceConventionNameUniqueExceptForItself(device,section,deviceType,instanceIndex));
 			final DeviceRevision newRevision = new DeviceRevision(device, new Date(), user, false, section, deviceType, instanceIndex, conventionName, conventionNameEqClass, additionalInfo);
-			em.persist(newRevision);
+			checkConventionNamesUnique(ImmutableList.of(newRevision));
+			persistRevision(newRevision);
 			return newRevision;
 		} else {   	
 			return currentRevision;
@@ -793,11 +1077,12 @@ public class NamePartService {
 	 * @return the revision of the device resulting from the deletion
 	 */
 	public DeviceRevision deleteDevice(Device device, @Nullable UserAccount user) {
+		idAllocator.lockNaming();
 		final DeviceRevision currentRevision = currentRevision(device);
 
 		if (!currentRevision.isDeleted()) {
 			final DeviceRevision newRevision = new DeviceRevision(device, new Date(), user, true, currentRevision.getSection(), currentRevision.getDeviceType(), currentRevision.getInstanceIndex(), currentRevision.getConventionName(), currentRevision.getConventionNameEqClass(), currentRevision.getAdditionalInfo());
-			em.persist(newRevision);
+			persistRevision(newRevision);
 			return newRevision;
 		} else {
 			return currentRevision;
@@ -808,7 +1093,14 @@ public class NamePartService {
 	 * @return The list of all revisions of obsolete devices in the database. 
 	 */
 	public List<DeviceRevision> obsoleteDeviceRevisions(){
-		return em.createQuery("SELECT r FROM DeviceRevision r WHERE r.id <> (SELECT MAX(r2.id) FROM DeviceRevision r2 WHERE r2.device = r.device)", DeviceRevision.class).getResultList();
+		final List<DeviceRevision> revisions = Lists.newArrayList(em.createQuery("SELECT r FROM DeviceRevision r, DeviceRevisionHead h WHERE h.device = r.device AND h.currentRevision <> r", DeviceRevision.class).getResultList());
+		final Set<Long> revisionIds = ids(revisions);
+		for (ArchivedDeviceRevision archivedRevision : em.createQuery("SELECT r FROM ArchivedDeviceRevision r", ArchivedDeviceRevision.class).getResultList()) {
+			if (!revisionIds.contains(archivedRevision.getRevisionId())) {
+				revisions.add(archivedRevision.toRevision());
+			}
+		}
+		return revisions;
 	}
 
 
@@ -828,12 +1120,25 @@ public class NamePartService {
 	 *
 	 * @param includeDeleted true if the list should also include revisions for deleted devices
 	 */
-	public List<DeviceRevision> currentDeviceRevisions(boolean includeDeleted) {
-		if (includeDeleted)
-			return em.createQuery("SELECT r FROM DeviceRevision r WHERE r.id = (SELECT MAX(r2.id) FROM DeviceRevision r2 WHERE r2.device = r.device)", DeviceRevision.class).getResultList();
-		else {
-			return em.createQuery("SELECT r FROM DeviceRevision r WHERE r.id = (SELECT MAX(r2.id) FROM DeviceRevision r2 WHERE r2.device = r.device) AND r.deleted = false", DeviceRevision.class).getResultList();
-		}
+	public List<DeviceRevision> currentDeviceRevisions(final boolean includeDeleted) {
+		return readRouter.read(em, new Function<EntityManager, List<DeviceRevision>>() {
+			@Override public List<DeviceRevision> apply(EntityManager readEm) {
+				return new DeviceSnapshotLoader(readEm).currentDeviceRevisions(includeDeleted);
+			}
+		});
+	}
+
+	/**
+	 * @param includeDeleted true if the snapshot should also include deleted devices and name parts
+	 * @return The current revisions of all devices and the approved revisions of all sections and device types,
+	 * loaded in a fixed number of queries.
+	 */
+	public DeviceSnapshot deviceSnapshot(final boolean includeDeleted) {
+		return readRouter.read(em, new Function<EntityManager, DeviceSnapshot>() {
+			@Override public DeviceSnapshot apply(EntityManager readEm) {
+				return new DeviceSnapshotLoader(readEm).load(includeDeleted);
+			}
+		});
 	}
 
 	/**
@@ -841,7 +1146,41 @@ public class NamePartService {
 	 *
 	 */
 	public List<DeviceRevision> latestObsoleteDeviceRevisionsGroupedByName() {
-			return em.createQuery("SELECT r FROM DeviceRevision r WHERE (r.id <> (SELECT MAX(r2.id) FROM DeviceRevision r2 WHERE r2.device = r.device) OR r.deleted = true) AND r.id= (SELECT MAX(r3.id) FROM DeviceRevision r3 WHERE r3.conventionName=r.conventionName)", DeviceRevision.class).getResultList(); 
+		return readRouter.read(em, new Function<EntityManager, List<DeviceRevision>>() {
+			@Override public List<DeviceRevision> apply(EntityManager readEm) {
+				return latestObsoleteDeviceRevisionsGroupedByName(readEm);
+			}
+		});
+	}
+
+	private static List<DeviceRevision> latestObsoleteDeviceRevisionsGroupedByName(EntityManager em) {
+		return em.createQuery("SELECT r FROM DeviceNameHistory n JOIN n.latestRevision r JOIN FETCH r.device JOIN FETCH r.section JOIN FETCH r.deviceType LEFT JOIN FETCH r.requestedBy, DeviceRevisionHead h WHERE h.device = r.device AND (h.currentRevision <> r OR r.deleted = true) AND r.id = (SELECT MAX(n2.latestRevision.id) FROM DeviceNameHistory n2 WHERE n2.conventionName = n.conventionName)", DeviceRevision.class).getResultList();
+	}
+
+	/**
+	 * @param sinceChangeId the ID of the last naming change log entry already seen, null for all device names
+	 * @param untilChangeId the ID of the last naming change log entry of interest
+	 * @return The published rows of the device names changed by the log entries in the given range, with their current
+	 * data. Read from the primary database, so that the rows are never older than the naming change log.
+	 */
+	public List<DeviceNameSnapshot> deviceNameSnapshotsChanged(@Nullable Long sinceChangeId, long untilChangeId) {
+		if (sinceChangeId == null) {
+			return em.createQuery("SELECT s FROM DeviceNameSnapshot s ORDER BY s.name", DeviceNameSnapshot.class).getResultList();
+		} else {
+			return em.createQuery("SELECT s FROM DeviceNameSnapshot s WHERE s.id IN (SELECT c.entityId FROM NamingChange c WHERE c.kind = :kind AND c.id > :sinceChangeId AND c.id <= :untilChangeId) ORDER BY s.name", DeviceNameSnapshot.class).setParameter("kind", NamingChangeKind.DEVICE_NAME).setParameter("sinceChangeId", sinceChangeId).setParameter("untilChangeId", untilChangeId).getResultList();
+		}
+	}
+
+	/**
+	 * @return The published rows of all device names ever used, one for each name, describing the active device
+	 * holding the name or the device that held it last.
+	 */
+	public List<DeviceNameSnapshot> deviceNameSnapshots() {
+		return readRouter.read(em, new Function<EntityManager, List<DeviceNameSnapshot>>() {
+			@Override public List<DeviceNameSnapshot> apply(EntityManager readEm) {
+				return readEm.createQuery("SELECT s FROM DeviceNameSnapshot s", DeviceNameSnapshot.class).getResultList();
+			}
+		});
 	}
 
 	/**
@@ -849,18 +1188,89 @@ public class NamePartService {
 	 * @return The list of the latest obsolete or deleted, revisions of all device names in the database.
 	 *
 	 */
-	public DeviceRevision latestObsoleteDeviceRevisionNamed(String conventionName) {
-			
-		List<DeviceRevision> deviceRevisions=	em.createQuery("SELECT r FROM DeviceRevision r WHERE (r.id <> (SELECT MAX(r2.id) FROM DeviceRevision r2 WHERE r2.device = r.device) OR r.deleted = true) AND r.id= (SELECT MAX(r3.id) FROM DeviceRevision r3 WHERE r3.conventionName= :conventionName)", DeviceRevision.class).setParameter("conventionName", conventionName).getResultList(); 
-		return deviceRevisions!=null ?deviceRevisions.get(0): null;
+	public @Nullable DeviceRevision latestObsoleteDeviceRevisionNamed(String conventionName) {
+		final @Nullable DeviceRevision latestRevision = latestDeviceRevisionNamed(conventionName);
+		return latestRevision != null && (latestRevision.isDeleted() || !isCurrent(latestRevision)) ? latestRevision : null;
 	}
 	
+	/**
+	 * Returns a page of the revision history of a device, using the revision ID as the key, so that the cost of a page
+	 * does not depend on the length of the history.
+	 *
+	 * @param device the device
+	 * @param boundaryId the ID of the revision the page starts after, in the direction of the page. Null for the first
+	 * page: the oldest revisions if ascending, the latest ones otherwise.
+	 * @param pageSize the maximum number of revisions in the page
+	 * @param ascending true if the page should contain the revisions following the boundary from the oldest on, false
+	 * if it should contain the revisions preceding the boundary from the latest back
+	 * @return the revisions of the page, in the direction of the page
+	 */
+	public List<DeviceRevision> revisions(final Device device, final @Nullable Long boundaryId, final int pageSize, final boolean ascending) {
+		Preconditions.checkArgument(pageSize > 0);
+		return readRouter.read(em, new Function<EntityManager, List<DeviceRevision>>() {
+			@Override public List<DeviceRevision> apply(EntityManager readEm) {
+				final TypedQuery<ArchivedDeviceRevision> archivedQuery = readEm.createQuery("SELECT r FROM ArchivedDeviceRevision r WHERE r.device = :device" + keysetCondition("r.revisionId", boundaryId, ascending), ArchivedDeviceRevision.class).setParameter("device", device);
+				final TypedQuery<DeviceRevision> query = readEm.createQuery("SELECT r FROM DeviceRevision r WHERE r.device = :device" + keysetCondition("r.id", boundaryId, ascending), DeviceRevision.class).setParameter("device", device);
+				if (boundaryId != null) {
+					archivedQuery.setParameter("boundaryId", boundaryId);
+					query.setParameter("boundaryId", boundaryId);
+				}
+				final List<DeviceRevision> revisions = Lists.newArrayList(query.setMaxResults(pageSize).getResultList());
+				final Set<Long> revisionIds = ids(revisions);
+				for (ArchivedDeviceRevision archivedRevision : archivedQuery.setMaxResults(pageSize).getResultList()) {
+					if (!revisionIds.contains(archivedRevision.getRevisionId())) {
+						revisions.add(archivedRevision.toRevision());
+					}
+				}
+				return page(revisions, pageSize, ascending);
+			}
+		});
+	}
+
+	private static String keysetCondition(String idPath, @Nullable Long boundaryId, boolean ascending) {
+		final String condition = boundaryId == null ? "" : " AND " + idPath + (ascending ? " > " : " < ") + ":boundaryId";
+		return condition + " ORDER BY " + idPath + (ascending ? " ASC" : " DESC");
+	}
+
+	/**
+	 * Collects the IDs of the revisions read from the current tables. The archive is always read after them, so that
+	 * a revision archived in between is read twice rather than missed, and the archived copy is dropped by its ID.
+	 */
+	private static Set<Long> ids(Collection<? extends Persistable> revisions) {
+		final Set<Long> ids = Sets.newHashSet();
+		for (Persistable revision : revisions) {
+			ids.add(As.notNull(revision.getId()));
+		}
+		return ids;
+	}
+
+	/**
+	 * Merges the current and archived candidates for a history page, each already limited to the page size, into the
+	 * page itself.
+	 */
+	private static <T extends Persistable> List<T> page(List<T> candidates, int pageSize, boolean ascending) {
+		Collections.sort(candidates, ascending ? BY_ID : Collections.reverseOrder(BY_ID));
+		return ImmutableList.copyOf(candidates.subList(0, Math.min(pageSize, candidates.size())));
+	}
+
 	/**
 	 * @return The list of all revisions of the given device, starting from the oldest to the latest.
 	 * @param device the device
 	 */
-	public List<DeviceRevision> revisions(Device device) {
-		return em.createQuery("SELECT r FROM DeviceRevision r WHERE r.device = :device ORDER BY r.id", DeviceRevision.class).setParameter("device", device).getResultList();
+	public List<DeviceRevision> revisions(final Device device) {
+		return readRouter.read(em, new Function<EntityManager, List<DeviceRevision>>() {
+			@Override public List<DeviceRevision> apply(EntityManager readEm) {
+				final List<DeviceRevision> revisions = Lists.newArrayList(readEm.createQuery("SELECT r FROM DeviceRevision r WHERE r.device = :device ORDER BY r.id", DeviceRevision.class).setParameter("device", device).getResultList());
+				final Set<Long> revisionIds = ids(revisions);
+				for (ArchivedDeviceRevision archivedRevision : readEm.createQuery("SELECT r FROM ArchivedDeviceRevision r WHERE r.device = :device ORDER BY r.revisionId", ArchivedDeviceRevision.class).setParameter("device", device).getResultList()) {
+					if (!revisionIds.contains(archivedRevision.getRevisionId())) {
+						revisions.add(archivedRevision.toRevision());
+					}
+				}
+				Collections.sort(revisions, BY_ID);
+				return revisions;
+			}
+		});
 	}
 
 	/**
@@ -869,7 +1279,7 @@ public class NamePartService {
 	 * @param device the device
 	 */
 	public DeviceRevision currentRevision(Device device) {
-		return em.createQuery("SELECT r FROM DeviceRevision r WHERE r.device = :device ORDER BY r.id DESC", DeviceRevision.class).setParameter("device", device).getResultList().get(0);
+		return em.createQuery("SELECT r FROM DeviceRevisionHead h JOIN h.currentRevision r WHERE h.device = :device", DeviceRevision.class).setParameter("device", device).getSingleResult();
 	}
 
 	/**
@@ -878,7 +1288,7 @@ public class NamePartService {
 	 * @param deviceUuid the UUID of the device
 	 */
 	public @Nullable DeviceRevision currentDeviceRevision(UUID deviceUuid) {
-		return JpaHelper.getSingleResultOrNull(em.createQuery("SELECT r FROM DeviceRevision r WHERE r.device.uuid = :uuid ORDER BY r.id DESC", DeviceRevision.class).setParameter("uuid", deviceUuid.toString()).setMaxResults(1));
+		return JpaHelper.getSingleResultOrNull(em.createQuery("SELECT r FROM DeviceRevisionHead h JOIN h.currentRevision r WHERE h.device.uuid = :uuid", DeviceRevision.class).setParameter("uuid", deviceUuid.toString()));
 	}
 
 	/**
@@ -887,8 +1297,8 @@ public class NamePartService {
 	 * @return the current device revision with the given device name  
 	 */
 	public @Nullable DeviceRevision currentDeviceRevision(String deviceName) {
-		List<DeviceRevision> deviceRevisions= em.createQuery("SELECT r FROM DeviceRevision r WHERE  r.id = (SELECT MAX(r2.id) FROM DeviceRevision r2 WHERE r2.device = r.device) AND r.conventionName = :conventionName", DeviceRevision.class).setParameter("conventionName", deviceName).getResultList();
-		return !deviceRevisions.isEmpty()? deviceRevisions.get(0):null;
+		final @Nullable DeviceRevision latestRevision = latestDeviceRevisionNamed(deviceName);
+		return latestRevision != null && isCurrent(latestRevision) ? latestRevision : null;
 	}
 
 	/**
@@ -897,7 +1307,16 @@ public class NamePartService {
 	 * @return list of device revisions previously with the given device name
 	 */
 	public List<DeviceRevision> devcieRevisionsPreviouslyNamed(String deviceName){
-		return em.createQuery("SELECT r FROM DeviceRevision r WHERE  r.id = (SELECT MAX(r2.id) FROM DeviceRevision r2 WHERE r2.device = r.device AND r2.conventionName = :conventionName)", DeviceRevision.class).setParameter("conventionName", deviceName).getResultList();
+		return em.createQuery("SELECT r FROM DeviceNameHistory n JOIN n.latestRevision r WHERE n.conventionName = :conventionName", DeviceRevision.class).setParameter("conventionName", deviceName).getResultList();
+	}
+
+	private @Nullable DeviceRevision latestDeviceRevisionNamed(String conventionName) {
+		final @Nullable Long revisionId = deviceNameIndex.latestRevisionId(conventionName);
+		return revisionId != null ? em.find(DeviceRevision.class, revisionId) : null;
+	}
+
+	private boolean isCurrent(DeviceRevision revision) {
+		return As.notNull(revision.getId()).equals(deviceNameIndex.currentRevisionId(As.notNull(revision.getDevice().getId())));
 	}
 
 
@@ -920,48 +1339,194 @@ public class NamePartService {
 		}
 	}
 
-	private void approveChildNamePartForDelete(NamePart namePart, @Nullable UserAccount user) {
-		final NamePartRevision pendingRevision = As.notNull(pendingRevision(namePart));
+	private void cancelChildNamePart(NamePart namePart, @Nullable UserAccount user, @Nullable String comment, boolean markAsRejected) {
+		final @Nullable NamePartRevision pendingRevision = pendingRevision(namePart);
+		if (pendingRevision != null) {
+			updateRevisionStatus(pendingRevision, markAsRejected ? NamePartRevisionStatus.REJECTED : NamePartRevisionStatus.CANCELLED, user, comment);
+		}
+	}
+
+	/**
+	 * @param namePart the root of the subtree
+	 * @return the name parts below the given one in the proposed structure, excluding deleted ones, parents before
+	 * their children
+	 */
+	private List<NamePart> approvedAndProposedDescendants(NamePart namePart) {
+		return em.createQuery("SELECT c.descendant FROM NamePartClosure c, NamePartRevisionHead h, NamePartRevision r WHERE c.type = :type AND c.ancestor = :namePart AND c.depth > 0 AND h.namePart = c.descendant AND (r = h.pendingRevision OR (h.pendingRevision IS NULL AND r = h.approvedRevision)) AND NOT (r.status = :approved AND r.deleted = TRUE) ORDER BY c.depth", NamePart.class).setParameter("type", NamePartClosureType.PROPOSED).setParameter("namePart", namePart).setParameter("approved", NamePartRevisionStatus.APPROVED).getResultList();
+	}
+
+	private TypedQuery<Device> subtreeDevices(NamePart namePart, NamePartClosureType type) {
+		final String deviceProperty = namePart.getNamePartType() == NamePartType.SECTION ? "section" : "deviceType";
+		return em.createQuery("SELECT r.device FROM NamePartClosure c, DeviceRevisionHead h JOIN h.currentRevision r WHERE c.type = :type AND c.ancestor = :namePart AND r." + deviceProperty + " = c.descendant AND r.deleted = false", Device.class).setParameter("type", type).setParameter("namePart", namePart);
+	}
+
+	private List<Device> devicesOf(List<NamePart> nameParts) {
+		return em.createQuery("SELECT r.device FROM DeviceRevisionHead h JOIN h.currentRevision r WHERE (r.section IN :nameParts OR r.deviceType IN :nameParts) AND r.deleted = false", Device.class).setParameter("nameParts", nameParts).getResultList();
+	}
+
+	private void updateRevisionStatus(NamePartRevision pendingRevision, NamePartRevisionStatus newStatus, @Nullable UserAccount user, @Nullable String comment) {
+		pendingRevision.updateAsProcessed(newStatus, new Date(), user, comment);
+		updateHead(pendingRevision);
+	}
+
+	private void persistRevision(NamePartRevision revision) {
+		em.persist(revision);
+		updateHead(revision);
+	}
 
-		updateRevisionStatus(pendingRevision, NamePartRevisionStatus.APPROVED, user, null);
-		for (Device device : associatedDevices(namePart, false)) {
-			deleteDevice(device, user);
+	private void updateHead(NamePartRevision revision) {
+		final NamePartRevisionHead head = head(revision.getNamePart());
+		head.update(revision);
+		readRouter.recordWrite();
+		namingSnapshotService.recordChange(revision.getId(), NamingChangeKind.NAME_PART, head.getNamePart().getId());
+		equivalenceClassIndex.updateNamePart(head.getNamePart(), head.getApprovedRevision(), head.getPendingRevision());
+		updateClosure(NamePartClosureType.APPROVED, head.getNamePart(), head.getApprovedRevision() != null ? head.getApprovedRevision() : head.getPendingRevision());
+		updateClosure(NamePartClosureType.PROPOSED, head.getNamePart(), head.getPendingRevision() != null ? head.getPendingRevision() : head.getApprovedRevision());
+	}
+
+	/**
+	 * Moves the name part, together with its subtree, under the parent of the given revision in the given hierarchy.
+	 */
+	private void updateClosure(NamePartClosureType type, NamePart namePart, @Nullable NamePartRevision structuralRevision) {
+		if (structuralRevision == null) return;
+		final @Nullable NamePart newParent = structuralRevision.getParent();
+
+		boolean isInHierarchy = false;
+		@Nullable NamePart oldParent = null;
+		for (NamePartClosure closure : em.createQuery("SELECT c FROM NamePartClosure c WHERE c.type = :type AND c.descendant = :namePart AND c.depth <= 1", NamePartClosure.class).setParameter("type", type).setParameter("namePart", namePart).getResultList()) {
+			if (closure.getDepth() == 0) {
+				isInHierarchy = true;
+			} else {
+				oldParent = closure.getAncestor();
+			}
 		}
 
-		for (NamePart child : approvedAndProposedChildren(namePart)) {
-			approveChildNamePartForDelete(child, user);
+		if (!isInHierarchy) {
+			em.persist(new NamePartClosure(type, namePart, namePart, 0));
+		} else if (Objects.equal(oldParent, newParent)) {
+			return;
+		} else if (oldParent != null) {
+			em.createQuery("DELETE FROM NamePartClosure c WHERE c.type = :type AND c.descendant IN (SELECT s.descendant FROM NamePartClosure s WHERE s.type = :type AND s.ancestor = :namePart) AND c.ancestor NOT IN (SELECT s.descendant FROM NamePartClosure s WHERE s.type = :type AND s.ancestor = :namePart)").setParameter("type", type).setParameter("namePart", namePart).executeUpdate();
+		}
+
+		if (newParent != null) {
+			final List<NamePartClosure> parentAncestry = em.createQuery("SELECT c FROM NamePartClosure c WHERE c.type = :type AND c.descendant = :namePart", NamePartClosure.class).setParameter("type", type).setParameter("namePart", newParent).getResultList();
+			final List<NamePartClosure> subtree = em.createQuery("SELECT c FROM NamePartClosure c WHERE c.type = :type AND c.ancestor = :namePart", NamePartClosure.class).setParameter("type", type).setParameter("namePart", namePart).getResultList();
+			for (NamePartClosure ancestorClosure : parentAncestry) {
+				Preconditions.checkState(!ancestorClosure.getAncestor().equals(namePart), "A name part cannot be moved below itself");
+				for (NamePartClosure descendantClosure : subtree) {
+					em.persist(new NamePartClosure(type, ancestorClosure.getAncestor(), descendantClosure.getDescendant(), ancestorClosure.getDepth() + descendantClosure.getDepth() + 1));
+				}
+			}
 		}
 	}
 
-	private void cancelChildNamePart(NamePart namePart, @Nullable UserAccount user, @Nullable String comment, boolean markAsRejected) {
-		final NamePartRevision pendingRevision = As.notNull(pendingRevision(namePart));
+	private void persistRevision(DeviceRevision revision) {
+		em.persist(revision);
+		final @Nullable DeviceRevisionHead head = JpaHelper.getSingleResultOrNull(em.createQuery("SELECT h FROM DeviceRevisionHead h WHERE h.device = :device", DeviceRevisionHead.class).setParameter("device", revision.getDevice()));
+		final @Nullable DeviceRevision previousRevision = head != null ? head.getCurrentRevision() : null;
+		if (head != null) {
+			head.update(revision);
+		} else {
+			em.persist(new DeviceRevisionHead(revision));
+		}
+		updateNameSnapshot(revision, previousRevision, view(revision.getSection()), view(revision.getDeviceType()), ImmutableMap.<String, DeviceNameSnapshot>of());
+		indexDeviceRevision(revision, head == null);
+	}
 
-		if (pendingRevision != null) {
-			updateRevisionStatus(pendingRevision, markAsRejected ? NamePartRevisionStatus.REJECTED : NamePartRevisionStatus.CANCELLED, user, comment);
+	/**
+	 * Brings the published rows of a device's names up to date with a new current revision of the device: the row of
+	 * its name, and the row of its previous name if the device was renamed. Must be called before the revision is
+	 * recorded in the name index, which tells whether the name has been used before.
+	 *
+	 * @param revision the new current revision of the device, or its unchanged current revision if only the structure
+	 * above it changed
+	 * @param previousRevision the revision the new one supersedes, null if the device is new or was not revised
+	 * @param sectionView the approved view of the section of the device
+	 * @param deviceTypeView the approved view of the device type of the device
+	 * @param loadedSnapshots rows already loaded by the caller, by name
+	 */
+	private void updateNameSnapshot(DeviceRevision revision, @Nullable DeviceRevision previousRevision, NamePartView sectionView, NamePartView deviceTypeView, Map<String, DeviceNameSnapshot> loadedSnapshots) {
+		final DeviceNameSnapshot nameSnapshot = nameSnapshot(revision.getConventionName(), loadedSnapshots);
+		if (revision.isDeleted()) {
+			nameSnapshot.updateRetired(revision.getDevice().getUuid(), true);
+		} else {
+			updateActive(nameSnapshot, revision, sectionView, deviceTypeView);
 		}
+		namingSnapshotService.recordChange(revision.getId(), NamingChangeKind.DEVICE_NAME, nameSnapshot.getId());
+		if (previousRevision != null && !previousRevision.getConventionName().equals(revision.getConventionName())) {
+			retireName(previousRevision.getConventionName(), revision, loadedSnapshots);
+		}
+	}
 
-		for (NamePart child : approvedAndProposedChildren(namePart)) {
-			cancelChildNamePart(child, user, comment, markAsRejected);
+	/**
+	 * Marks the row of a name the device no longer uses as obsolete.
+	 *
+	 * @param conventionName the old name of the device
+	 * @param revision the revision renaming the device
+	 * @param loadedSnapshots rows already loaded by the caller, by name
+	 */
+	private void retireName(String conventionName, DeviceRevision revision, Map<String, DeviceNameSnapshot> loadedSnapshots) {
+		final DeviceNameSnapshot nameSnapshot = nameSnapshot(conventionName, loadedSnapshots);
+		nameSnapshot.updateRetired(revision.getDevice().getUuid(), false);
+		namingSnapshotService.recordChange(revision.getId(), NamingChangeKind.DEVICE_NAME, nameSnapshot.getId());
+	}
+
+	private static void updateActive(DeviceNameSnapshot nameSnapshot, DeviceRevision revision, NamePartView sectionView, NamePartView deviceTypeView) {
+		final @Nullable NamePartView discipline = deviceTypeView.getParent() != null ? deviceTypeView.getParent().getParent() : null;
+		nameSnapshot.updateActive(revision.getDevice().getUuid(), sectionView.getParent() != null ? sectionView.getParent().getMnemonic() : null, sectionView.getMnemonic(), discipline != null ? discipline.getMnemonic() : null, deviceTypeView.getMnemonic(), revision.getInstanceIndex());
+	}
+
+	private DeviceNameSnapshot nameSnapshot(String conventionName, Map<String, DeviceNameSnapshot> loadedSnapshots) {
+		final @Nullable DeviceNameSnapshot loadedSnapshot = loadedSnapshots.get(conventionName);
+		if (loadedSnapshot != null) {
+			return loadedSnapshot;
+		}
+		final @Nullable DeviceNameSnapshot existingSnapshot = JpaHelper.getSingleResultOrNull(em.createQuery("SELECT s FROM DeviceNameSnapshot s WHERE s.name = :name", DeviceNameSnapshot.class).setParameter("name", conventionName));
+		if (existingSnapshot != null) {
+			return existingSnapshot;
+		} else {
+			final DeviceNameSnapshot newSnapshot = new DeviceNameSnapshot(conventionName);
+			em.persist(newSnapshot);
+			return newSnapshot;
 		}
 	}
 
-	private void updateRevisionStatus(NamePartRevision pendingRevision, NamePartRevisionStatus newStatus, @Nullable UserAccount user, @Nullable String comment) {
-		pendingRevision.updateAsProcessed(newStatus, new Date(), user, comment);
+	/**
+	 * Records a new device revision in the name history and in the in-memory name indexes. The name history of a
+	 * device that already existed is always searched, since the in-memory indexes may not yet know the names
+	 * recorded by other servers.
+	 */
+	private void indexDeviceRevision(DeviceRevision revision, boolean isNewDevice) {
+		readRouter.recordWrite();
+		namingSnapshotService.recordChange(revision.getId(), NamingChangeKind.DEVICE, revision.getDevice().getId());
+		equivalenceClassIndex.updateDevice(revision.getDevice(), revision);
+		final @Nullable DeviceNameHistory nameHistory = isNewDevice ? null : JpaHelper.getSingleResultOrNull(em.createQuery("SELECT n FROM DeviceNameHistory n WHERE n.conventionName = :conventionName AND n.device = :device", DeviceNameHistory.class).setParameter("conventionName", revision.getConventionName()).setParameter("device", revision.getDevice()));
+		if (nameHistory != null) {
+			nameHistory.update(revision);
+		} else {
+			em.persist(new DeviceNameHistory(revision));
+		}
+		deviceNameIndex.update(revision);
 	}
 
-	private List<NamePart> approvedChildren(NamePart namePart) {
-		return em.createQuery("SELECT r.namePart FROM NamePartRevision r WHERE r.parent = :namePart AND r.id = (SELECT MAX(r2.id) FROM NamePartRevision r2 WHERE r2.namePart = r.namePart AND (r2.status = :approved)) AND NOT (r.status = :approved AND r.deleted = TRUE)", NamePart.class).setParameter("namePart", namePart).setParameter("approved", NamePartRevisionStatus.APPROVED).getResultList();
+	private NamePartRevisionHead head(NamePart namePart) {
+		final @Nullable NamePartRevisionHead head = JpaHelper.getSingleResultOrNull(em.createQuery("SELECT h FROM NamePartRevisionHead h LEFT JOIN FETCH h.approvedRevision LEFT JOIN FETCH h.pendingRevision WHERE h.namePart = :namePart", NamePartRevisionHead.class).setParameter("namePart", namePart));
+		if (head != null) {
+			return head;
+		} else {
+			final NamePartRevisionHead newHead = new NamePartRevisionHead(namePart);
+			em.persist(newHead);
+			return newHead;
+		}
 	}
 
 	private List<NamePart> approvedAndProposedChildren(NamePart namePart) {
-		return em.createQuery("SELECT r.namePart FROM NamePartRevision r WHERE r.parent = :namePart AND r.id = (SELECT MAX(r2.id) FROM NamePartRevision r2 WHERE r2.namePart = r.namePart AND (r2.status = :approved OR r2.status = :pending)) AND NOT (r.status = :approved AND r.deleted = TRUE)", NamePart.class).setParameter("namePart", namePart).setParameter("approved", NamePartRevisionStatus.APPROVED).setParameter("pending", NamePartRevisionStatus.PENDING).getResultList();
+		return em.createQuery("SELECT r.namePart FROM NamePartRevision r, NamePartRevisionHead h WHERE h.namePart = r.namePart AND r.parent = :namePart AND (r = h.pendingRevision OR (h.pendingRevision IS NULL AND r = h.approvedRevision)) AND NOT (r.status = :approved AND r.deleted = TRUE)", NamePart.class).setParameter("namePart", namePart).setParameter("approved", NamePartRevisionStatus.APPROVED).getResultList();
 	}
 
 	private String conventionName(NamePart section, NamePart deviceType, @Nullable String instanceIndex) {
-		final NamePartView sectionView = view(section);
-		final NamePartView deviceTypeView = view(deviceType);
-
-		return namingConvention.conventionName(sectionView.getMnemonicPath(), deviceTypeView.getMnemonicPath(), instanceIndex);
+		return namingConvention.conventionName(getMnemonicPath(section), getMnemonicPath(deviceType), instanceIndex);
 	}
 
 	private NamePartRevision emAttached(NamePartRevision namePartRevision) {
@@ -980,9 +1545,9 @@ public class NamePartService {
 	 */
 	public List<NamePartRevision> currentApprovedNamePartParentRevisions(NamePartType type, boolean includeDeleted) {
 		if (includeDeleted)
-			return em.createQuery("SELECT r FROM NamePartRevision r WHERE r.id = (SELECT MAX(r2.id) FROM NamePartRevision r2 WHERE r2.namePart = r.namePart AND r2.namePart.namePartType = :type AND r2.status = :approved) AND r.parent = NULL", NamePartRevision.class).setParameter("type", type).setParameter("approved", NamePartRevisionStatus.APPROVED).getResultList();
+			return em.createQuery("SELECT r FROM NamePartRevisionHead h JOIN h.approvedRevision r WHERE h.namePart.namePartType = :type AND r.parent IS NULL", NamePartRevision.class).setParameter("type", type).getResultList();
 		else {
-			return em.createQuery("SELECT r FROM NamePartRevision r WHERE r.id = (SELECT MAX(r2.id) FROM NamePartRevision r2 WHERE r2.namePart = r.namePart AND r2.namePart.namePartType = :type AND r2.status = :approved) AND r.deleted = FALSE AND r.parent IS NULL", NamePartRevision.class).setParameter("type", type).setParameter("approved", NamePartRevisionStatus.APPROVED).getResultList();
+			return em.createQuery("SELECT r FROM NamePartRevisionHead h JOIN h.approvedRevision r WHERE h.namePart.namePartType = :type AND r.deleted = FALSE AND r.parent IS NULL", NamePartRevision.class).setParameter("type", type).getResultList();
 		}
 	}	
 	
@@ -994,9 +1559,9 @@ public class NamePartService {
 	public List<NamePartRevision> currentApprovedChildrenOfNamePartRevision(NamePartRevision parent, boolean includeDeleted) {
 		NamePart namePartParent=parent.getNamePart();
 		if (includeDeleted)
-			return em.createQuery("SELECT r FROM NamePartRevision r WHERE r.id = (SELECT MAX(r2.id) FROM NamePartRevision r2 WHERE r2.namePart = r.namePart AND r2.status = :approved) AND r.parent = :parent", NamePartRevision.class).setParameter("parent", namePartParent).setParameter("approved", NamePartRevisionStatus.APPROVED).getResultList();
+			return em.createQuery("SELECT r FROM NamePartRevisionHead h JOIN h.approvedRevision r WHERE r.parent = :parent", NamePartRevision.class).setParameter("parent", namePartParent).getResultList();
 		else {
-			return em.createQuery("SELECT r FROM NamePartRevision r WHERE r.id = (SELECT MAX(r2.id) FROM NamePartRevision r2 WHERE r2.namePart = r.namePart AND r2.status = :approved) AND r.deleted = FALSE AND r.parent= :parent", NamePartRevision.class).setParameter("parent", namePartParent).setParameter("approved", NamePartRevisionStatus.APPROVED).getResultList();
+			return em.createQuery("SELECT r FROM NamePartRevisionHead h JOIN h.approvedRevision r WHERE r.deleted = FALSE AND r.parent= :parent", NamePartRevision.class).setParameter("parent", namePartParent).getResultList();
 		}
 	}
 
@@ -1013,14 +1578,14 @@ public class NamePartService {
 	}
 
 	private List<Device> devicesInSection(NamePart section) {
-		return em.createQuery("SELECT r.device FROM DeviceRevision r WHERE r.id = (SELECT MAX(r2.id) FROM DeviceRevision r2 WHERE r2.device = r.device) AND r.section = :section AND r.deleted = false", Device.class).setParameter("section", section).getResultList();
+		return em.createQuery("SELECT r.device FROM DeviceRevisionHead h JOIN h.currentRevision r WHERE r.section = :section AND r.deleted = false", Device.class).setParameter("section", section).getResultList();
 	}
 
 	private List<Device> devicesOfType(NamePart deviceType) {
-		return em.createQuery("SELECT r.device FROM DeviceRevision r WHERE r.id = (SELECT MAX(r2.id) FROM DeviceRevision r2 WHERE r2.device = r.device) AND r.deviceType = :deviceType AND r.deleted = false", Device.class).setParameter("deviceType", deviceType).getResultList();
+		return em.createQuery("SELECT r.device FROM DeviceRevisionHead h JOIN h.currentRevision r WHERE r.deviceType = :deviceType AND r.deleted = false", Device.class).setParameter("deviceType", deviceType).getResultList();
 	}	
 	private List<DeviceRevision> devicesRevisionsOf(NamePart section, NamePart deviceType) {
-		return em.createQuery("SELECT r FROM DeviceRevision r WHERE r.id = (SELECT MAX(r2.id) FROM DeviceRevision r2 WHERE r2.device = r.device) AND r.section = :section AND r.deviceType = :deviceType AND r.deleted = false", DeviceRevision.class).setParameter("section", section).setParameter("deviceType", deviceType).getResultList();
+		return em.createQuery("SELECT r FROM DeviceRevisionHead h JOIN h.currentRevision r WHERE r.section = :section AND r.deviceType = :deviceType AND r.deleted = false", DeviceRevision.class).setParameter("section", section).setParameter("deviceType", deviceType).getResultList();
 	}
 	/**
 	 * Query the approved name part revisions with specified name part as parent 
@@ -1030,17 +1595,17 @@ public class NamePartService {
 	 */
 	public List<NamePartRevision> approvedChildrenRevisions(NamePart namePartParent, boolean includeDeleted) {
 		if (includeDeleted)
-				return em.createQuery("SELECT r FROM NamePartRevision r WHERE r.id = (SELECT MAX(r2.id) FROM NamePartRevision r2 WHERE r2.namePart = r.namePart AND r2.status = :approved) AND r.parent = :parent ORDER BY r.name", NamePartRevision.class).setParameter("parent", namePartParent).setParameter("approved", NamePartRevisionStatus.APPROVED).getResultList();
+				return em.createQuery("SELECT r FROM NamePartRevisionHead h JOIN h.approvedRevision r WHERE r.parent = :parent ORDER BY r.name", NamePartRevision.class).setParameter("parent", namePartParent).getResultList();
 			else {
-				return em.createQuery("SELECT r FROM NamePartRevision r WHERE r.id = (SELECT MAX(r2.id) FROM NamePartRevision r2 WHERE r2.namePart = r.namePart AND r2.status = :approved) AND r.deleted = FALSE AND r.parent= :parent ORDER BY r.name", NamePartRevision.class).setParameter("parent", namePartParent).setParameter("approved", NamePartRevisionStatus.APPROVED).getResultList();
+				return em.createQuery("SELECT r FROM NamePartRevisionHead h JOIN h.approvedRevision r WHERE r.deleted = FALSE AND r.parent= :parent ORDER BY r.name", NamePartRevision.class).setParameter("parent", namePartParent).getResultList();
 			}
 		}
 
 	public List<DeviceRevision> deviceRevisionsIn(NamePart subsection, NamePart deviceType, boolean includeDeleted){
 		if(includeDeleted){
-			return em.createQuery("SELECT r FROM DeviceRevision r WHERE r.id = (SELECT MAX(r2.id) FROM DeviceRevision r2 WHERE r2.device = r.device) AND r.section = :section AND r.deviceType= :deviceType", DeviceRevision.class).setParameter("section", subsection).setParameter("deviceType", deviceType).getResultList();
+			return em.createQuery("SELECT r FROM DeviceRevisionHead h JOIN h.currentRevision r WHERE r.section = :section AND r.deviceType= :deviceType", DeviceRevision.class).setParameter("section", subsection).setParameter("deviceType", deviceType).getResultList();
 		} else {
-			return em.createQuery("SELECT r FROM DeviceRevision r WHERE r.id = (SELECT MAX(r2.id) FROM DeviceRevision r2 WHERE r2.device = r.device) AND r.section = :section AND r.deviceType= :deviceType AND r.deleted = FALSE", DeviceRevision.class).setParameter("section", subsection).setParameter("deviceType", deviceType).getResultList();
+			return em.createQuery("SELECT r FROM DeviceRevisionHead h JOIN h.currentRevision r WHERE r.section = :section AND r.deviceType= :deviceType AND r.deleted = FALSE", DeviceRevision.class).setParameter("section", subsection).setParameter("deviceType", deviceType).getResultList();
 		}
 	}	
 }
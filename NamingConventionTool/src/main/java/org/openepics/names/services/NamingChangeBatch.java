@@ -0,0 +1,99 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.services;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.openepics.names.model.NamingChange;
+import org.openepics.names.model.NamingChangeKind;
+import org.openepics.names.util.As;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The naming change log entries a poll has read after the position of this server in the log, and what this server
+ * has to do with them. Entries recorded by this server are skipped, since their changes were applied when they
+ * committed, but they still move the position forward.
+ */
+public class NamingChangeBatch {
+
+    /**
+     * The largest number of changes applied to the indexes entity by entity. The indexes are rebuilt after a larger
+     * batch, such as a bulk import on another server.
+     */
+    static final int MAX_INCREMENTAL_CHANGES = 500;
+
+    private final long lastChangeId;
+    private final List<NamingChange> changes;
+    private final Set<Long> namePartIds;
+    private final Set<Long> deviceIds;
+
+    /**
+     * @param entries the entries after the position of this server, in the order of their IDs
+     * @param node the identifier of this server in the naming change log
+     * @param lastChangeId the ID of the last entry read before, the position of this server
+     */
+    public NamingChangeBatch(List<NamingChange> entries, String node, long lastChangeId) {
+        long batchLastChangeId = lastChangeId;
+        final ImmutableList.Builder<NamingChange> changes = ImmutableList.builder();
+        final ImmutableSet.Builder<Long> namePartIds = ImmutableSet.builder();
+        final ImmutableSet.Builder<Long> deviceIds = ImmutableSet.builder();
+        for (NamingChange entry : entries) {
+            batchLastChangeId = Math.max(batchLastChangeId, As.notNull(entry.getId()));
+            if (!entry.getNode().equals(node)) {
+                changes.add(entry);
+                if (entry.getKind() == NamingChangeKind.NAME_PART) {
+                    namePartIds.add(entry.getEntityId());
+                } else if (entry.getKind() == NamingChangeKind.DEVICE) {
+                    deviceIds.add(entry.getEntityId());
+                }
+            }
+        }
+        this.lastChangeId = batchLastChangeId;
+        this.changes = changes.build();
+        this.namePartIds = namePartIds.build();
+        this.deviceIds = deviceIds.build();
+    }
+
+    /**
+     * @return the ID of the last entry of the batch, the new position of this server once the batch is applied
+     */
+    public long getLastChangeId() { return lastChangeId; }
+
+    /**
+     * @return the entries recorded by other servers, to be applied to this one
+     */
+    public List<NamingChange> getChanges() { return changes; }
+
+    /**
+     * @return the IDs of the name parts changed by other servers
+     */
+    public Set<Long> getNamePartIds() { return namePartIds; }
+
+    /**
+     * @return the IDs of the devices changed by other servers
+     */
+    public Set<Long> getDeviceIds() { return deviceIds; }
+
+    /**
+     * @return true if there are too many changes to apply entity by entity, and the indexes should be rebuilt instead
+     */
+    public boolean isRebuildRequired() { return changes.size() > MAX_INCREMENTAL_CHANGES; }
+}
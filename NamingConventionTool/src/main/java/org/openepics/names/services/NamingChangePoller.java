@@ -0,0 +1,106 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.services;
+
+import org.openepics.names.model.NamingChange;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.DependsOn;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the in-memory naming data of this server coherent with the changes committed by other servers sharing the
+ * database, by polling the naming change log. No message broker is involved.
+ *
+ * Naming transactions are serialized by the naming lock and their IDs follow the commit order, so each poll reads the
+ * entries with a higher ID than the last one read, and an entry can never become visible behind an entry already
+ * read. The in-memory indexes are loaded at startup, right after the position in the log is taken, so that no change
+ * committed in between is missed.
+ *
+ * The system property names.changeLog.pollSeconds sets the polling interval, and with it how stale the naming data
+ * may get, 2 seconds by default; 0 disables polling for a single server deployment.
+ */
+@Singleton
+@Startup
+@DependsOn("ApplicationService")
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class NamingChangePoller {
+
+    private static final Logger LOGGER = Logger.getLogger(NamingChangePoller.class.getName());
+
+    @PersistenceContext(unitName = "org.openepics.names.punit") private EntityManager em;
+    @Resource private TimerService timerService;
+    @Inject private NamingSnapshotService namingSnapshotService;
+    @Inject private EquivalenceClassIndex equivalenceClassIndex;
+    @Inject private DeviceNameIndex deviceNameIndex;
+
+    private final Object pollLock = new Object();
+    private long lastChangeId;
+
+    @PostConstruct
+    private void init() {
+        final long pollMillis = Long.parseLong(System.getProperty("names.changeLog.pollSeconds", "2")) * 1000;
+        final @Nullable Long maxChangeId = em.createQuery("SELECT MAX(c.id) FROM NamingChange c", Long.class).getSingleResult();
+        lastChangeId = maxChangeId != null ? maxChangeId : 0;
+        equivalenceClassIndex.rebuild();
+        deviceNameIndex.rebuild();
+        if (pollMillis > 0) {
+            timerService.createIntervalTimer(pollMillis, pollMillis, new TimerConfig(null, false));
+        }
+    }
+
+    /**
+     * Reads the changes other servers committed since the previous poll and applies them to the indexes and the naming
+     * snapshot of this server. The position in the log moves only once the changes have been applied, so that a poll
+     * failing half way is repeated by the next one.
+     */
+    @Timeout
+    public void poll() {
+        synchronized (pollLock) {
+            final List<NamingChange> entries = em.createQuery("SELECT c FROM NamingChange c WHERE c.id > :lastChangeId ORDER BY c.id", NamingChange.class).setParameter("lastChangeId", lastChangeId).getResultList();
+            final NamingChangeBatch batch = new NamingChangeBatch(entries, namingSnapshotService.getNode(), lastChangeId);
+            if (!batch.getChanges().isEmpty()) {
+                if (batch.isRebuildRequired()) {
+                    equivalenceClassIndex.rebuild();
+                    deviceNameIndex.rebuild();
+                } else {
+                    equivalenceClassIndex.refresh(batch.getNamePartIds(), batch.getDeviceIds());
+                    deviceNameIndex.refresh(batch.getDeviceIds());
+                }
+                namingSnapshotService.applyCommittedChanges(batch.getChanges());
+                LOGGER.log(Level.FINE, "Applied {0} naming changes committed by other servers", batch.getChanges().size());
+            }
+            lastChangeId = batch.getLastChangeId();
+        }
+    }
+}
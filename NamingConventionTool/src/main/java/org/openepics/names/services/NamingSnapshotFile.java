@@ -0,0 +1,184 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.services;
+
+import com.google.common.collect.Lists;
+import org.openepics.names.model.DeviceNameSnapshot;
+import org.openepics.names.model.DeviceRevision;
+import org.openepics.names.model.NamePartRevision;
+import org.openepics.names.model.NamePartType;
+import org.openepics.names.services.views.NamingSnapshot;
+
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * The contents of the naming snapshot file, which lets a restarted server restore its naming snapshot from local disk
+ * and catch up on the changes recorded since, instead of loading all naming data from the database.
+ *
+ * The file holds the entities of the snapshot in Java serialization format, which preserves their IDs and shares the
+ * name parts referenced by many revisions, behind a header with the file format version, the database schema version
+ * and the ID of the latest naming change log entry the snapshot reflects. Files written by another format or for another schema are
+ * ignored. The file is read through a memory mapping and replaced atomically when written.
+ */
+class NamingSnapshotFile {
+
+    private static final int MAGIC = 0x4e414d53;
+    private static final int FORMAT_VERSION = 2;
+
+    private final long changeId;
+    private final int schemaVersion;
+    private final List<NamePartRevision> approvedRevisions;
+    private final List<NamePartRevision> pendingRevisions;
+    private final List<DeviceRevision> deviceRevisions;
+    private final List<DeviceNameSnapshot> deviceNames;
+
+    private NamingSnapshotFile(long changeId, int schemaVersion, List<NamePartRevision> approvedRevisions, List<NamePartRevision> pendingRevisions, List<DeviceRevision> deviceRevisions, List<DeviceNameSnapshot> deviceNames) {
+        this.changeId = changeId;
+        this.schemaVersion = schemaVersion;
+        this.approvedRevisions = approvedRevisions;
+        this.pendingRevisions = pendingRevisions;
+        this.deviceRevisions = deviceRevisions;
+        this.deviceNames = deviceNames;
+    }
+
+    /**
+     * @param schemaVersion the schema version of the database
+     * @param snapshot the snapshot
+     */
+    NamingSnapshotFile(int schemaVersion, NamingSnapshot snapshot) {
+        this(snapshot.getChangeId(), schemaVersion, Lists.<NamePartRevision>newArrayList(), Lists.<NamePartRevision>newArrayList(), Lists.newArrayList(snapshot.deviceRevisions(true)), Lists.newArrayList(snapshot.getDeviceNames()));
+        for (NamePartType type : NamePartType.values()) {
+            approvedRevisions.addAll(snapshot.approvedRevisions(type, true));
+            pendingRevisions.addAll(snapshot.pendingRevisions(type, true));
+        }
+    }
+
+    /**
+     * @return the ID of the latest naming change log entry the snapshot reflects
+     */
+    long getChangeId() { return changeId; }
+
+    /**
+     * @return the schema version of the database the snapshot was read from
+     */
+    int getSchemaVersion() { return schemaVersion; }
+
+    /**
+     * @param version the version of the restored snapshot
+     * @return the restored snapshot
+     */
+    NamingSnapshot toSnapshot(long version) {
+        return new NamingSnapshot(version, changeId, approvedRevisions, pendingRevisions, deviceRevisions, deviceNames);
+    }
+
+    /**
+     * Writes the contents to the given file, replacing it.
+     *
+     * @param file the file
+     * @throws IOException if the file could not be written
+     */
+    void write(File file) throws IOException {
+        final File tempFile = new File(file.getPath() + ".tmp");
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(schemaVersion);
+            out.writeLong(changeId);
+            out.writeObject(approvedRevisions);
+            out.writeObject(pendingRevisions);
+            out.writeObject(deviceRevisions);
+            out.writeObject(deviceNames);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param file the file
+     * @return the contents of the given file, null if there is no such file or it was written in another format
+     * @throws IOException if the file could not be read
+     */
+    @SuppressWarnings("unchecked")
+    static @Nullable NamingSnapshotFile read(File file) throws IOException {
+        if (!file.isFile()) return null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             ObjectInputStream in = new ApplicationObjectInputStream(new ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) return null;
+            final int schemaVersion = in.readInt();
+            final long changeId = in.readLong();
+            return new NamingSnapshotFile(changeId, schemaVersion, (List<NamePartRevision>) in.readObject(), (List<NamePartRevision>) in.readObject(), (List<DeviceRevision>) in.readObject(), (List<DeviceNameSnapshot>) in.readObject());
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Naming snapshot file " + file + " is not readable", e);
+        }
+    }
+
+    /**
+     * Resolves the classes of the file with the class loader of the application, which is not necessarily the one
+     * the default resolution picks in an application server.
+     */
+    private static class ApplicationObjectInputStream extends ObjectInputStream {
+        ApplicationObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            try {
+                return Class.forName(desc.getName(), false, NamingSnapshotFile.class.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                return super.resolveClass(desc);
+            }
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) return -1;
+            final int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,385 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.services;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import org.openepics.names.model.DeviceNameSnapshot;
+import org.openepics.names.model.DeviceRevision;
+import org.openepics.names.model.NamePartRevision;
+import org.openepics.names.model.NamePartType;
+import org.openepics.names.model.NamingChange;
+import org.openepics.names.model.NamingChangeKind;
+import org.openepics.names.services.views.NamingSnapshot;
+import org.openepics.names.util.As;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.enterprise.event.Event;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceUnit;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds the application-wide naming snapshot that serves the read paths of the user interface and the web services.
+ *
+ * Readers get the latest published snapshot without locking. Transactions that modify naming data append their
+ * changes to the naming change log, and once such a transaction commits, the next reader derives a new snapshot from
+ * the published one by reloading only the entities named in the log entries after the change ID of the published
+ * snapshot. Until then the previous snapshot stays valid for anybody holding it. The IDs of the log follow the commit
+ * order, so the entries committed by other servers sharing the database are picked up the same way, once
+ * {@link NamingChangePoller} has noticed them.
+ *
+ * The snapshot is saved to a local file every ten minutes and when the application stops, and restored from it on
+ * first use after a restart, catching up on the entries of the log after the change ID it was saved with. The system property
+ * names.snapshotFile sets the location of the file, naming-snapshot.bin in the data directory of the server by default.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class NamingSnapshotService {
+
+    private static final Logger LOGGER = Logger.getLogger(NamingSnapshotService.class.getName());
+    private static final Object PENDING_CHANGES_KEY = new Object();
+
+    /**
+     * The largest number of change log entries applied to the published snapshot. A larger backlog, such as the one left
+     * by a bulk import, is cheaper to answer by loading a new snapshot from scratch.
+     */
+    private static final int MAX_INCREMENTAL_CHANGES = 500;
+
+    /**
+     * The number of queries run in parallel when a new snapshot is loaded: the approved and pending revisions of each
+     * name part type, the devices and the published device names.
+     */
+    private static final int LOAD_THREADS = 2 * NamePartType.values().length + 2;
+
+    @PersistenceContext(unitName = "org.openepics.names.punit") private EntityManager em;
+    @PersistenceUnit(unitName = "org.openepics.names.punit") private EntityManagerFactory emf;
+    @Resource private TransactionSynchronizationRegistry transactionRegistry;
+    @Resource private ManagedThreadFactory threadFactory;
+    @Inject private Event<NamingChange> committedChangeEvent;
+    @Inject private IdAllocator idAllocator;
+
+    private final String node = UUID.randomUUID().toString();
+    private final AtomicLong committedVersion = new AtomicLong();
+    private final Object rebuildLock = new Object();
+    private volatile @Nullable NamingSnapshot snapshot;
+    private int schemaVersion;
+    private File snapshotFile;
+    private long savedVersion = -1;
+    private ExecutorService loadExecutor;
+
+    @PostConstruct
+    private void init() {
+        final @Nullable String path = System.getProperty("names.snapshotFile");
+        snapshotFile = path != null ? new File(path) : new File(System.getProperty("jboss.server.data.dir", System.getProperty("java.io.tmpdir")), "naming-snapshot.bin");
+        loadExecutor = Executors.newFixedThreadPool(LOAD_THREADS, threadFactory);
+    }
+
+    @PreDestroy
+    private void close() {
+        saveSnapshot();
+        loadExecutor.shutdownNow();
+    }
+
+    /**
+     * Returns the snapshot reflecting all transactions committed so far. The snapshot is read outside of the caller's
+     * transaction, so that changes not yet committed never end up in it.
+     *
+     * @return the current naming snapshot
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public NamingSnapshot current() {
+        final @Nullable NamingSnapshot published = snapshot;
+        if (published != null && published.getVersion() >= committedVersion.get()) {
+            return published;
+        }
+        synchronized (rebuildLock) {
+            final long version = committedVersion.get();
+            final @Nullable NamingSnapshot latest = snapshot;
+            if (latest != null && latest.getVersion() >= version) {
+                return latest;
+            }
+            final NamingSnapshot rebuilt = latest != null ? catchUp(latest, version) : restore(version);
+            snapshot = rebuilt;
+            return rebuilt;
+        }
+    }
+
+    /**
+     * Saves the published snapshot to the snapshot file, unless it has been saved already.
+     */
+    @Schedule(hour = "*", minute = "*/10", persistent = false)
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void saveSnapshot() {
+        final @Nullable NamingSnapshot saved;
+        synchronized (rebuildLock) {
+            saved = snapshot;
+            if (saved == null || saved.getVersion() == savedVersion) return;
+            savedVersion = saved.getVersion();
+        }
+        try {
+            new NamingSnapshotFile(schemaVersion, saved).write(snapshotFile);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Naming snapshot could not be saved to " + snapshotFile, e);
+        }
+    }
+
+    /**
+     * Appends a change to the naming change log in the current transaction. The change is applied to the snapshot
+     * once the transaction commits.
+     *
+     * @param revisionId the ID of the name part or device revision causing the change
+     * @param kind the kind of the changed entity
+     * @param entityId the ID of the changed entity
+     */
+    public void recordChange(Long revisionId, NamingChangeKind kind, Long entityId) {
+        Preconditions.checkState(idAllocator.holdsNamingLock(), "Naming changes must be recorded under the naming lock.");
+        final NamingChange change = new NamingChange(revisionId, kind, entityId, node, new Date());
+        em.persist(change);
+        pendingChanges().changes.add(change);
+    }
+
+    /**
+     * Has the next reader bring the snapshot up to date with the change log, and notifies the observers of committed
+     * changes, such as the naming event stream.
+     *
+     * @param changes the committed changes
+     */
+    public void applyCommittedChanges(Collection<NamingChange> changes) {
+        committedVersion.incrementAndGet();
+        for (NamingChange change : changes) {
+            committedChangeEvent.fire(change);
+        }
+    }
+
+    /**
+     * @return the ID of the latest entry of the naming change log, 0 if the log is empty. Entries committed after this
+     * call get higher IDs.
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public long lastChangeId() {
+        final @Nullable Long changeId = em.createQuery("SELECT MAX(c.id) FROM NamingChange c", Long.class).getSingleResult();
+        return changeId != null ? changeId : 0;
+    }
+
+    /**
+     * @return the ID of the last naming change log entry deleted by the retention job, 0 if the log was never pruned.
+     * A reader positioned before it has missed changes.
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public long changeLogPrunedThrough() {
+        final @Nullable Long prunedThrough = em.createQuery("SELECT a.changeLogPrunedThrough FROM AppInfo a", Long.class).getSingleResult();
+        return prunedThrough != null ? prunedThrough : 0;
+    }
+
+    /**
+     * @return the identifier of this server in the naming change log
+     */
+    public String getNode() {
+        return node;
+    }
+
+    private PendingChanges pendingChanges() {
+        @Nullable PendingChanges pendingChanges = (PendingChanges) transactionRegistry.getResource(PENDING_CHANGES_KEY);
+        if (pendingChanges == null) {
+            final PendingChanges newChanges = new PendingChanges();
+            transactionRegistry.putResource(PENDING_CHANGES_KEY, newChanges);
+            transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+                @Override public void beforeCompletion() {}
+                @Override public void afterCompletion(int status) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        applyCommittedChanges(newChanges.changes);
+                    }
+                }
+            });
+            pendingChanges = newChanges;
+        }
+        return pendingChanges;
+    }
+
+    /**
+     * Derives a new snapshot from the given one by reloading the entities named in the change log entries after its
+     * change ID, or loads a new snapshot if there are too many of them or some of them have been pruned. The pruning
+     * position is read after the entries, so that entries deleted while they were read are always noticed.
+     */
+    private NamingSnapshot catchUp(NamingSnapshot snapshot, long version) {
+        final List<Object[]> changes = em.createQuery("SELECT c.id, c.kind, c.entityId FROM NamingChange c WHERE c.id > :changeId ORDER BY c.id", Object[].class).setParameter("changeId", snapshot.getChangeId()).setMaxResults(MAX_INCREMENTAL_CHANGES + 1).getResultList();
+        if (changes.size() > MAX_INCREMENTAL_CHANGES || snapshot.getChangeId() < changeLogPrunedThrough()) {
+            return load(version);
+        }
+        long changeId = snapshot.getChangeId();
+        final SetMultimap<NamingChangeKind, Long> changedEntities = HashMultimap.create();
+        for (Object[] change : changes) {
+            changeId = (Long) change[0];
+            changedEntities.put((NamingChangeKind) change[1], (Long) change[2]);
+        }
+        return applyChanges(snapshot, version, changeId, changedEntities);
+    }
+
+    /**
+     * Restores the snapshot saved before the application was restarted and applies the changes recorded since, or
+     * loads a new snapshot if there is no usable file.
+     */
+    private NamingSnapshot restore(long version) {
+        schemaVersion = em.createQuery("SELECT a.schemaVersion FROM AppInfo a", Integer.class).getSingleResult();
+        @Nullable NamingSnapshotFile contents;
+        try {
+            contents = NamingSnapshotFile.read(snapshotFile);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Naming snapshot could not be restored from " + snapshotFile, e);
+            contents = null;
+        }
+        if (contents == null || contents.getSchemaVersion() != schemaVersion) {
+            return load(version);
+        }
+        LOGGER.log(Level.INFO, "Naming snapshot restored from {0}, catching up on the changes after {1}", new Object[] {snapshotFile, contents.getChangeId()});
+        return catchUp(contents.toSnapshot(version), version);
+    }
+
+    /**
+     * Loads a new snapshot from the database. The name part hierarchies, the devices and the published device names are
+     * loaded in parallel, each by a separate query on a thread of the load pool of this bean and with an entity manager
+     * of its own, so that loading never waits for threads shared with other tasks, such as the warm-up. The change ID
+     * is read before the data, which therefore reflects at least all change log entries up to it.
+     */
+    private NamingSnapshot load(long version) {
+        final long changeId = lastChangeId();
+        final List<Future<List<NamePartRevision>>> approvedRevisions = Lists.newArrayList();
+        final List<Future<List<NamePartRevision>>> pendingRevisions = Lists.newArrayList();
+        for (final NamePartType type : NamePartType.values()) {
+            approvedRevisions.add(loadExecutor.submit(new LoadTask<NamePartRevision>() {
+                @Override List<NamePartRevision> load(EntityManager em) { return new DeviceSnapshotLoader(em).approvedNamePartRevisions(type, true); }
+            }));
+            pendingRevisions.add(loadExecutor.submit(new LoadTask<NamePartRevision>() {
+                @Override List<NamePartRevision> load(EntityManager em) { return new DeviceSnapshotLoader(em).pendingNamePartRevisions(type); }
+            }));
+        }
+        final Future<List<DeviceRevision>> deviceRevisions = loadExecutor.submit(new LoadTask<DeviceRevision>() {
+            @Override List<DeviceRevision> load(EntityManager em) { return new DeviceSnapshotLoader(em).currentDeviceRevisions(true); }
+        });
+        final Future<List<DeviceNameSnapshot>> deviceNames = loadExecutor.submit(new LoadTask<DeviceNameSnapshot>() {
+            @Override List<DeviceNameSnapshot> load(EntityManager em) { return em.createQuery("SELECT s FROM DeviceNameSnapshot s", DeviceNameSnapshot.class).getResultList(); }
+        });
+        return new NamingSnapshot(version, changeId, results(approvedRevisions), results(pendingRevisions), result(deviceRevisions), result(deviceNames));
+    }
+
+    private static <T> List<T> results(List<Future<List<T>>> futures) {
+        final List<T> results = Lists.newArrayList();
+        for (Future<List<T>> future : futures) {
+            results.addAll(result(future));
+        }
+        return results;
+    }
+
+    private static <T> T result(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading the naming snapshot", e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private NamingSnapshot applyChanges(NamingSnapshot snapshot, long version, long changeId, SetMultimap<NamingChangeKind, Long> changedEntities) {
+        final DeviceSnapshotLoader loader = new DeviceSnapshotLoader(em);
+
+        final Set<Long> namePartIds = changedEntities.get(NamingChangeKind.NAME_PART);
+        final Map<Long, Optional<NamePartRevision>> approvedRevisions = Maps.newHashMap();
+        final Map<Long, Optional<NamePartRevision>> pendingRevisions = Maps.newHashMap();
+        if (!namePartIds.isEmpty()) {
+            for (Long namePartId : namePartIds) {
+                approvedRevisions.put(namePartId, Optional.<NamePartRevision>absent());
+                pendingRevisions.put(namePartId, Optional.<NamePartRevision>absent());
+            }
+            for (NamePartRevision revision : loader.approvedNamePartRevisions(namePartIds)) {
+                approvedRevisions.put(As.notNull(revision.getNamePart().getId()), Optional.of(revision));
+            }
+            for (NamePartRevision revision : loader.pendingNamePartRevisions(namePartIds)) {
+                pendingRevisions.put(As.notNull(revision.getNamePart().getId()), Optional.of(revision));
+            }
+        }
+
+        final Set<Long> deviceIds = changedEntities.get(NamingChangeKind.DEVICE);
+        final List<DeviceRevision> deviceRevisions = deviceIds.isEmpty() ? ImmutableList.<DeviceRevision>of() : loader.currentDeviceRevisions(deviceIds);
+
+        final Set<Long> deviceNameIds = changedEntities.get(NamingChangeKind.DEVICE_NAME);
+        final List<DeviceNameSnapshot> deviceNames = deviceNameIds.isEmpty() ? ImmutableList.<DeviceNameSnapshot>of() : em.createQuery("SELECT s FROM DeviceNameSnapshot s WHERE s.id IN :ids", DeviceNameSnapshot.class).setParameter("ids", deviceNameIds).getResultList();
+
+        return snapshot.withChanges(version, changeId, approvedRevisions, pendingRevisions, deviceRevisions, deviceNames);
+    }
+
+    /**
+     * A query of the snapshot load, run with an entity manager that is closed once the query is done.
+     */
+    private abstract class LoadTask<T> implements Callable<List<T>> {
+        abstract List<T> load(EntityManager em);
+
+        @Override public List<T> call() {
+            final EntityManager taskEm = emf.createEntityManager();
+            try {
+                return load(taskEm);
+            } finally {
+                taskEm.close();
+            }
+        }
+    }
+
+    private static class PendingChanges {
+        private final List<NamingChange> changes = Lists.newArrayList();
+    }
+}
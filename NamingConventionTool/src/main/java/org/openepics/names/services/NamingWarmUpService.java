@@ -0,0 +1,85 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.services;
+
+import org.openepics.names.model.NamePartType;
+import org.openepics.names.services.views.NamingSnapshot;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.DependsOn;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.inject.Inject;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Warms up the naming snapshot when the application is deployed, so that the first users of the device and name part
+ * pages and the first web service callers do not pay for loading it. The snapshot is restored from its file or loaded
+ * from the database in the background, and the section and device type hierarchies and the device views derived from
+ * it are prepared as well. The server reports itself ready once the warm-up has finished.
+ */
+@Singleton
+@Startup
+@DependsOn("ApplicationService")
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class NamingWarmUpService {
+
+    private static final Logger LOGGER = Logger.getLogger(NamingWarmUpService.class.getName());
+
+    @Resource private ManagedExecutorService executor;
+    @Inject private NamingSnapshotService namingSnapshotService;
+
+    private volatile @Nullable Long warmUpMillis;
+
+    @PostConstruct
+    private void init() {
+        final long startMillis = System.currentTimeMillis();
+        executor.submit(new Runnable() {
+            @Override public void run() {
+                try {
+                    final NamingSnapshot snapshot = namingSnapshotService.current();
+                    for (NamePartType type : NamePartType.values()) {
+                        snapshot.approvedRevisions(type, true);
+                        snapshot.pendingRevisions(type, true);
+                    }
+                    snapshot.deviceSnapshot(true);
+                    snapshot.getDeviceNames();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.SEVERE, "Naming snapshot warm-up failed, the snapshot will be loaded on first use", e);
+                } finally {
+                    warmUpMillis = System.currentTimeMillis() - startMillis;
+                    LOGGER.log(Level.INFO, "Naming snapshot warm-up finished in {0} ms", warmUpMillis);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the duration of the warm-up in milliseconds, null if it has not finished yet
+     */
+    public @Nullable Long getWarmUpMillis() {
+        return warmUpMillis;
+    }
+}
@@ -0,0 +1,169 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.services;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceException;
+import javax.sql.DataSource;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Routes read-only queries to a read replica of the database when one is configured and up to date, and to the
+ * primary database otherwise.
+ *
+ * The replica is enabled by setting the system property names.readReplica.dataSource to the JNDI name of its
+ * datasource; names.readReplica.maxLagSeconds bounds how stale the replica may be, 30 seconds by default. The staleness
+ * is measured with a heartbeat the primary records every few seconds in AppInfo while a replica is configured. Reads
+ * fall back to the primary while the replica lags behind, has not yet received the changes committed by this server,
+ * or fails.
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ReadReplicaRouter {
+
+    private static final Logger LOGGER = Logger.getLogger(ReadReplicaRouter.class.getName());
+    private static final String REPLICA_PERSISTENCE_UNIT = "org.openepics.names.readonly.punit";
+    private static final Object WRITE_KEY = new Object();
+
+    @PersistenceContext(unitName = "org.openepics.names.punit") private EntityManager em;
+    @Resource private TransactionSynchronizationRegistry transactionRegistry;
+
+    private boolean replicaConfigured;
+    private @Nullable EntityManagerFactory replica;
+    private ReadRoutingPolicy policy;
+    private volatile @Nullable Date replicaHeartbeat;
+    private volatile long lastLocalCommitMillis;
+
+    @PostConstruct
+    private void init() {
+        policy = new ReadRoutingPolicy(Long.parseLong(System.getProperty("names.readReplica.maxLagSeconds", "30")) * 1000);
+        final @Nullable String dataSourceName = System.getProperty("names.readReplica.dataSource");
+        if (dataSourceName != null) {
+            replicaConfigured = true;
+            try {
+                final DataSource dataSource = (DataSource) new InitialContext().lookup(dataSourceName);
+                replica = Persistence.createEntityManagerFactory(REPLICA_PERSISTENCE_UNIT, ImmutableMap.of("javax.persistence.nonJtaDataSource", dataSource));
+                LOGGER.log(Level.INFO, "Read replica enabled on {0}", dataSourceName);
+            } catch (NamingException | PersistenceException e) {
+                LOGGER.log(Level.WARNING, "Read replica " + dataSourceName + " is not available, reading from the primary database", e);
+            }
+        }
+    }
+
+    @PreDestroy
+    private void close() {
+        if (replica != null) {
+            replica.close();
+        }
+    }
+
+    /**
+     * Records the heartbeat on the primary database and reads back the heartbeat the replica has received. Nothing is
+     * written unless a replica is configured. The heartbeat is written with a bulk update, which leaves the version of
+     * AppInfo alone, so that it does not conflict with the transactions updating the schema version.
+     */
+    @Schedule(hour = "*", minute = "*", second = "*/5", persistent = false)
+    public void heartbeat() {
+        if (!replicaConfigured) {
+            return;
+        }
+        em.createQuery("UPDATE AppInfo a SET a.heartbeat = :now").setParameter("now", new Date()).executeUpdate();
+        if (replica != null) {
+            final EntityManager replicaEm = replica.createEntityManager();
+            try {
+                final List<Date> heartbeats = replicaEm.createQuery("SELECT a.heartbeat FROM AppInfo a", Date.class).getResultList();
+                replicaHeartbeat = heartbeats.size() == 1 ? heartbeats.get(0) : null;
+            } catch (PersistenceException e) {
+                LOGGER.log(Level.WARNING, "Read replica heartbeat could not be read", e);
+                replicaHeartbeat = null;
+            } finally {
+                replicaEm.close();
+            }
+        }
+    }
+
+    /**
+     * Notes that the current transaction changes data, so that reads are served by the primary database until the
+     * replica has received the change.
+     */
+    public void recordWrite() {
+        if (transactionRegistry.getTransactionKey() != null && transactionRegistry.getResource(WRITE_KEY) == null) {
+            transactionRegistry.putResource(WRITE_KEY, Boolean.TRUE);
+            transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+                @Override public void beforeCompletion() {}
+                @Override public void afterCompletion(int status) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        lastLocalCommitMillis = System.currentTimeMillis();
+                    }
+                }
+            });
+        } else if (transactionRegistry.getTransactionKey() == null) {
+            lastLocalCommitMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Runs a read-only operation on the replica if it is usable, and on the given primary entity manager otherwise or
+     * if the operation fails on the replica. Entities returned from the replica are detached.
+     *
+     * @param primary the entity manager of the primary database
+     * @param operation the operation, which must not modify any data
+     * @param <T> the type of the result
+     * @return the result of the operation
+     */
+    public <T> T read(EntityManager primary, Function<EntityManager, T> operation) {
+        final @Nullable EntityManagerFactory replicaFactory = replica;
+        if (replicaFactory != null && policy.isReplicaUsable(replicaHeartbeat, lastLocalCommitMillis, System.currentTimeMillis())) {
+            final EntityManager replicaEm = replicaFactory.createEntityManager();
+            try {
+                return operation.apply(replicaEm);
+            } catch (PersistenceException e) {
+                LOGGER.log(Level.WARNING, "Read from the replica failed, reading from the primary database", e);
+                replicaHeartbeat = null;
+            } finally {
+                replicaEm.close();
+            }
+        }
+        return operation.apply(primary);
+    }
+}
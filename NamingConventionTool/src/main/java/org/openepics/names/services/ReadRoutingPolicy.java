@@ -0,0 +1,52 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.services;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+import java.util.Date;
+
+/**
+ * Decides whether reads can be served by the read replica. The primary database records a heartbeat at regular
+ * intervals; the replica is usable when the heartbeat it has received is recent enough, and when it was recorded
+ * after the last transaction this server committed, so that users always see their own changes.
+ */
+public class ReadRoutingPolicy {
+
+    private final long maxLagMillis;
+
+    /**
+     * @param maxLagMillis the maximum age of the replicated heartbeat, in milliseconds
+     */
+    public ReadRoutingPolicy(long maxLagMillis) {
+        Preconditions.checkArgument(maxLagMillis >= 0);
+        this.maxLagMillis = maxLagMillis;
+    }
+
+    /**
+     * @param replicaHeartbeat the latest heartbeat seen on the replica, null if the replica could not be read
+     * @param lastLocalCommitMillis the time this server last committed a change, 0 if never
+     * @param nowMillis the current time
+     * @return true if the replica can serve reads
+     */
+    public boolean isReplicaUsable(@Nullable Date replicaHeartbeat, long lastLocalCommitMillis, long nowMillis) {
+        return replicaHeartbeat != null && nowMillis - replicaHeartbeat.getTime() <= maxLagMillis && replicaHeartbeat.getTime() >= lastLocalCommitMillis;
+    }
+}
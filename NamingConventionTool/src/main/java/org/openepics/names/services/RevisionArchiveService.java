@@ -0,0 +1,106 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.services;
+
+import org.openepics.names.model.ArchivedDeviceRevision;
+import org.openepics.names.model.ArchivedNamePartRevision;
+import org.openepics.names.model.DeviceRevision;
+import org.openepics.names.model.NamePartRevision;
+
+import javax.annotation.Resource;
+import javax.ejb.Schedule;
+import javax.ejb.SessionContext;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A service bean moving superseded revisions to the archive tables. A device revision is superseded when it is neither
+ * the current revision of its device nor the latest revision of the device with its name. A name part revision is
+ * superseded when it is neither the approved nor the pending revision of its name part. Superseded revisions are never
+ * referenced again, so they can be archived while the application is in use.
+ */
+@Stateless
+public class RevisionArchiveService {
+
+    private static final Logger LOGGER = Logger.getLogger(RevisionArchiveService.class.getName());
+
+    /**
+     * The number of revisions archived in a single transaction.
+     */
+    private static final int CHUNK_SIZE = 500;
+
+    @PersistenceContext(unitName = "org.openepics.names.punit") private EntityManager em;
+    @Resource private SessionContext sessionContext;
+
+    /**
+     * Archives all superseded revisions, in a series of transactions of limited size. Runs nightly.
+     */
+    @Schedule(hour = "3", minute = "15", persistent = false)
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void archiveSupersededRevisions() {
+        final RevisionArchiveService self = sessionContext.getBusinessObject(RevisionArchiveService.class);
+        int deviceRevisionCount = 0;
+        for (int archived = self.archiveDeviceRevisions(CHUNK_SIZE); archived > 0; archived = self.archiveDeviceRevisions(CHUNK_SIZE)) {
+            deviceRevisionCount += archived;
+        }
+        int namePartRevisionCount = 0;
+        for (int archived = self.archiveNamePartRevisions(CHUNK_SIZE); archived > 0; archived = self.archiveNamePartRevisions(CHUNK_SIZE)) {
+            namePartRevisionCount += archived;
+        }
+        LOGGER.log(Level.INFO, "Archived {0} device revisions and {1} name part revisions", new Object[] {deviceRevisionCount, namePartRevisionCount});
+    }
+
+    /**
+     * Archives superseded device revisions.
+     *
+     * @param maxCount the maximum number of revisions to archive
+     * @return the number of revisions archived
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int archiveDeviceRevisions(int maxCount) {
+        final List<DeviceRevision> revisions = em.createQuery("SELECT r FROM DeviceRevision r WHERE NOT EXISTS (SELECT h FROM DeviceRevisionHead h WHERE h.currentRevision = r) AND NOT EXISTS (SELECT n FROM DeviceNameHistory n WHERE n.latestRevision = r) ORDER BY r.id", DeviceRevision.class).setMaxResults(maxCount).getResultList();
+        for (DeviceRevision revision : revisions) {
+            em.persist(new ArchivedDeviceRevision(revision));
+            em.remove(revision);
+        }
+        return revisions.size();
+    }
+
+    /**
+     * Archives superseded name part revisions.
+     *
+     * @param maxCount the maximum number of revisions to archive
+     * @return the number of revisions archived
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int archiveNamePartRevisions(int maxCount) {
+        final List<NamePartRevision> revisions = em.createQuery("SELECT r FROM NamePartRevision r WHERE NOT EXISTS (SELECT h FROM NamePartRevisionHead h WHERE h.approvedRevision = r OR h.pendingRevision = r) ORDER BY r.id", NamePartRevision.class).setMaxResults(maxCount).getResultList();
+        for (NamePartRevision revision : revisions) {
+            em.persist(new ArchivedNamePartRevision(revision));
+            em.remove(revision);
+        }
+        return revisions.size();
+    }
+}
@@ -34,7 +34,7 @@ import javax.persistence.PersistenceContext;
 @Stateless
 public class UserService {
 
-	@PersistenceContext private EntityManager em;
+	@PersistenceContext(unitName = "org.openepics.names.punit") private EntityManager em;
 
 	/**
 	 * @param userName The name of the user
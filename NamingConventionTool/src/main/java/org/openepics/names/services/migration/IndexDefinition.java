@@ -0,0 +1,75 @@
+/*
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.services.migration;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * A database index the application expects to be present, created and verified by the schema migrations.
+ * Table and column names follow the default naming of the persistence provider, i.e. tables are named after the
+ * entities and foreign key columns after the association with an "_id" suffix.
+ */
+public class IndexDefinition {
+
+    private final String name;
+    private final String table;
+    private final List<String> columns;
+
+    /**
+     * @param name the name of the index, unique within the database
+     * @param table the name of the indexed table
+     * @param columns the indexed columns, in order
+     */
+    public IndexDefinition(String name, String table, String... columns) {
+        Preconditions.checkArgument(columns.length > 0);
+        this.name = Preconditions.checkNotNull(name);
+        this.table = Preconditions.checkNotNull(table);
+        this.columns = ImmutableList.copyOf(columns);
+    }
+
+    /**
+     * @return the name of the index
+     */
+    public String getName() { return name; }
+
+    /**
+     * @return the name of the indexed table
+     */
+    public String getTable() { return table; }
+
+    /**
+     * @return the indexed columns, in order
+     */
+    public List<String> getColumns() { return columns; }
+
+    /**
+     * @return the SQL statement creating the index
+     */
+    public String createStatement() {
+        return "CREATE INDEX " + name + " ON " + table + " (" + Joiner.on(", ").join(columns) + ")";
+    }
+
+    @Override public String toString() {
+        return name + " ON " + table + " (" + Joiner.on(", ").join(columns) + ")";
+    }
+}
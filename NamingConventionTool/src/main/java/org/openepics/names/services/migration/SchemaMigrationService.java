@@ -0,0 +1,285 @@
+/*
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.services.migration;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.openepics.names.model.AppInfo;
+import org.openepics.names.model.IdSequence;
+import org.openepics.names.model.NamePartRevision;
+import org.openepics.names.model.Persistable;
+import org.openepics.names.services.NamePartService;
+import org.openepics.names.services.NamingConvention;
+
+import javax.annotation.Nullable;
+import javax.annotation.Resource;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.metamodel.EntityType;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A service bean evolving the database schema at deployment. The persistence provider creates the tables and columns
+ * for the entities, while this service applies the changes it cannot express, such as indexes and data conversions,
+ * as an ordered list of migration steps. The number of steps applied so far is recorded as the schema version in
+ * AppInfo.
+ */
+@Stateless
+public class SchemaMigrationService {
+
+    private static final Logger LOGGER = Logger.getLogger(SchemaMigrationService.class.getName());
+
+    /**
+     * Indexes supporting the lookups of revisions by name part, device, parent and equivalence class, and the joins
+     * from the current revision pointers.
+     */
+    private static final List<IndexDefinition> REVISION_INDEXES = ImmutableList.of(
+            new IndexDefinition("ix_npr_namepart_status_id", "NamePartRevision", "namePart_id", "status", "id"),
+            new IndexDefinition("ix_npr_parent_status", "NamePartRevision", "parent_id", "status"),
+            new IndexDefinition("ix_npr_mnemoniceqclass", "NamePartRevision", "mnemonicEqClass"),
+            new IndexDefinition("ix_dr_device_id", "DeviceRevision", "device_id", "id"),
+            new IndexDefinition("ix_dr_section", "DeviceRevision", "section_id"),
+            new IndexDefinition("ix_dr_devicetype", "DeviceRevision", "deviceType_id"),
+            new IndexDefinition("ix_dr_conventionnameeqclass", "DeviceRevision", "conventionNameEqClass"),
+            new IndexDefinition("ix_dr_conventionname_id", "DeviceRevision", "conventionName", "id"),
+            new IndexDefinition("ix_nprh_approvedrevision", "NamePartRevisionHead", "approvedRevision_id"),
+            new IndexDefinition("ix_nprh_pendingrevision", "NamePartRevisionHead", "pendingRevision_id"),
+            new IndexDefinition("ix_drh_currentrevision", "DeviceRevisionHead", "currentRevision_id"));
+
+    /**
+     * Indexes supporting the ancestor and descendant lookups in the name part hierarchy.
+     */
+    private static final List<IndexDefinition> CLOSURE_INDEXES = ImmutableList.of(
+            new IndexDefinition("ix_npc_ancestor_depth", "NamePartClosure", "type", "ancestor_id", "depth"),
+            new IndexDefinition("ix_npc_descendant_depth", "NamePartClosure", "type", "descendant_id", "depth"));
+
+    /**
+     * Indexes supporting the lookups of name parts and devices by UUID.
+     */
+    private static final List<IndexDefinition> UUID_INDEXES = ImmutableList.of(
+            new IndexDefinition("ix_namepart_uuid", "NamePart", "uuid"),
+            new IndexDefinition("ix_device_uuid", "Device", "uuid"));
+
+    /**
+     * Indexes supporting the lookups of devices by current or previous names.
+     */
+    private static final List<IndexDefinition> NAME_HISTORY_INDEXES = ImmutableList.of(
+            new IndexDefinition("ix_dnh_conventionname_device", "DeviceNameHistory", "conventionName", "device_id"));
+
+    /**
+     * Indexes supporting the search for superseded revisions and the lookups of archived revisions.
+     */
+    private static final List<IndexDefinition> ARCHIVE_INDEXES = ImmutableList.of(
+            new IndexDefinition("ix_dnh_latestrevision", "DeviceNameHistory", "latestRevision_id"),
+            new IndexDefinition("ix_adr_device_revisionid", "ArchivedDeviceRevision", "device_id", "revisionId"),
+            new IndexDefinition("ix_anpr_namepart_revisionid", "ArchivedNamePartRevision", "namePart_id", "revisionId"));
+
+    /**
+     * Indexes supporting the search for naming change log entries older than the retention period.
+     */
+    private static final List<IndexDefinition> CHANGE_LOG_INDEXES = ImmutableList.of(
+            new IndexDefinition("ix_nc_recordedat", "NamingChange", "recordedAt"));
+
+    @PersistenceContext(unitName = "org.openepics.names.punit") private EntityManager em;
+    @Resource(lookup = "java:/org.openepics.names.data") private DataSource dataSource;
+    @Inject private NamePartService namePartService;
+    @Inject private NamingConvention namingConvention;
+
+    /**
+     * @return the ordered list of migration steps, the step at position n bringing the schema from version n to n+1
+     */
+    private List<SchemaMigration> migrations() {
+        return ImmutableList.of(
+                new SchemaMigration() {
+                    @Override public String getDescription() { return "Calculate mnemonic equivalence classes"; }
+                    @Override public void migrate() {
+                        for (NamePartRevision revision : namePartService.allNamePartRevisions()) {
+                            revision.setMnemonicEqClass(namingConvention.equivalenceClassRepresentative(revision.getMnemonic()));
+                        }
+                    }
+                },
+                new SchemaMigration() {
+                    @Override public String getDescription() { return "Initialize current revision pointers"; }
+                    @Override public void migrate() {
+                        namePartService.initializeRevisionHeads();
+                    }
+                },
+                new SchemaMigration() {
+                    @Override public String getDescription() { return "Create indexes for revision lookups"; }
+                    @Override public void migrate() {
+                        createIndexes(REVISION_INDEXES);
+                    }
+                },
+                new SchemaMigration() {
+                    @Override public String getDescription() { return "Build the name part hierarchy closure"; }
+                    @Override public void migrate() {
+                        namePartService.initializeNamePartClosure();
+                        createIndexes(CLOSURE_INDEXES);
+                    }
+                },
+                new SchemaMigration() {
+                    @Override public String getDescription() { return "Create indexes for UUID lookups"; }
+                    @Override public void migrate() {
+                        createIndexes(UUID_INDEXES);
+                    }
+                },
+                new SchemaMigration() {
+                    @Override public String getDescription() { return "Record the device name history"; }
+                    @Override public void migrate() {
+                        namePartService.initializeDeviceNameHistory();
+                        createIndexes(NAME_HISTORY_INDEXES);
+                    }
+                },
+                new SchemaMigration() {
+                    @Override public String getDescription() { return "Create indexes for revision archival"; }
+                    @Override public void migrate() {
+                        createIndexes(ARCHIVE_INDEXES);
+                    }
+                },
+                new SchemaMigration() {
+                    @Override public String getDescription() { return "Publish the device name snapshot"; }
+                    @Override public void migrate() {
+                        namePartService.initializeDeviceNameSnapshot();
+                    }
+                },
+                new SchemaMigration() {
+                    @Override public String getDescription() { return "Create indexes for change log retention"; }
+                    @Override public void migrate() {
+                        createIndexes(CHANGE_LOG_INDEXES);
+                    }
+                });
+    }
+
+    /**
+     * @return all indexes the current schema version is expected to have
+     */
+    public List<IndexDefinition> expectedIndexes() {
+        return ImmutableList.<IndexDefinition>builder().addAll(REVISION_INDEXES).addAll(CLOSURE_INDEXES).addAll(UUID_INDEXES).addAll(NAME_HISTORY_INDEXES).addAll(ARCHIVE_INDEXES).addAll(CHANGE_LOG_INDEXES).build();
+    }
+
+    /**
+     * Applies the migration steps not yet applied to the database and updates its schema version accordingly.
+     *
+     * @param appInfo the entity recording the schema version of the database
+     */
+    public void migrate(AppInfo appInfo) {
+        final List<SchemaMigration> migrations = migrations();
+        while (appInfo.getSchemaVersion() < migrations.size()) {
+            final SchemaMigration migration = migrations.get(appInfo.getSchemaVersion());
+            LOGGER.log(Level.INFO, "Migrating database schema to version {0}: {1}", new Object[] {appInfo.getSchemaVersion() + 1, migration.getDescription()});
+            migration.migrate();
+            appInfo.incrementSchemaVersion();
+        }
+        em.flush();
+    }
+
+    /**
+     * Moves the entity ID generator past the highest ID in use, so that IDs assigned by the identity columns of
+     * earlier versions of the schema are never handed out again, and creates the row of the naming lock. The generator
+     * is updated in a transaction of its own, which must commit before the first entity is persisted, since
+     * IdAllocator reserves its IDs outside of the transaction of the persisting bean.
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void seedIdGenerator() {
+        long maxId = 0;
+        for (EntityType<?> entity : em.getMetamodel().getEntities()) {
+            if (Persistable.class.isAssignableFrom(entity.getJavaType())) {
+                final @Nullable Long entityMaxId = em.createQuery("SELECT MAX(e.id) FROM " + entity.getName() + " e", Long.class).getSingleResult();
+                maxId = Math.max(maxId, entityMaxId != null ? entityMaxId : 0);
+            }
+        }
+
+        final long nextValue = maxId + 1;
+        final @Nullable IdSequence entityIds = em.find(IdSequence.class, IdSequence.ENTITY_IDS);
+        if (entityIds == null) {
+            em.persist(new IdSequence(IdSequence.ENTITY_IDS, nextValue));
+            LOGGER.log(Level.INFO, "Entity ID generator initialized at {0}", nextValue);
+        } else if (entityIds.getNextValue() < nextValue) {
+            entityIds.advanceTo(nextValue);
+            LOGGER.log(Level.INFO, "Entity ID generator moved to {0}", nextValue);
+        }
+        if (em.find(IdSequence.class, IdSequence.NAMING_LOCK) == null) {
+            em.persist(new IdSequence(IdSequence.NAMING_LOCK, 0));
+        }
+    }
+
+    /**
+     * Checks that all expected indexes are present in the database and logs the ones that are missing.
+     *
+     * @return true if all expected indexes are present
+     */
+    public boolean verifyIndexes() {
+        final List<IndexDefinition> missingIndexes = missingIndexes(expectedIndexes());
+        for (IndexDefinition index : missingIndexes) {
+            LOGGER.log(Level.SEVERE, "Expected database index is missing: {0}", index);
+        }
+        return missingIndexes.isEmpty();
+    }
+
+    private void createIndexes(List<IndexDefinition> indexes) {
+        for (IndexDefinition index : missingIndexes(indexes)) {
+            em.createNativeQuery(index.createStatement()).executeUpdate();
+        }
+    }
+
+    private List<IndexDefinition> missingIndexes(List<IndexDefinition> indexes) {
+        em.flush();
+        try (Connection connection = dataSource.getConnection()) {
+            final DatabaseMetaData metaData = connection.getMetaData();
+            final List<IndexDefinition> missingIndexes = Lists.newArrayList();
+            for (IndexDefinition index : indexes) {
+                if (!existingIndexNames(metaData, index.getTable()).contains(index.getName().toUpperCase(Locale.ROOT))) {
+                    missingIndexes.add(index);
+                }
+            }
+            return missingIndexes;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not read the index metadata of the database", e);
+        }
+    }
+
+    private Set<String> existingIndexNames(DatabaseMetaData metaData, String table) throws SQLException {
+        final Set<String> indexNames = Sets.newHashSet();
+        for (String tableName : ImmutableList.of(table, table.toLowerCase(Locale.ROOT), table.toUpperCase(Locale.ROOT))) {
+            try (ResultSet resultSet = metaData.getIndexInfo(null, null, tableName, false, true)) {
+                while (resultSet.next()) {
+                    final String indexName = resultSet.getString("INDEX_NAME");
+                    if (indexName != null) {
+                        indexNames.add(indexName.toUpperCase(Locale.ROOT));
+                    }
+                }
+            }
+        }
+        return indexNames;
+    }
+}
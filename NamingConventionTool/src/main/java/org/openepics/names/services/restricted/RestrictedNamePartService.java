@@ -23,7 +23,9 @@ import com.google.common.base.Preconditions;
 import org.openepics.names.model.*;
 import org.openepics.names.services.DeviceDefinition;
 import org.openepics.names.services.NamePartService;
+import org.openepics.names.services.NamingSnapshotService;
 import org.openepics.names.services.SessionService;
+import org.openepics.names.services.views.DeviceSnapshot;
 
 import javax.annotation.Nullable;
 import javax.ejb.Stateless;
@@ -34,7 +36,7 @@ import java.util.UUID;
 
 /**
  * A gateway to a NamePartService bean that enforces user access control rules on each call. All calls from UI code should
- * go through this.
+ * go through this. Reads of the current naming data are answered from the application-wide naming snapshot.
  *
  * @author Marko Kolar  
  * @author Karin Rathsman  
@@ -44,6 +46,7 @@ public class RestrictedNamePartService {
 
     @Inject private SessionService sessionService;
     @Inject private NamePartService namePartService;
+    @Inject private NamingSnapshotService namingSnapshotService;
 
     /**
      *
@@ -213,7 +216,7 @@ public class RestrictedNamePartService {
      * @param includeDeleted true if the list should also include revisions for deleted name parts
      */
     public List<NamePartRevision> currentApprovedNamePartRevisions(NamePartType type, boolean includeDeleted) {
-        return namePartService.currentApprovedNamePartRevisions(type, includeDeleted);
+        return namingSnapshotService.current().approvedRevisions(type, includeDeleted);
     }
 
     /**
@@ -223,7 +226,18 @@ public class RestrictedNamePartService {
      * @param includeDeleted true if the list should also include revisions for deleted name parts
      */
     public List<NamePartRevision> currentPendingNamePartRevisions(NamePartType type, boolean includeDeleted) {
-        return namePartService.currentPendingNamePartRevisions(type, includeDeleted);
+        return namingSnapshotService.current().pendingRevisions(type, includeDeleted);
+    }
+
+    /**
+     * @return A page of the revisions of the given name part, in the direction of the page.
+     * @param namePart the name part
+     * @param boundaryId the ID of the revision the page starts after, null for the first page
+     * @param pageSize the maximum number of revisions in the page
+     * @param ascending true to page from the oldest revisions on, false to page from the latest back
+     */
+    public List<NamePartRevision> revisions(NamePart namePart, @Nullable Long boundaryId, int pageSize, boolean ascending) {
+        return namePartService.revisions(namePart, boundaryId, pageSize, ascending);
     }
 
     /**
@@ -240,7 +254,7 @@ public class RestrictedNamePartService {
      * @param namePart the name part
      */
     public @Nullable NamePartRevision approvedRevision(NamePart namePart) {
-        return namePartService.approvedRevision(namePart);
+        return namingSnapshotService.current().approvedRevision(namePart);
     }
 
     /**
@@ -249,7 +263,7 @@ public class RestrictedNamePartService {
      * @param namePart the name part
      */
     public @Nullable NamePartRevision pendingRevision(NamePart namePart) {
-        return namePartService.pendingRevision(namePart);
+        return namingSnapshotService.current().pendingRevision(namePart);
     }
 
     public void batchAddDevices(Iterable<DeviceDefinition> devices) {
@@ -312,7 +326,28 @@ public class RestrictedNamePartService {
      * @param includeDeleted true if the list should also include revisions for deleted devices
      */
     public List<DeviceRevision> currentDeviceRevisions(boolean includeDeleted) {
-        return namePartService.currentDeviceRevisions(includeDeleted);
+        return namingSnapshotService.current().deviceRevisions(includeDeleted);
+    }
+
+    /**
+     * @return The current revisions of all devices and the approved revisions of all sections and device types,
+     * loaded in a fixed number of queries.
+     *
+     * @param includeDeleted true if the snapshot should also include deleted devices and name parts
+     */
+    public DeviceSnapshot deviceSnapshot(boolean includeDeleted) {
+        return namingSnapshotService.current().deviceSnapshot(includeDeleted);
+    }
+
+    /**
+     * @return A page of the revisions of the given device, in the direction of the page.
+     * @param device the device
+     * @param boundaryId the ID of the revision the page starts after, null for the first page
+     * @param pageSize the maximum number of revisions in the page
+     * @param ascending true to page from the oldest revisions on, false to page from the latest back
+     */
+    public List<DeviceRevision> revisions(Device device, @Nullable Long boundaryId, int pageSize, boolean ascending) {
+        return namePartService.revisions(device, boundaryId, pageSize, ascending);
     }
 
     /**
@@ -338,11 +373,12 @@ public class RestrictedNamePartService {
      * @param deviceUuid the UUID of the device
      */
     public @Nullable DeviceRevision currentDeviceRevision(UUID deviceUuid) {
-        return namePartService.currentDeviceRevision(deviceUuid);
+        return namingSnapshotService.current().deviceRevision(deviceUuid);
     }
 
     public @Nullable DeviceRevision currentDeviceRevision(String deviceName){
-    	return namePartService.currentDeviceRevision(deviceName);
+    	final @Nullable DeviceRevision activeRevision = namingSnapshotService.current().deviceRevision(deviceName);
+    	return activeRevision != null ? activeRevision : namePartService.currentDeviceRevision(deviceName);
     }
     
     public List<DeviceRevision> devcieRevisionsPreviouslyNamed(String deviceName){
@@ -381,7 +417,7 @@ public class RestrictedNamePartService {
 	}
 
 	public List<NamePartRevision> approvedChildrenRevisions(NamePart namePart, boolean includeDeleted) {
-		return namePartService.approvedChildrenRevisions(namePart,includeDeleted);
+		return namingSnapshotService.current().approvedChildrenRevisions(namePart, includeDeleted);
 	}
 
 	public List<NamePartRevision> currentApprovedNamePartRevisionRoots(NamePartType type, boolean includeDeleted) {
@@ -0,0 +1,122 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.services.views;
+
+import com.google.common.base.Objects;
+import org.openepics.names.model.DeviceNameSnapshot;
+
+import javax.annotation.Nullable;
+import java.util.regex.Pattern;
+
+/**
+ * The criteria selecting published device names. A criterion left null selects all names. The name pattern may
+ * contain the wildcards * for any sequence of characters and ? for a single character; a pattern without wildcards
+ * selects only the name equal to it.
+ */
+public class DeviceNameQuery {
+
+    private final @Nullable String section;
+    private final @Nullable String subSection;
+    private final @Nullable String discipline;
+    private final @Nullable String deviceType;
+    private final @Nullable String status;
+    private final String namePrefix;
+    private final boolean exactName;
+    private final @Nullable Pattern nameRegex;
+
+    /**
+     * @param section the mnemonic of the section
+     * @param subSection the mnemonic of the subsection
+     * @param discipline the mnemonic of the discipline
+     * @param deviceType the mnemonic of the device type
+     * @param status the status of the name, one of ACTIVE, OBSOLETE or DELETED
+     * @param namePattern the pattern of the device name
+     */
+    public DeviceNameQuery(@Nullable String section, @Nullable String subSection, @Nullable String discipline, @Nullable String deviceType, @Nullable String status, @Nullable String namePattern) {
+        this.section = section;
+        this.subSection = subSection;
+        this.discipline = discipline;
+        this.deviceType = deviceType;
+        this.status = status;
+        this.namePrefix = namePattern != null ? prefix(namePattern) : "";
+        this.exactName = namePattern != null && namePrefix.equals(namePattern);
+        this.nameRegex = namePattern != null && !exactName ? regex(namePattern) : null;
+    }
+
+    /**
+     * @return the mnemonic of the section, null for all
+     */
+    public @Nullable String getSection() { return section; }
+
+    /**
+     * @return the mnemonic of the discipline, null for all
+     */
+    public @Nullable String getDiscipline() { return discipline; }
+
+    /**
+     * @return the part of the name pattern before the first wildcard, which all the selected names start with
+     */
+    public String getNamePrefix() { return namePrefix; }
+
+    /**
+     * @return true if the name pattern has no wildcards, and the only name selected is the name prefix itself
+     */
+    public boolean isExactName() { return exactName; }
+
+    /**
+     * @param deviceName the published row of a device name
+     * @return true if the name meets all the criteria
+     */
+    public boolean matches(DeviceNameSnapshot deviceName) {
+        return matches(section, deviceName.getSection()) && matches(subSection, deviceName.getSubSection()) && matches(discipline, deviceName.getDiscipline()) && matches(deviceType, deviceName.getDeviceType()) && matches(status, deviceName.getStatus())
+                && (nameRegex != null ? nameRegex.matcher(deviceName.getName()).matches() : exactName ? deviceName.getName().equals(namePrefix) : deviceName.getName().startsWith(namePrefix));
+    }
+
+    private static boolean matches(@Nullable String criterion, @Nullable String value) {
+        return criterion == null || Objects.equal(criterion, value);
+    }
+
+    private static String prefix(String namePattern) {
+        int end = 0;
+        while (end < namePattern.length() && namePattern.charAt(end) != '*' && namePattern.charAt(end) != '?') {
+            end++;
+        }
+        return namePattern.substring(0, end);
+    }
+
+    private static Pattern regex(String namePattern) {
+        final StringBuilder regex = new StringBuilder();
+        final StringBuilder literal = new StringBuilder();
+        for (char c : namePattern.toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+}
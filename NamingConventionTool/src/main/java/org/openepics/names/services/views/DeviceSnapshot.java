@@ -0,0 +1,69 @@
+/*
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.services.views;
+
+import com.google.common.collect.ImmutableList;
+import org.openepics.names.model.DeviceRevision;
+import org.openepics.names.model.NamePartRevision;
+
+import java.util.List;
+
+/**
+ * The current revisions of all devices together with the approved revisions of the sections and device types they
+ * refer to, loaded in bulk so that views of the devices can be built without further database queries.
+ */
+public class DeviceSnapshot {
+
+    private final List<NamePartRevision> sectionRevisions;
+    private final List<NamePartRevision> deviceTypeRevisions;
+    private final List<DeviceRevision> deviceRevisions;
+    private final BatchViewProvider viewProvider;
+
+    /**
+     * @param sectionRevisions the approved revisions of all sections
+     * @param deviceTypeRevisions the approved revisions of all device types
+     * @param deviceRevisions the current revisions of all devices
+     */
+    public DeviceSnapshot(List<NamePartRevision> sectionRevisions, List<NamePartRevision> deviceTypeRevisions, List<DeviceRevision> deviceRevisions) {
+        this.sectionRevisions = ImmutableList.copyOf(sectionRevisions);
+        this.deviceTypeRevisions = ImmutableList.copyOf(deviceTypeRevisions);
+        this.deviceRevisions = ImmutableList.copyOf(deviceRevisions);
+        this.viewProvider = new BatchViewProvider(this.sectionRevisions, this.deviceTypeRevisions, this.deviceRevisions);
+    }
+
+    /**
+     * @return the approved revisions of all sections
+     */
+    public List<NamePartRevision> getSectionRevisions() { return sectionRevisions; }
+
+    /**
+     * @return the approved revisions of all device types
+     */
+    public List<NamePartRevision> getDeviceTypeRevisions() { return deviceTypeRevisions; }
+
+    /**
+     * @return the current revisions of all devices
+     */
+    public List<DeviceRevision> getDeviceRevisions() { return deviceRevisions; }
+
+    /**
+     * @return the provider of views for the name parts and devices in the snapshot
+     */
+    public BatchViewProvider getViewProvider() { return viewProvider; }
+}
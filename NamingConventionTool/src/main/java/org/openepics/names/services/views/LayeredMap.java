@@ -0,0 +1,107 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.services.views;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable map that is updated by layering the changes over an unchanged base map, so that the cost of an update
+ * is proportional to the number of changes accumulated since the base was built rather than to the size of the map.
+ * The layers are merged into a new base once the changes outgrow a fraction of it.
+ */
+final class LayeredMap<K, V> {
+
+    private static final int MIN_MERGE_SIZE = 64;
+    private static final int MERGE_FRACTION = 8;
+
+    private final ImmutableMap<K, V> base;
+    private final ImmutableMap<K, Optional<V>> changes;
+
+    private LayeredMap(ImmutableMap<K, V> base, ImmutableMap<K, Optional<V>> changes) {
+        this.base = base;
+        this.changes = changes;
+    }
+
+    /**
+     * @param entries the entries of the map
+     * @return a map with the given entries
+     */
+    static <K, V> LayeredMap<K, V> of(Map<K, V> entries) {
+        return new LayeredMap<>(ImmutableMap.copyOf(entries), ImmutableMap.<K, Optional<V>>of());
+    }
+
+    /**
+     * @param key the key
+     * @return the value mapped to the key, null if there is none
+     */
+    @Nullable V get(K key) {
+        final @Nullable Optional<V> change = changes.get(key);
+        return change != null ? change.orNull() : base.get(key);
+    }
+
+    /**
+     * @param newChanges the new values by key, absent for keys to be removed
+     * @return a map with the changes applied to the entries of this one
+     */
+    LayeredMap<K, V> with(Map<K, Optional<V>> newChanges) {
+        if (newChanges.isEmpty()) {
+            return this;
+        }
+        final Map<K, Optional<V>> allChanges = Maps.newHashMap(changes);
+        allChanges.putAll(newChanges);
+        if (allChanges.size() > MIN_MERGE_SIZE + base.size() / MERGE_FRACTION) {
+            final Map<K, V> merged = Maps.newHashMap(base);
+            for (Map.Entry<K, Optional<V>> change : allChanges.entrySet()) {
+                if (change.getValue().isPresent()) {
+                    merged.put(change.getKey(), change.getValue().get());
+                } else {
+                    merged.remove(change.getKey());
+                }
+            }
+            return of(merged);
+        } else {
+            return new LayeredMap<>(base, ImmutableMap.copyOf(allChanges));
+        }
+    }
+
+    /**
+     * @return all values of the map
+     */
+    List<V> values() {
+        final ImmutableList.Builder<V> values = ImmutableList.builder();
+        for (Map.Entry<K, V> entry : base.entrySet()) {
+            if (!changes.containsKey(entry.getKey())) {
+                values.add(entry.getValue());
+            }
+        }
+        for (Optional<V> change : changes.values()) {
+            if (change.isPresent()) {
+                values.add(change.get());
+            }
+        }
+        return values.build();
+    }
+}
@@ -0,0 +1,154 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.services.views;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.collect.BoundType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Range;
+
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable map sorted by key that is updated by layering the changes over an unchanged base map, like LayeredMap.
+ * The entries in a range of keys are read by merging the base and the changes in key order, so reading them costs no
+ * more than reading them from a single sorted map.
+ */
+final class LayeredSortedMap<K extends Comparable<? super K>, V> {
+
+    private static final int MIN_MERGE_SIZE = 64;
+    private static final int MERGE_FRACTION = 8;
+
+    private final ImmutableSortedMap<K, V> base;
+    private final ImmutableSortedMap<K, Optional<V>> changes;
+    private final int size;
+
+    private LayeredSortedMap(ImmutableSortedMap<K, V> base, ImmutableSortedMap<K, Optional<V>> changes) {
+        this.base = base;
+        this.changes = changes;
+        int size = base.size();
+        for (Map.Entry<K, Optional<V>> change : changes.entrySet()) {
+            final boolean inBase = base.containsKey(change.getKey());
+            if (change.getValue().isPresent() && !inBase) {
+                size++;
+            } else if (!change.getValue().isPresent() && inBase) {
+                size--;
+            }
+        }
+        this.size = size;
+    }
+
+    /**
+     * @param entries the entries of the map
+     * @return a map with the given entries
+     */
+    static <K extends Comparable<? super K>, V> LayeredSortedMap<K, V> of(Map<K, V> entries) {
+        return new LayeredSortedMap<>(ImmutableSortedMap.copyOf(entries, Ordering.<K>natural()), ImmutableSortedMap.<K, Optional<V>>of());
+    }
+
+    /**
+     * @param key the key
+     * @return the value mapped to the key, null if there is none
+     */
+    @Nullable V get(K key) {
+        final @Nullable Optional<V> change = changes.get(key);
+        return change != null ? change.orNull() : base.get(key);
+    }
+
+    /**
+     * @return the number of entries of the map
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param newChanges the new values by key, absent for keys to be removed
+     * @return a map with the changes applied to the entries of this one
+     */
+    LayeredSortedMap<K, V> with(Map<K, Optional<V>> newChanges) {
+        if (newChanges.isEmpty()) {
+            return this;
+        }
+        final Map<K, Optional<V>> allChanges = Maps.newHashMap(changes);
+        allChanges.putAll(newChanges);
+        if (allChanges.size() > MIN_MERGE_SIZE + base.size() / MERGE_FRACTION) {
+            final Map<K, V> merged = Maps.newHashMap(base);
+            for (Map.Entry<K, Optional<V>> change : allChanges.entrySet()) {
+                if (change.getValue().isPresent()) {
+                    merged.put(change.getKey(), change.getValue().get());
+                } else {
+                    merged.remove(change.getKey());
+                }
+            }
+            return of(merged);
+        } else {
+            return new LayeredSortedMap<>(base, ImmutableSortedMap.copyOf(allChanges, Ordering.<K>natural()));
+        }
+    }
+
+    /**
+     * @return all values of the map, in the order of their keys
+     */
+    List<V> values() {
+        return ImmutableList.copyOf(values(Range.<K>all()));
+    }
+
+    /**
+     * @param range the range of keys
+     * @return the values of the keys in the range, in the order of their keys, read as the iterator advances
+     */
+    Iterator<V> values(Range<K> range) {
+        final Iterator<Map.Entry<K, V>> baseEntries = Iterators.filter(subMap(base, range).entrySet().iterator(), new Predicate<Map.Entry<K, V>>() {
+            @Override public boolean apply(Map.Entry<K, V> entry) { return !changes.containsKey(entry.getKey()); }
+        });
+        final Iterator<Map.Entry<K, Optional<V>>> presentChanges = Iterators.filter(subMap(changes, range).entrySet().iterator(), new Predicate<Map.Entry<K, Optional<V>>>() {
+            @Override public boolean apply(Map.Entry<K, Optional<V>> change) { return change.getValue().isPresent(); }
+        });
+        final Iterator<Map.Entry<K, V>> changedEntries = Iterators.transform(presentChanges, new Function<Map.Entry<K, Optional<V>>, Map.Entry<K, V>>() {
+            @Override public Map.Entry<K, V> apply(Map.Entry<K, Optional<V>> change) { return Maps.immutableEntry(change.getKey(), change.getValue().get()); }
+        });
+        final Ordering<Map.Entry<K, V>> byKey = Ordering.<K>natural().onResultOf(new Function<Map.Entry<K, V>, K>() {
+            @Override public K apply(Map.Entry<K, V> entry) { return entry.getKey(); }
+        });
+        return Iterators.transform(Iterators.mergeSorted(ImmutableList.of(baseEntries, changedEntries), byKey), new Function<Map.Entry<K, V>, V>() {
+            @Override public V apply(Map.Entry<K, V> entry) { return entry.getValue(); }
+        });
+    }
+
+    private static <K extends Comparable<? super K>, V> ImmutableSortedMap<K, V> subMap(ImmutableSortedMap<K, V> map, Range<K> range) {
+        ImmutableSortedMap<K, V> subMap = map;
+        if (range.hasLowerBound()) {
+            subMap = subMap.tailMap(range.lowerEndpoint(), range.lowerBoundType() == BoundType.CLOSED);
+        }
+        if (range.hasUpperBound()) {
+            subMap = subMap.headMap(range.upperEndpoint(), range.upperBoundType() == BoundType.CLOSED);
+        }
+        return subMap;
+    }
+}
@@ -0,0 +1,522 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.services.views;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Range;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.openepics.names.model.DeviceNameSnapshot;
+import org.openepics.names.model.DeviceRevision;
+import org.openepics.names.model.NamePart;
+import org.openepics.names.model.NamePartRevision;
+import org.openepics.names.model.NamePartRevisionStatus;
+import org.openepics.names.model.NamePartType;
+import org.openepics.names.util.As;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * An immutable, versioned model of the whole naming data as of a committed transaction: the approved and pending
+ * revisions of all name parts, the current revisions of all devices and the published device names. A snapshot is
+ * never modified once built, so it can be shared by any number of readers without locking; changes are published as
+ * a new snapshot with a higher version, which shares the unchanged data with its predecessor.
+ *
+ * A snapshot reflects at least all entries of the naming change log up to its change ID. Since the IDs of the log
+ * follow the commit order, snapshots with the same change ID hold the same data on every server, up to the changes
+ * committed while they were being read.
+ *
+ * Lookups by key and the selections of device names are answered from indexes that each version derives from its
+ * predecessor by applying only the changes; the lists of all revisions and the device snapshots are assembled on first
+ * use in each version.
+ */
+public class NamingSnapshot {
+
+    private static final Function<DeviceNameSnapshot, String> SECTION = new Function<DeviceNameSnapshot, String>() {
+        @Override public @Nullable String apply(DeviceNameSnapshot deviceName) { return deviceName.getSection(); }
+    };
+    private static final Function<DeviceNameSnapshot, String> DISCIPLINE = new Function<DeviceNameSnapshot, String>() {
+        @Override public @Nullable String apply(DeviceNameSnapshot deviceName) { return deviceName.getDiscipline(); }
+    };
+
+    private static final Ordering<NamePartRevision> BY_NAME = new Ordering<NamePartRevision>() {
+        @Override public int compare(NamePartRevision left, NamePartRevision right) {
+            return left.getName().compareTo(right.getName());
+        }
+    };
+
+    private final long version;
+    private final long changeId;
+    private final LayeredMap<Long, NamePartRevision> approvedRevisionByNamePart;
+    private final LayeredMap<Long, NamePartRevision> pendingRevisionByNamePart;
+    private final LayeredMap<UUID, DeviceRevision> deviceRevisionByUuid;
+    private final LayeredMap<String, DeviceRevision> activeDeviceRevisionByName;
+    private final LayeredSortedMap<String, DeviceNameSnapshot> deviceNameByName;
+    private final LayeredMap<String, LayeredSortedMap<String, DeviceNameSnapshot>> deviceNamesBySection;
+    private final LayeredMap<String, LayeredSortedMap<String, DeviceNameSnapshot>> deviceNamesByDiscipline;
+    private final long lastModifiedMillis;
+
+    private final Supplier<Map<NamePartType, List<NamePartRevision>>> approvedRevisions = Suppliers.memoize(new Supplier<Map<NamePartType, List<NamePartRevision>>>() {
+        @Override public Map<NamePartType, List<NamePartRevision>> get() { return byType(approvedRevisionByNamePart.values(), false); }
+    });
+    private final Supplier<Map<NamePartType, List<NamePartRevision>>> approvedRevisionsWithoutDeleted = Suppliers.memoize(new Supplier<Map<NamePartType, List<NamePartRevision>>>() {
+        @Override public Map<NamePartType, List<NamePartRevision>> get() { return byType(approvedRevisionByNamePart.values(), true); }
+    });
+    private final Supplier<Map<NamePartType, List<NamePartRevision>>> pendingRevisions = Suppliers.memoize(new Supplier<Map<NamePartType, List<NamePartRevision>>>() {
+        @Override public Map<NamePartType, List<NamePartRevision>> get() { return byType(pendingRevisionByNamePart.values(), false); }
+    });
+    private final Supplier<Map<NamePartType, List<NamePartRevision>>> pendingRevisionsWithoutDeleted = Suppliers.memoize(new Supplier<Map<NamePartType, List<NamePartRevision>>>() {
+        @Override public Map<NamePartType, List<NamePartRevision>> get() { return byType(pendingRevisionByNamePart.values(), true); }
+    });
+    private final Supplier<ImmutableListMultimap<NamePart, NamePartRevision>> approvedChildren = Suppliers.memoize(new Supplier<ImmutableListMultimap<NamePart, NamePartRevision>>() {
+        @Override public ImmutableListMultimap<NamePart, NamePartRevision> get() {
+            final ImmutableListMultimap.Builder<NamePart, NamePartRevision> children = ImmutableListMultimap.builder();
+            for (NamePartRevision revision : BY_NAME.sortedCopy(approvedRevisionByNamePart.values())) {
+                if (revision.getParent() != null) {
+                    children.put(revision.getParent(), revision);
+                }
+            }
+            return children.build();
+        }
+    });
+    private final Supplier<List<DeviceRevision>> deviceRevisions = Suppliers.memoize(new Supplier<List<DeviceRevision>>() {
+        @Override public List<DeviceRevision> get() { return deviceRevisionByUuid.values(); }
+    });
+    private final Supplier<List<DeviceRevision>> deviceRevisionsWithoutDeleted = Suppliers.memoize(new Supplier<List<DeviceRevision>>() {
+        @Override public List<DeviceRevision> get() { return activeDeviceRevisionByName.values(); }
+    });
+    private final Supplier<DeviceSnapshot> deviceSnapshot = Suppliers.memoize(new Supplier<DeviceSnapshot>() {
+        @Override public DeviceSnapshot get() { return newDeviceSnapshot(true); }
+    });
+    private final Supplier<DeviceSnapshot> deviceSnapshotWithoutDeleted = Suppliers.memoize(new Supplier<DeviceSnapshot>() {
+        @Override public DeviceSnapshot get() { return newDeviceSnapshot(false); }
+    });
+    private final Supplier<List<DeviceNameSnapshot>> deviceNames = Suppliers.memoize(new Supplier<List<DeviceNameSnapshot>>() {
+        @Override public List<DeviceNameSnapshot> get() { return deviceNameByName.values(); }
+    });
+    private NamingSnapshot(long version, long changeId, LayeredMap<Long, NamePartRevision> approvedRevisionByNamePart, LayeredMap<Long, NamePartRevision> pendingRevisionByNamePart, LayeredMap<UUID, DeviceRevision> deviceRevisionByUuid, LayeredMap<String, DeviceRevision> activeDeviceRevisionByName, LayeredSortedMap<String, DeviceNameSnapshot> deviceNameByName, LayeredMap<String, LayeredSortedMap<String, DeviceNameSnapshot>> deviceNamesBySection, LayeredMap<String, LayeredSortedMap<String, DeviceNameSnapshot>> deviceNamesByDiscipline, long lastModifiedMillis) {
+        this.version = version;
+        this.changeId = changeId;
+        this.approvedRevisionByNamePart = approvedRevisionByNamePart;
+        this.pendingRevisionByNamePart = pendingRevisionByNamePart;
+        this.deviceRevisionByUuid = deviceRevisionByUuid;
+        this.activeDeviceRevisionByName = activeDeviceRevisionByName;
+        this.deviceNameByName = deviceNameByName;
+        this.deviceNamesBySection = deviceNamesBySection;
+        this.deviceNamesByDiscipline = deviceNamesByDiscipline;
+        this.lastModifiedMillis = lastModifiedMillis;
+    }
+
+    /**
+     * @param version the version of the snapshot, higher for snapshots reflecting later commits
+     * @param changeId the ID of the latest naming change log entry reflected in the data, 0 if none
+     * @param approvedRevisions the approved revisions of all name parts, including deleted ones
+     * @param pendingRevisions the pending revisions of all name parts, including deleted ones
+     * @param deviceRevisions the current revisions of all devices, including deleted ones
+     * @param deviceNames the published rows of all device names
+     */
+    public NamingSnapshot(long version, long changeId, Collection<NamePartRevision> approvedRevisions, Collection<NamePartRevision> pendingRevisions, Collection<DeviceRevision> deviceRevisions, Collection<DeviceNameSnapshot> deviceNames) {
+        this(version, changeId, LayeredMap.of(byNamePart(approvedRevisions)), LayeredMap.of(byNamePart(pendingRevisions)), LayeredMap.<UUID, DeviceRevision>of(byUuid(deviceRevisions)), LayeredMap.<String, DeviceRevision>of(activeByName(deviceRevisions)), LayeredSortedMap.of(byName(deviceNames)), LayeredMap.of(byKey(deviceNames, SECTION)), LayeredMap.of(byKey(deviceNames, DISCIPLINE)), lastModifiedMillis(0, approvedRevisions, deviceRevisions));
+    }
+
+    /**
+     * Produces the next version of the snapshot from the entities changed since this one was built. Only the changed
+     * entities are visited, also to update the sorted indexes of the device names and the time of the last
+     * modification; the rest of the data is shared with this snapshot.
+     *
+     * @param version the version of the new snapshot, higher than the version of this one
+     * @param changeId the ID of the latest naming change log entry reflected in the new snapshot
+     * @param approvedRevisions the new approved revisions by the ID of each changed name part, absent if the name part
+     * no longer has one
+     * @param pendingRevisions the new pending revisions by the ID of each changed name part, absent if the name part
+     * no longer has one
+     * @param newDeviceRevisions the new current revisions of the changed devices
+     * @param newDeviceNames the new rows of the changed published device names
+     * @return the new snapshot
+     */
+    public NamingSnapshot withChanges(long version, long changeId, Map<Long, Optional<NamePartRevision>> approvedRevisions, Map<Long, Optional<NamePartRevision>> pendingRevisions, Collection<DeviceRevision> newDeviceRevisions, Collection<DeviceNameSnapshot> newDeviceNames) {
+        final Map<UUID, Optional<DeviceRevision>> deviceChanges = Maps.newHashMap();
+        final Map<String, Optional<DeviceRevision>> activeNameChanges = Maps.newHashMap();
+        for (DeviceRevision newRevision : newDeviceRevisions) {
+            final UUID uuid = newRevision.getDevice().getUuid();
+            final @Nullable DeviceRevision oldRevision = deviceRevisionByUuid.get(uuid);
+            if (oldRevision != null && !oldRevision.isDeleted()) {
+                final @Nullable DeviceRevision holder = activeDeviceRevisionByName.get(oldRevision.getConventionName());
+                if (holder != null && holder.getDevice().getUuid().equals(uuid)) {
+                    activeNameChanges.put(oldRevision.getConventionName(), Optional.<DeviceRevision>absent());
+                }
+            }
+            deviceChanges.put(uuid, Optional.of(newRevision));
+        }
+        for (DeviceRevision newRevision : newDeviceRevisions) {
+            if (!newRevision.isDeleted()) {
+                activeNameChanges.put(newRevision.getConventionName(), Optional.of(newRevision));
+            }
+        }
+        final Map<String, Optional<DeviceNameSnapshot>> deviceNameChanges = Maps.newHashMap();
+        for (DeviceNameSnapshot newDeviceName : newDeviceNames) {
+            deviceNameChanges.put(newDeviceName.getName(), Optional.of(newDeviceName));
+        }
+        final List<NamePartRevision> newApprovedRevisions = Lists.newArrayList();
+        for (Optional<NamePartRevision> approvedRevision : approvedRevisions.values()) {
+            newApprovedRevisions.addAll(approvedRevision.asSet());
+        }
+        return new NamingSnapshot(version, changeId, approvedRevisionByNamePart.with(approvedRevisions), pendingRevisionByNamePart.with(pendingRevisions), deviceRevisionByUuid.with(deviceChanges), activeDeviceRevisionByName.with(activeNameChanges), deviceNameByName.with(deviceNameChanges),
+                withIndexChanges(deviceNamesBySection, SECTION, newDeviceNames), withIndexChanges(deviceNamesByDiscipline, DISCIPLINE, newDeviceNames), lastModifiedMillis(lastModifiedMillis, newApprovedRevisions, newDeviceRevisions));
+    }
+
+    /**
+     * @return the version of the snapshot, higher for snapshots reflecting later commits
+     */
+    public long getVersion() { return version; }
+
+    /**
+     * @return the ID of the latest naming change log entry reflected in the snapshot, 0 if none. Also serves as a
+     * validator of the snapshot that is the same on every server.
+     */
+    public long getChangeId() { return changeId; }
+
+    /**
+     * @param type the type of the name parts
+     * @param includeDeleted true if the revisions of deleted name parts should be included
+     * @return the approved revisions of all name parts of the given type
+     */
+    public List<NamePartRevision> approvedRevisions(NamePartType type, boolean includeDeleted) {
+        return (includeDeleted ? approvedRevisions : approvedRevisionsWithoutDeleted).get().get(type);
+    }
+
+    /**
+     * @param type the type of the name parts
+     * @param includeDeleted true if the approved deletions pointed to as pending should be included
+     * @return the pending revisions of all name parts of the given type
+     */
+    public List<NamePartRevision> pendingRevisions(NamePartType type, boolean includeDeleted) {
+        return (includeDeleted ? pendingRevisions : pendingRevisionsWithoutDeleted).get().get(type);
+    }
+
+    /**
+     * @param namePart the name part
+     * @return the approved revision of the name part, null if there is none
+     */
+    public @Nullable NamePartRevision approvedRevision(NamePart namePart) {
+        return approvedRevisionByNamePart.get(As.notNull(namePart.getId()));
+    }
+
+    /**
+     * @param namePart the name part
+     * @return the pending revision of the name part, null if there is none
+     */
+    public @Nullable NamePartRevision pendingRevision(NamePart namePart) {
+        return pendingRevisionByNamePart.get(As.notNull(namePart.getId()));
+    }
+
+    /**
+     * @param namePart the parent name part
+     * @param includeDeleted true if the revisions of deleted name parts should be included
+     * @return the approved revisions of the name parts whose approved parent is the given name part, ordered by name
+     */
+    public List<NamePartRevision> approvedChildrenRevisions(NamePart namePart, boolean includeDeleted) {
+        final List<NamePartRevision> children = approvedChildren.get().get(namePart);
+        return includeDeleted ? children : withoutDeleted(children);
+    }
+
+    /**
+     * @param includeDeleted true if the revisions of deleted devices should be included
+     * @return the current revisions of all devices
+     */
+    public List<DeviceRevision> deviceRevisions(boolean includeDeleted) {
+        return (includeDeleted ? deviceRevisions : deviceRevisionsWithoutDeleted).get();
+    }
+
+    /**
+     * @param deviceUuid the UUID of the device
+     * @return the current revision of the device, null if there is no such device
+     */
+    public @Nullable DeviceRevision deviceRevision(UUID deviceUuid) {
+        return deviceRevisionByUuid.get(deviceUuid);
+    }
+
+    /**
+     * @param conventionName the convention name of the device
+     * @return the current revision of the existing device with the name, null if there is none
+     */
+    public @Nullable DeviceRevision deviceRevision(String conventionName) {
+        return activeDeviceRevisionByName.get(conventionName);
+    }
+
+    /**
+     * @param includeDeleted true if deleted devices and name parts should be included
+     * @return the current revisions of the devices together with the approved revisions of the sections and device
+     * types, shared by all callers of this version
+     */
+    public DeviceSnapshot deviceSnapshot(boolean includeDeleted) {
+        return (includeDeleted ? deviceSnapshot : deviceSnapshotWithoutDeleted).get();
+    }
+
+    /**
+     * @return the published rows of all device names ever used
+     */
+    public List<DeviceNameSnapshot> getDeviceNames() { return deviceNames.get(); }
+
+    /**
+     * @param conventionName the device name
+     * @return the published row of the device name, null if the name was never used
+     */
+    public @Nullable DeviceNameSnapshot deviceName(String conventionName) {
+        return deviceNameByName.get(conventionName);
+    }
+
+    /**
+     * Selects published device names in the order of their names, one page at a time. The names of a section or a
+     * discipline and the names starting with a prefix are read from sorted indexes, so the time taken depends on the
+     * number of names in the section, discipline or prefix range rather than on the number of all names. The other
+     * criteria are checked name by name within that range.
+     *
+     * @param query the criteria the names must meet
+     * @param after the name after which the page starts, null for the first page
+     * @param limit the largest number of names to return
+     * @return the published rows of the selected device names
+     */
+    public List<DeviceNameSnapshot> deviceNames(DeviceNameQuery query, @Nullable String after, int limit) {
+        @Nullable LayeredSortedMap<String, DeviceNameSnapshot> candidates = deviceNameByName;
+        if (query.getSection() != null) {
+            candidates = narrower(candidates, deviceNamesBySection.get(query.getSection()));
+        }
+        if (query.getDiscipline() != null) {
+            candidates = narrower(candidates, deviceNamesByDiscipline.get(query.getDiscipline()));
+        }
+        final String prefix = query.getNamePrefix();
+        Range<String> range = Range.all();
+        if (query.isExactName()) {
+            range = Range.singleton(prefix);
+        } else if (!prefix.isEmpty()) {
+            range = Range.closedOpen(prefix, prefix + Character.MAX_VALUE);
+        }
+        if (after != null) {
+            final Range<String> afterRange = Range.greaterThan(after);
+            range = range.isConnected(afterRange) ? range.intersection(afterRange) : null;
+        }
+        if (candidates == null || range == null) {
+            return ImmutableList.of();
+        }
+
+        final ImmutableList.Builder<DeviceNameSnapshot> page = ImmutableList.builder();
+        int size = 0;
+        for (Iterator<DeviceNameSnapshot> deviceNames = candidates.values(range); size < limit && deviceNames.hasNext(); ) {
+            final DeviceNameSnapshot deviceName = deviceNames.next();
+            if (query.matches(deviceName)) {
+                page.add(deviceName);
+                size++;
+            }
+        }
+        return page.build();
+    }
+
+    /**
+     * @return the latest time an approval or a device revision changed the naming data, to a second
+     */
+    public Date getLastModified() { return new Date(lastModifiedMillis / 1000 * 1000); }
+
+    /**
+     * @param deviceName the published row of a device name
+     * @return a validator of the row, the same on every server for the same contents
+     */
+    public static String tag(DeviceNameSnapshot deviceName) {
+        return hash(deviceName).toString();
+    }
+
+    private DeviceSnapshot newDeviceSnapshot(boolean includeDeleted) {
+        return new DeviceSnapshot(approvedRevisions(NamePartType.SECTION, includeDeleted), approvedRevisions(NamePartType.DEVICE_TYPE, includeDeleted), deviceRevisions(includeDeleted));
+    }
+
+    private static HashCode hash(DeviceNameSnapshot deviceName) {
+        final Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (@Nullable String value : new String[] {deviceName.getName(), deviceName.getUuid().toString(), deviceName.getStatus(), deviceName.getSection(), deviceName.getSubSection(), deviceName.getDiscipline(), deviceName.getDeviceType(), deviceName.getInstanceIndex()}) {
+            hasher.putBoolean(value != null).putString(Strings.nullToEmpty(value), Charsets.UTF_8);
+        }
+        return hasher.hash();
+    }
+
+    private static Map<NamePartType, List<NamePartRevision>> byType(Collection<NamePartRevision> revisions, boolean withoutDeleted) {
+        final Map<NamePartType, ImmutableList.Builder<NamePartRevision>> builders = Maps.newEnumMap(NamePartType.class);
+        for (NamePartType type : NamePartType.values()) {
+            builders.put(type, ImmutableList.<NamePartRevision>builder());
+        }
+        for (NamePartRevision revision : withoutDeleted ? withoutDeleted(revisions) : revisions) {
+            builders.get(revision.getNamePart().getNamePartType()).add(revision);
+        }
+        final Map<NamePartType, List<NamePartRevision>> byType = Maps.newEnumMap(NamePartType.class);
+        for (Map.Entry<NamePartType, ImmutableList.Builder<NamePartRevision>> entry : builders.entrySet()) {
+            byType.put(entry.getKey(), entry.getValue().build());
+        }
+        return byType;
+    }
+
+    private static Map<Long, NamePartRevision> byNamePart(Collection<NamePartRevision> revisions) {
+        final Map<Long, NamePartRevision> byNamePart = Maps.newHashMap();
+        for (NamePartRevision revision : revisions) {
+            byNamePart.put(As.notNull(revision.getNamePart().getId()), revision);
+        }
+        return byNamePart;
+    }
+
+    private static Map<UUID, DeviceRevision> byUuid(Collection<DeviceRevision> revisions) {
+        final Map<UUID, DeviceRevision> byUuid = Maps.newHashMap();
+        for (DeviceRevision revision : revisions) {
+            byUuid.put(revision.getDevice().getUuid(), revision);
+        }
+        return byUuid;
+    }
+
+    private static Map<String, DeviceRevision> activeByName(Collection<DeviceRevision> revisions) {
+        final Map<String, DeviceRevision> byName = Maps.newHashMap();
+        for (DeviceRevision revision : revisions) {
+            if (!revision.isDeleted()) {
+                byName.put(revision.getConventionName(), revision);
+            }
+        }
+        return byName;
+    }
+
+    private static Map<String, DeviceNameSnapshot> byName(Collection<DeviceNameSnapshot> deviceNames) {
+        final Map<String, DeviceNameSnapshot> byName = Maps.newHashMap();
+        for (DeviceNameSnapshot deviceName : deviceNames) {
+            byName.put(deviceName.getName(), deviceName);
+        }
+        return byName;
+    }
+
+    /**
+     * @return the smaller of the candidates and the index, null if either is null
+     */
+    private static @Nullable LayeredSortedMap<String, DeviceNameSnapshot> narrower(@Nullable LayeredSortedMap<String, DeviceNameSnapshot> candidates, @Nullable LayeredSortedMap<String, DeviceNameSnapshot> index) {
+        if (candidates == null || index == null) {
+            return null;
+        } else {
+            return index.size() < candidates.size() ? index : candidates;
+        }
+    }
+
+    /**
+     * Groups the device names by the section or discipline mnemonic, leaving out the names without one.
+     */
+    private static Map<String, LayeredSortedMap<String, DeviceNameSnapshot>> byKey(Collection<DeviceNameSnapshot> deviceNames, Function<DeviceNameSnapshot, String> key) {
+        final Map<String, Map<String, DeviceNameSnapshot>> groups = Maps.newHashMap();
+        for (DeviceNameSnapshot deviceName : deviceNames) {
+            final @Nullable String groupKey = key.apply(deviceName);
+            if (groupKey != null) {
+                @Nullable Map<String, DeviceNameSnapshot> group = groups.get(groupKey);
+                if (group == null) {
+                    group = Maps.newHashMap();
+                    groups.put(groupKey, group);
+                }
+                group.put(deviceName.getName(), deviceName);
+            }
+        }
+        final Map<String, LayeredSortedMap<String, DeviceNameSnapshot>> index = Maps.newHashMap();
+        for (Map.Entry<String, Map<String, DeviceNameSnapshot>> group : groups.entrySet()) {
+            index.put(group.getKey(), LayeredSortedMap.of(group.getValue()));
+        }
+        return index;
+    }
+
+    /**
+     * Moves the changed device names to the groups of their new section or discipline mnemonics. Only the groups the
+     * names leave or join are updated.
+     */
+    private LayeredMap<String, LayeredSortedMap<String, DeviceNameSnapshot>> withIndexChanges(LayeredMap<String, LayeredSortedMap<String, DeviceNameSnapshot>> index, Function<DeviceNameSnapshot, String> key, Collection<DeviceNameSnapshot> newDeviceNames) {
+        final Map<String, Map<String, Optional<DeviceNameSnapshot>>> changesByKey = Maps.newHashMap();
+        for (DeviceNameSnapshot newDeviceName : newDeviceNames) {
+            final @Nullable DeviceNameSnapshot oldDeviceName = deviceNameByName.get(newDeviceName.getName());
+            final @Nullable String oldKey = oldDeviceName != null ? key.apply(oldDeviceName) : null;
+            if (oldKey != null) {
+                groupChanges(changesByKey, oldKey).put(newDeviceName.getName(), Optional.<DeviceNameSnapshot>absent());
+            }
+        }
+        for (DeviceNameSnapshot newDeviceName : newDeviceNames) {
+            final @Nullable String newKey = key.apply(newDeviceName);
+            if (newKey != null) {
+                groupChanges(changesByKey, newKey).put(newDeviceName.getName(), Optional.of(newDeviceName));
+            }
+        }
+        final Map<String, Optional<LayeredSortedMap<String, DeviceNameSnapshot>>> indexChanges = Maps.newHashMap();
+        for (Map.Entry<String, Map<String, Optional<DeviceNameSnapshot>>> entry : changesByKey.entrySet()) {
+            final @Nullable LayeredSortedMap<String, DeviceNameSnapshot> group = index.get(entry.getKey());
+            indexChanges.put(entry.getKey(), Optional.of((group != null ? group : LayeredSortedMap.of(ImmutableMap.<String, DeviceNameSnapshot>of())).with(entry.getValue())));
+        }
+        return index.with(indexChanges);
+    }
+
+    private static Map<String, Optional<DeviceNameSnapshot>> groupChanges(Map<String, Map<String, Optional<DeviceNameSnapshot>>> changesByKey, String key) {
+        @Nullable Map<String, Optional<DeviceNameSnapshot>> changes = changesByKey.get(key);
+        if (changes == null) {
+            changes = Maps.newHashMap();
+            changesByKey.put(key, changes);
+        }
+        return changes;
+    }
+
+    /**
+     * @return the latest of the given time, the process times of the approved name part revisions and the request times
+     * of the device revisions, in milliseconds
+     */
+    private static long lastModifiedMillis(long lastModifiedMillis, Collection<NamePartRevision> approvedRevisions, Collection<DeviceRevision> deviceRevisions) {
+        long latestMillis = lastModifiedMillis;
+        for (NamePartRevision revision : approvedRevisions) {
+            if (revision.getProcessDate() != null) {
+                latestMillis = Math.max(latestMillis, revision.getProcessDate().getTime());
+            }
+        }
+        for (DeviceRevision revision : deviceRevisions) {
+            latestMillis = Math.max(latestMillis, revision.getRequestDate().getTime());
+        }
+        return latestMillis;
+    }
+
+    /**
+     * Leaves out the approved revisions of deleted name parts, matching the filter of the revision queries.
+     */
+    private static List<NamePartRevision> withoutDeleted(Collection<NamePartRevision> revisions) {
+        final ImmutableList.Builder<NamePartRevision> builder = ImmutableList.builder();
+        for (NamePartRevision revision : revisions) {
+            if (!(revision.isDeleted() && revision.getStatus() == NamePartRevisionStatus.APPROVED)) {
+                builder.add(revision);
+            }
+        }
+        return builder.build();
+    }
+}
@@ -15,6 +15,7 @@ import javax.faces.model.SelectItem;
 import javax.inject.Inject;
 
 import org.apache.commons.io.FilenameUtils;
+import org.openepics.names.model.Device;
 import org.openepics.names.model.DeviceRevision;
 import org.openepics.names.model.NamePartRevision;
 import org.openepics.names.model.NamePartType;
@@ -32,7 +33,6 @@ import org.primefaces.model.DefaultStreamedContent;
 import org.primefaces.model.StreamedContent;
 import org.primefaces.model.TreeNode;
 
-import com.google.common.base.Function;
 import com.google.common.collect.Lists;
 import com.google.common.io.ByteStreams;
 
@@ -51,7 +51,11 @@ public class DeviceTableController implements Serializable{
 	private List<DeviceRecordView> originalRecords;
 	private List<DeviceRecordView> records;
 	private List<DeviceRecordView> filteredRecords;
+	private static final int HISTORY_PAGE_SIZE = 50;
+
 	private List<DeviceView> historyDeviceNames;
+	private @Nullable Device historyDevice;
+	private boolean hasOlderHistory;
 	private int rowNumber;
 	private DevicesViewFilter[] selectedViewFilter;
 	private TreeNode originalAreaStructure;
@@ -177,11 +181,27 @@ public class DeviceTableController implements Serializable{
 	public boolean canShowHistory() { return getSelectedRecord() != null; }
 	
 	public void loadHistory() {
-		historyDeviceNames = Lists.transform(namePartService.revisions(As.notNull(getSelectedRecord()).getDevice()), new Function<DeviceRevision, DeviceView>() {
-			@Override public DeviceView apply(DeviceRevision f) { return viewFactory.getView(f);}
-		});
+		historyDevice = As.notNull(getSelectedRecord()).getDevice();
+		historyDeviceNames = Lists.newArrayList();
+		loadOlderHistory();
 	}
 
+	/**
+	 * Prepends the page of revisions preceding the oldest one shown to the history.
+	 */
+	public void loadOlderHistory() {
+		final Long oldestId = historyDeviceNames.isEmpty() ? null : historyDeviceNames.get(0).getId();
+		final List<DeviceRevision> page = namePartService.revisions(As.notNull(historyDevice), oldestId, HISTORY_PAGE_SIZE, false);
+		final List<DeviceView> views = Lists.newArrayList();
+		for (DeviceRevision revision : Lists.reverse(page)) {
+			views.add(viewFactory.getView(revision));
+		}
+		historyDeviceNames.addAll(0, views);
+		hasOlderHistory = page.size() == HISTORY_PAGE_SIZE;
+	}
+
+	public boolean isHasOlderHistory() { return hasOlderHistory; }
+
 	public List<DeviceView> getHistoryEvents() { 
 		return historyDeviceNames; 
 	}
@@ -28,6 +28,7 @@ import org.openepics.names.model.NamePartType;
 import org.openepics.names.services.SessionViewService;
 import org.openepics.names.services.restricted.RestrictedNamePartService;
 import org.openepics.names.services.views.DeviceRecordView;
+import org.openepics.names.services.views.DeviceSnapshot;
 import org.openepics.names.services.views.DeviceView;
 import org.openepics.names.services.views.NamePartView;
 import org.openepics.names.ui.common.AlphanumComparator;
@@ -91,7 +92,8 @@ public class DevicesTreeBuilder {
 	}
 	
 	private TreeNode namePartStructure(NamePartType type){
-		final List<NamePartRevision> revisions = namePartService.currentApprovedNamePartRevisions(type,true);
+		final DeviceSnapshot snapshot = namePartService.deviceSnapshot(true);
+		final List<NamePartRevision> revisions = type == NamePartType.SECTION ? snapshot.getSectionRevisions() : snapshot.getDeviceTypeRevisions();
         return namePartTreeBuilder.newNamePartTree(revisions);    
 	}
 	
@@ -117,7 +119,7 @@ public class DevicesTreeBuilder {
         devicesByDeviceType = Maps.newHashMap();
         devicesBySection = Maps.newHashMap();
         boolean includeDeleted=true;
-        for (DeviceRevision device : namePartService.currentDeviceRevisions(true)) {
+        for (DeviceRevision device : namePartService.deviceSnapshot(true).getDeviceRevisions()) {
         	final Set<DeviceRevision> devicesForSection = devicesForSection(device.getSection());
         	devicesForSection.add(device);
         	final Set<DeviceRevision> devicesForDeviceType=devicesForDeviceType(device.getDeviceType());
@@ -143,15 +145,14 @@ public class DevicesTreeBuilder {
      */
 	@Deprecated
 	public TreeNode devicesTree(boolean withDeleted) {
-		final List<NamePartRevision> sectionRevisions = namePartService.currentApprovedNamePartRevisions(NamePartType.SECTION, withDeleted);
-        final TreeNode sectionTree = namePartTreeBuilder.newNamePartTree(sectionRevisions);
+		final DeviceSnapshot snapshot = namePartService.deviceSnapshot(withDeleted);
+        final TreeNode sectionTree = namePartTreeBuilder.newNamePartTree(snapshot.getSectionRevisions());
         
-        final List<NamePartRevision> deviceTypeRevisions = namePartService.currentApprovedNamePartRevisions(NamePartType.DEVICE_TYPE, withDeleted);
-        final TreeNode deviceTypeTree = namePartTreeBuilder.newNamePartTree(deviceTypeRevisions);
+        final TreeNode deviceTypeTree = namePartTreeBuilder.newNamePartTree(snapshot.getDeviceTypeRevisions());
         viewByDeviceType = Maps.newHashMap();
         populateDeviceTypeViews(deviceTypeTree);
         devicesBySection = Maps.newHashMap();
-        for (DeviceRevision device : namePartService.currentDeviceRevisions(withDeleted)) {
+        for (DeviceRevision device : snapshot.getDeviceRevisions()) {
         	final Set<DeviceRevision> devicesForSection = devicesForSection(device.getSection());
         	devicesForSection.add(device);
         }       
@@ -17,7 +17,6 @@
  * Copyright (c) 2014 Cosylab d.d.
 */
 package org.openepics.names.ui.parts;
-import com.google.common.base.Function;
 import com.google.common.collect.Lists;
 
 import org.openepics.names.model.*;
@@ -56,6 +55,7 @@ import java.util.List;
 @ViewScoped
 public class NamePartsController implements Serializable {
 
+	private static final int HISTORY_PAGE_SIZE = 50;
 
 	@Inject private RestrictedNamePartService namePartService;
 	@Inject private ViewFactory viewFactory;
@@ -67,6 +67,8 @@ public class NamePartsController implements Serializable {
 	private NamePartDisplayFilter displayView = NamePartDisplayFilter.APPROVED_AND_PROPOSED;
 
 	private List<NamePartView> historyRevisions;
+	private @Nullable NamePart historyNamePart;
+	private boolean hasOlderHistory;
 
 	private TreeNode rootWithModifications;
 	private TreeNode rootWithoutModifications;
@@ -785,14 +787,27 @@ public class NamePartsController implements Serializable {
 	public void setFormDescription(String formDescription){this.formDescription =!formDescription.isEmpty() ? formDescription : null;}
 
 	public void prepareHistoryPopup() {
-		final NamePart namePart = As.notNull(getSelectedName()).getNamePart();
-		historyRevisions = Lists.newArrayList(Lists.transform(namePartService.revisions(namePart), new Function<NamePartRevision, NamePartView>() {
-			@Override public NamePartView apply(NamePartRevision revision) {
-				return viewFactory.getView(revision);
-			}
-		}));
+		historyNamePart = As.notNull(getSelectedName()).getNamePart();
+		historyRevisions = Lists.newArrayList();
+		loadOlderHistory();
 	}
 
+	/**
+	 * Prepends the page of revisions preceding the oldest one shown to the history.
+	 */
+	public void loadOlderHistory() {
+		final Long oldestId = historyRevisions.isEmpty() ? null : historyRevisions.get(0).getId();
+		final List<NamePartRevision> page = namePartService.revisions(As.notNull(historyNamePart), oldestId, HISTORY_PAGE_SIZE, false);
+		final List<NamePartView> views = Lists.newArrayList();
+		for (NamePartRevision revision : Lists.reverse(page)) {
+			views.add(viewFactory.getView(revision));
+		}
+		historyRevisions.addAll(0, views);
+		hasOlderHistory = page.size() == HISTORY_PAGE_SIZE;
+	}
+
+	public boolean isHasOlderHistory() { return hasOlderHistory; }
+
 	public void prepareDeletePopup() {
 		final List<NamePartView> targets = linearizedTargets(deleteView);
 		final List<Device> affectedDevices = Lists.newArrayList();
@@ -0,0 +1,146 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.webservice;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.annotation.Nullable;
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.openepics.names.jaxb.DeviceNameElement;
+import org.openepics.names.model.DeviceNameSnapshot;
+
+/**
+ * Writes published device names to the response one element at a time, in the same JSON or XML form as a list of
+ * {@link DeviceNameElement}s, so that a response of any size is sent without first being assembled in memory.
+ */
+public class DeviceNameStream implements StreamingOutput {
+
+	private static final JAXBContext JAXB_CONTEXT;
+	static {
+		try {
+			JAXB_CONTEXT = JAXBContext.newInstance(DeviceNameElement.class);
+		} catch (JAXBException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private final Iterable<DeviceNameSnapshot> deviceNames;
+	private final MediaType mediaType;
+
+	/**
+	 * @param deviceNames the published device names to write
+	 * @param mediaType the media type of the response, JSON or XML
+	 */
+	public DeviceNameStream(Iterable<DeviceNameSnapshot> deviceNames, MediaType mediaType) {
+		this.deviceNames = deviceNames;
+		this.mediaType = mediaType;
+	}
+
+	/**
+	 * @param nameSnapshot the published row of a device name
+	 * @return the data transfer object of the device name
+	 */
+	public static DeviceNameElement element(DeviceNameSnapshot nameSnapshot) {
+		final DeviceNameElement deviceData = new DeviceNameElement(nameSnapshot.getUuid(), nameSnapshot.getName(), nameSnapshot.getStatus());
+		deviceData.setSection(nameSnapshot.getSection());
+		deviceData.setSubSection(nameSnapshot.getSubSection());
+		deviceData.setDiscipline(nameSnapshot.getDiscipline());
+		deviceData.setDeviceType(nameSnapshot.getDeviceType());
+		deviceData.setInstanceIndex(nameSnapshot.getInstanceIndex());
+		return deviceData;
+	}
+
+	@Override
+	public void write(OutputStream output) throws IOException {
+		if (MediaType.APPLICATION_JSON_TYPE.isCompatible(mediaType)) {
+			writeJson(output);
+		} else {
+			writeXml(output);
+		}
+	}
+
+	private void writeJson(OutputStream output) {
+		final JsonGenerator generator = Json.createGenerator(output);
+		generator.writeStartArray();
+		generator.flush();
+		for (DeviceNameSnapshot nameSnapshot : deviceNames) {
+			writeJson(generator, element(nameSnapshot));
+		}
+		generator.writeEnd();
+		generator.flush();
+	}
+
+	/**
+	 * Writes a device name as a JSON object with the properties of {@link DeviceNameElement}.
+	 *
+	 * @param generator the generator to write to
+	 * @param element the device name
+	 */
+	static void writeJson(JsonGenerator generator, DeviceNameElement element) {
+		generator.writeStartObject();
+		write(generator, "uuid", element.getUuid().toString());
+		write(generator, "section", element.getSection());
+		write(generator, "subSection", element.getSubSection());
+		write(generator, "discipline", element.getDiscipline());
+		write(generator, "deviceType", element.getDeviceType());
+		write(generator, "instanceIndex", element.getInstanceIndex());
+		write(generator, "name", element.getName());
+		write(generator, "status", element.getStatus());
+		generator.writeEnd();
+	}
+
+	static void write(JsonGenerator generator, String name, @Nullable String value) {
+		if (value != null) {
+			generator.write(name, value);
+		} else {
+			generator.writeNull(name);
+		}
+	}
+
+	private void writeXml(OutputStream output) {
+		try {
+			final XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(output, "UTF-8");
+			final Marshaller marshaller = JAXB_CONTEXT.createMarshaller();
+			marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeStartElement("collection");
+			writer.flush();
+			for (DeviceNameSnapshot nameSnapshot : deviceNames) {
+				marshaller.marshal(element(nameSnapshot), writer);
+			}
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.flush();
+		} catch (XMLStreamException | JAXBException e) {
+			throw new WebApplicationException(e);
+		}
+	}
+}
@@ -23,17 +23,27 @@ import java.util.UUID;
 import javax.annotation.Nullable;
 import javax.ejb.Stateless;
 import javax.inject.Inject;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Link;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.core.Variant;
 
+import org.openepics.names.jaxb.DeviceNameChangesElement;
 import org.openepics.names.jaxb.DeviceNameElement;
 import org.openepics.names.jaxb.SpecificDeviceNameResource;
 import org.openepics.names.jaxb.DeviceNamesResource;
+import org.openepics.names.model.DeviceNameSnapshot;
 import org.openepics.names.model.DeviceRevision;
-import org.openepics.names.model.NamePartRevision;
-import org.openepics.names.model.NamePartType;
 import org.openepics.names.services.NamePartService;
-import org.openepics.names.services.views.BatchViewProvider;
-import org.openepics.names.services.views.DeviceView;
-import org.openepics.names.util.As;
+import org.openepics.names.services.NamingSnapshotService;
+import org.openepics.names.services.views.DeviceNameQuery;
+import org.openepics.names.services.views.NamingSnapshot;
 
 import com.google.common.collect.Lists;
 
@@ -44,44 +54,53 @@ import com.google.common.collect.Lists;
  */
 @Stateless
 public class DeviceNamesResourceImpl implements DeviceNamesResource {
+	private static final List<Variant> VARIANTS = Variant.mediaTypes(MediaType.APPLICATION_XML_TYPE, MediaType.APPLICATION_JSON_TYPE).build();
+
+	@Inject private NamingSnapshotService namingSnapshotService;
 	@Inject private NamePartService namePartService;
 	@Inject private SpecificDeviceNameResource deviceNameResource;
 
 	@Override
-	public List<DeviceNameElement> getAllDeviceNames() {
-		final List<NamePartRevision> sectionRevisions = namePartService.currentApprovedNamePartRevisions(NamePartType.SECTION, false);
-		final List<NamePartRevision> deviceTypeRevisions = namePartService.currentApprovedNamePartRevisions(NamePartType.DEVICE_TYPE, false);
-		final List<DeviceRevision> deviceRevisions = namePartService.currentDeviceRevisions(false);
-		final BatchViewProvider viewProvider = new BatchViewProvider(sectionRevisions, deviceTypeRevisions, deviceRevisions);
-
-		final List<DeviceNameElement> deviceNames = Lists.newArrayList();
-
-		for (DeviceRevision deviceRevision : deviceRevisions) {
-				final DeviceNameElement deviceData = new DeviceNameElement();
-				deviceData.setStatus("ACTIVE");
-				deviceData.setUuid(deviceRevision.getDevice().getUuid());
-				deviceData.setSection(As.notNull(viewProvider.view(deviceRevision.getSection()).getParent()).getMnemonic());
-				deviceData.setSubSection(viewProvider.view(deviceRevision.getSection()).getMnemonic());
-				deviceData.setDiscipline(As.notNull(As.notNull(viewProvider.view(deviceRevision.getDeviceType()).getParent()).getParent()).getMnemonic());
-				deviceData.setDeviceType(viewProvider.view(deviceRevision.getDeviceType()).getMnemonic());
-				deviceData.setInstanceIndex(viewProvider.view(deviceRevision).getInstanceIndex());
-				deviceData.setName(viewProvider.view(deviceRevision).getConventionName());
-				deviceNames.add(deviceData);
+	public Response getAllDeviceNames(@Nullable String section, @Nullable String subSection, @Nullable String discipline, @Nullable String deviceType, @Nullable String status, @Nullable String name, @Nullable String after, @Nullable Integer limit, UriInfo uriInfo, Request request) {
+		if (limit != null && limit < 1) {
+			throw new WebApplicationException(Response.Status.BAD_REQUEST);
+		}
+		final NamingSnapshot snapshot = namingSnapshotService.current();
+		final EntityTag tag = new EntityTag(Long.toString(snapshot.getChangeId()), true);
+		final @Nullable ResponseBuilder notModified = request.evaluatePreconditions(snapshot.getLastModified(), tag);
+		if (notModified != null) {
+			return notModified.tag(tag).lastModified(snapshot.getLastModified()).header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
+		}
+		final @Nullable Variant variant = request.selectVariant(VARIANTS);
+		final MediaType mediaType = variant != null ? variant.getMediaType() : MediaType.APPLICATION_XML_TYPE;
+		if (section == null && subSection == null && discipline == null && deviceType == null && status == null && name == null && after == null && limit == null) {
+			return Response.ok(new DeviceNameStream(snapshot.getDeviceNames(), mediaType), mediaType).tag(tag).lastModified(snapshot.getLastModified()).header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
 		}
 
-		for(DeviceRevision deviceRevision : namePartService.latestObsoleteDeviceRevisionsGroupedByName()) {
-			final DeviceNameElement deviceData = new DeviceNameElement();
-			if(deviceRevision.isDeleted()){
-				deviceData.setStatus("DELETED");
-			} else{
-			deviceData.setStatus("OBSOLETE");
-			}
-			deviceData.setName(deviceRevision.getConventionName());
-			deviceData.setUuid(deviceRevision.getDevice().getUuid());
-			deviceNames.add(deviceData);
+		final List<DeviceNameSnapshot> deviceNames = snapshot.deviceNames(new DeviceNameQuery(section, subSection, discipline, deviceType, status, name), after, limit != null ? limit : Integer.MAX_VALUE);
+		final ResponseBuilder response = Response.ok(new DeviceNameStream(deviceNames, mediaType), mediaType).tag(tag).lastModified(snapshot.getLastModified()).header(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+		if (limit != null && deviceNames.size() == limit) {
+			final String lastName = deviceNames.get(deviceNames.size() - 1).getName();
+			response.links(Link.fromUriBuilder(uriInfo.getRequestUriBuilder().replaceQueryParam("after", lastName)).rel("next").build());
 		}
+		return response.build();
+	}
 
-		return deviceNames;
+	@Override
+	public DeviceNameChangesElement getDeviceNameChanges(@Nullable Long since) {
+		if (since != null && since < 0) {
+			throw new WebApplicationException(Response.Status.BAD_REQUEST);
+		}
+		final long next = namingSnapshotService.lastChangeId();
+		List<DeviceNameSnapshot> nameSnapshots = namePartService.deviceNameSnapshotsChanged(since, next);
+		if (since != null && since < namingSnapshotService.changeLogPrunedThrough()) {
+			nameSnapshots = namePartService.deviceNameSnapshotsChanged(null, next);
+		}
+		final List<DeviceNameElement> deviceNames = Lists.newArrayList();
+		for (DeviceNameSnapshot nameSnapshot : nameSnapshots) {
+			deviceNames.add(DeviceNameStream.element(nameSnapshot));
+		}
+		return new DeviceNameChangesElement(deviceNames, next);
 	}
 
 	private @Nullable DeviceRevision getDeviceRevsion(String string) {
@@ -93,9 +112,9 @@ public class DeviceNamesResourceImpl implements DeviceNamesResource {
 		}
 
 		if (uuid!=null){
-			return namePartService.currentDeviceRevision(uuid);			
+			return namingSnapshotService.current().deviceRevision(uuid);			
 		} else {
-			DeviceRevision deviceRevision=namePartService.currentDeviceRevision(string);
+			DeviceRevision deviceRevision=namingSnapshotService.current().deviceRevision(string);
 			return deviceRevision;
 		}
 	}
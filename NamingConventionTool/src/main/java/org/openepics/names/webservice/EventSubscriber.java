@@ -0,0 +1,153 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.webservice;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nullable;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+
+/**
+ * A client connected to the naming event stream. Events are queued in a bounded buffer and written to the client by a
+ * task of the executor, so that a slow client never holds up the others. A client whose buffer overflows is
+ * disconnected; it can reconnect and resume from the last event it received.
+ */
+class EventSubscriber {
+
+	private final AsyncContext context;
+	private final @Nullable String section;
+	private final @Nullable String discipline;
+	private final BlockingQueue<String> buffer;
+	private final Executor executor;
+	private final AtomicBoolean writing = new AtomicBoolean();
+	private final AtomicReference<Runnable> writtenTask = new AtomicReference<>();
+	private volatile boolean closed;
+
+	private final Runnable writer = new Runnable() {
+		@Override public void run() {
+			try {
+				final ServletOutputStream output = context.getResponse().getOutputStream();
+				for (@Nullable String message = buffer.poll(); message != null && !closed; message = buffer.poll()) {
+					output.write(message.getBytes(StandardCharsets.UTF_8));
+				}
+				output.flush();
+			} catch (IOException | IllegalStateException e) {
+				close();
+			} finally {
+				writing.set(false);
+			}
+			if (!buffer.isEmpty() && !closed) {
+				scheduleWrite();
+			} else if (!closed) {
+				final @Nullable Runnable task = writtenTask.getAndSet(null);
+				if (task != null) {
+					executor.execute(task);
+				}
+			}
+		}
+	};
+
+	/**
+	 * @param context the asynchronous context of the client's request
+	 * @param section the section mnemonic the client is interested in, null for all
+	 * @param discipline the discipline mnemonic the client is interested in, null for all
+	 * @param bufferSize the number of messages that can wait to be written to the client
+	 * @param executor the executor writing to the client
+	 */
+	EventSubscriber(AsyncContext context, @Nullable String section, @Nullable String discipline, int bufferSize, Executor executor) {
+		this.context = context;
+		this.section = section;
+		this.discipline = discipline;
+		this.buffer = new ArrayBlockingQueue<>(bufferSize);
+		this.executor = executor;
+	}
+
+	/**
+	 * Queues the event to be written to the client, if it is of interest to the client.
+	 *
+	 * @param event the event
+	 * @return false if the client has been disconnected
+	 */
+	boolean send(NamingEvent event) {
+		return !event.matches(section, discipline) || send(event.format());
+	}
+
+	/**
+	 * Queues a message to be written to the client, disconnecting it if its buffer is full.
+	 *
+	 * @param message the message in Server-Sent Events format
+	 * @return false if the client has been disconnected
+	 */
+	boolean send(String message) {
+		if (closed) {
+			return false;
+		} else if (!buffer.offer(message)) {
+			close();
+			return false;
+		} else {
+			scheduleWrite();
+			return true;
+		}
+	}
+
+	/**
+	 * @return the number of messages that can still be queued
+	 */
+	int remainingCapacity() {
+		return buffer.remainingCapacity();
+	}
+
+	/**
+	 * Runs a task on the executor once all messages queued so far have been written to the client. The task is
+	 * dropped if the client is disconnected first.
+	 *
+	 * @param task the task
+	 */
+	void whenWritten(Runnable task) {
+		writtenTask.set(task);
+		scheduleWrite();
+	}
+
+	/**
+	 * Disconnects the client.
+	 */
+	void close() {
+		if (!closed) {
+			closed = true;
+			try {
+				context.complete();
+			} catch (IllegalStateException e) {
+				// Already completed by the container
+			}
+		}
+	}
+
+	private void scheduleWrite() {
+		if (writing.compareAndSet(false, true)) {
+			executor.execute(writer);
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.webservice;
+
+import java.io.StringWriter;
+
+import javax.annotation.Nullable;
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+
+import org.openepics.names.model.DeviceNameSnapshot;
+import org.openepics.names.model.NamePartRevision;
+
+/**
+ * A naming change pushed to the subscribers of the naming event stream, in Server-Sent Events format. The event ID is
+ * the naming change log position from which a reconnecting subscriber resumes.
+ */
+class NamingEvent {
+
+	private final String type;
+	private final long id;
+	private final String data;
+	private final @Nullable String section;
+	private final @Nullable String discipline;
+
+	private NamingEvent(String type, long id, String data, @Nullable String section, @Nullable String discipline) {
+		this.type = type;
+		this.id = id;
+		this.data = data;
+		this.section = section;
+		this.discipline = discipline;
+	}
+
+	/**
+	 * @param id the event ID
+	 * @param nameSnapshot the changed device name
+	 * @return the event carrying the current data of the device name
+	 */
+	static NamingEvent deviceName(long id, DeviceNameSnapshot nameSnapshot) {
+		final StringWriter data = new StringWriter();
+		final JsonGenerator generator = Json.createGenerator(data);
+		DeviceNameStream.writeJson(generator, DeviceNameStream.element(nameSnapshot));
+		generator.close();
+		return new NamingEvent("deviceName", id, data.toString(), nameSnapshot.getSection(), nameSnapshot.getDiscipline());
+	}
+
+	/**
+	 * @param id the event ID
+	 * @param revision the revision that changed the name part, proposed or processed
+	 * @return the event carrying the data of the revision
+	 */
+	static NamingEvent namePart(long id, NamePartRevision revision) {
+		final StringWriter data = new StringWriter();
+		final JsonGenerator generator = Json.createGenerator(data);
+		generator.writeStartObject();
+		generator.write("uuid", revision.getNamePart().getUuid().toString());
+		generator.write("type", revision.getNamePart().getNamePartType().name());
+		generator.write("revisionId", revision.getId());
+		generator.write("status", revision.getStatus().name());
+		generator.write("deleted", revision.isDeleted());
+		generator.write("name", revision.getName());
+		DeviceNameStream.write(generator, "mnemonic", revision.getMnemonic());
+		generator.writeEnd();
+		generator.close();
+		return new NamingEvent("namePart", id, data.toString(), null, null);
+	}
+
+	/**
+	 * @return the event ID
+	 */
+	long getId() {
+		return id;
+	}
+
+	/**
+	 * @param section the section mnemonic a subscriber is interested in, null for all
+	 * @param discipline the discipline mnemonic a subscriber is interested in, null for all
+	 * @return true if the event is of interest. Events of name parts and of device names no longer in use have no
+	 * section or discipline and are of interest to all subscribers.
+	 */
+	boolean matches(@Nullable String section, @Nullable String discipline) {
+		return (section == null || this.section == null || section.equals(this.section)) && (discipline == null || this.discipline == null || discipline.equals(this.discipline));
+	}
+
+	/**
+	 * @return the event in Server-Sent Events format
+	 */
+	String format() {
+		return "event: " + type + "\nid: " + id + "\ndata: " + data + "\n\n";
+	}
+}
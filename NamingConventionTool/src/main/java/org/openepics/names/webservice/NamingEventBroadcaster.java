@@ -0,0 +1,293 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.webservice;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.event.Observes;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+
+import org.openepics.names.model.DeviceNameSnapshot;
+import org.openepics.names.model.NamePartRevision;
+import org.openepics.names.model.NamingChange;
+import org.openepics.names.model.NamingChangeKind;
+import org.openepics.names.services.NamingSnapshotService;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Pushes the committed naming changes, of this server and of the others sharing the database, to the clients
+ * subscribed to the naming event stream. Each event carries the current data of a changed device name or the changing
+ * revision of a name part.
+ *
+ * The event ID is the ID of the last naming change log entry of the changed device name or name part. Since the log
+ * IDs follow the commit order, a reconnecting client resumes by reading the log entries after its last event ID, and no
+ * change is lost. The events are sent in the order of their IDs; an entity changed again after the client's last event
+ * is sent again with its current data. The missed changes are sent a page at a time, each page once the client has
+ * received the previous one, and the client joins the live events once it has caught up. A client whose last event
+ * has been pruned from the log is sent a resync event and disconnected; it should reload the device names and
+ * subscribe anew. The system property names.events.bufferSize sets the number of events that can wait to be written
+ * to a client before it is disconnected, 1000 by default.
+ *
+ * The change log is read on the threads of the executor, with entity managers of their own.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class NamingEventBroadcaster {
+
+	private static final Logger LOGGER = Logger.getLogger(NamingEventBroadcaster.class.getName());
+	private static final String HEARTBEAT = ":\n\n";
+	private static final String RESYNC = "event: resync\ndata: {}\n\n";
+	private static final int MAX_IDS_PER_QUERY = 500;
+
+	/**
+	 * The maximum number of missed changes sent to a reconnecting client at a time.
+	 */
+	private static final int REPLAY_PAGE_SIZE = 500;
+
+	@PersistenceUnit(unitName = "org.openepics.names.punit") private EntityManagerFactory emf;
+	@Resource private ManagedExecutorService executor;
+	@Inject private NamingSnapshotService namingSnapshotService;
+
+	private final Set<EventSubscriber> subscribers = new CopyOnWriteArraySet<>();
+	private final AtomicBoolean dispatching = new AtomicBoolean();
+	private final AtomicBoolean dispatchPending = new AtomicBoolean();
+	private final Object dispatchLock = new Object();
+	private long lastDispatchedChangeId;
+	private int bufferSize;
+
+	private final Runnable dispatcher = new Runnable() {
+		@Override public void run() {
+			try {
+				dispatch();
+			} catch (RuntimeException e) {
+				LOGGER.log(Level.WARNING, "Naming events could not be dispatched", e);
+			} finally {
+				dispatching.set(false);
+			}
+			if (dispatchPending.get()) {
+				scheduleDispatch();
+			}
+		}
+	};
+
+	@PostConstruct
+	private void init() {
+		bufferSize = Integer.parseInt(System.getProperty("names.events.bufferSize", "1000"));
+		lastDispatchedChangeId = namingSnapshotService.lastChangeId();
+	}
+
+	/**
+	 * Subscribes a client to the naming event stream. A client resuming from an earlier event is first sent the events
+	 * it missed, by a task of the executor.
+	 *
+	 * @param context the asynchronous context of the client's request
+	 * @param section the section mnemonic the client is interested in, null for all
+	 * @param discipline the discipline mnemonic the client is interested in, null for all
+	 * @param lastEventId the ID of the last event the client received, null for a new client
+	 */
+	@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+	public void subscribe(AsyncContext context, @Nullable String section, @Nullable String discipline, @Nullable Long lastEventId) {
+		final EventSubscriber subscriber = new EventSubscriber(context, section, discipline, bufferSize, executor);
+		context.addListener(new AsyncListener() {
+			@Override public void onComplete(AsyncEvent event) { subscribers.remove(subscriber); }
+			@Override public void onTimeout(AsyncEvent event) { subscriber.close(); }
+			@Override public void onError(AsyncEvent event) { subscriber.close(); }
+			@Override public void onStartAsync(AsyncEvent event) {}
+		});
+		if (lastEventId != null) {
+			executor.execute(new Replay(subscriber, lastEventId));
+		} else {
+			synchronized (dispatchLock) {
+				subscriber.send(HEARTBEAT);
+				subscribers.add(subscriber);
+			}
+		}
+	}
+
+	/**
+	 * Schedules the naming change log entries committed since the last dispatch to be pushed to the subscribers.
+	 *
+	 * @param change the committed change
+	 */
+	@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+	public void changeCommitted(@Observes NamingChange change) {
+		dispatchPending.set(true);
+		scheduleDispatch();
+	}
+
+	/**
+	 * Keeps the idle connections open through proxies that close them after a period of silence.
+	 */
+	@Schedule(hour = "*", minute = "*", second = "*/30", persistent = false)
+	@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+	public void heartbeat() {
+		for (EventSubscriber subscriber : subscribers) {
+			if (!subscriber.send(HEARTBEAT)) {
+				subscribers.remove(subscriber);
+			}
+		}
+	}
+
+	private void scheduleDispatch() {
+		if (dispatching.compareAndSet(false, true)) {
+			executor.execute(dispatcher);
+		}
+	}
+
+	private void dispatch() {
+		final EntityManager em = emf.createEntityManager();
+		try {
+			synchronized (dispatchLock) {
+				dispatchPending.set(false);
+				final List<NamingChange> changes = em.createQuery("SELECT c FROM NamingChange c WHERE c.id > :lastDispatchedChangeId ORDER BY c.id", NamingChange.class).setParameter("lastDispatchedChangeId", lastDispatchedChangeId).getResultList();
+				if (changes.isEmpty()) return;
+				lastDispatchedChangeId = Iterables.getLast(changes).getId();
+				if (subscribers.isEmpty()) return;
+
+				for (NamingEvent event : events(em, changes)) {
+					for (EventSubscriber subscriber : subscribers) {
+						if (!subscriber.send(event)) {
+							subscribers.remove(subscriber);
+						}
+					}
+				}
+			}
+		} finally {
+			em.close();
+		}
+	}
+
+	/**
+	 * Reads the current data of the changed device names and the changing name part revisions. Device changes have no
+	 * events of their own, since every change of a device that clients can see changes its device name. Each event
+	 * carries the ID of the last of the given changes of its entity, and the events are ordered by it.
+	 */
+	private static List<NamingEvent> events(EntityManager em, List<NamingChange> changes) {
+		final Map<Long, Long> deviceNameChangeIds = Maps.newHashMap();
+		final Map<Long, Long> namePartRevisionChangeIds = Maps.newHashMap();
+		for (NamingChange change : changes) {
+			if (change.getKind() == NamingChangeKind.DEVICE_NAME) {
+				deviceNameChangeIds.put(change.getEntityId(), change.getId());
+			} else if (change.getKind() == NamingChangeKind.NAME_PART) {
+				namePartRevisionChangeIds.put(change.getRevisionId(), change.getId());
+			}
+		}
+
+		final List<NamingEvent> events = Lists.newArrayList();
+		for (List<Long> ids : Iterables.partition(namePartRevisionChangeIds.keySet(), MAX_IDS_PER_QUERY)) {
+			for (NamePartRevision revision : em.createQuery("SELECT r FROM NamePartRevision r JOIN FETCH r.namePart WHERE r.id IN :ids", NamePartRevision.class).setParameter("ids", ids).getResultList()) {
+				events.add(NamingEvent.namePart(namePartRevisionChangeIds.get(revision.getId()), revision));
+			}
+		}
+		for (List<Long> ids : Iterables.partition(deviceNameChangeIds.keySet(), MAX_IDS_PER_QUERY)) {
+			for (DeviceNameSnapshot nameSnapshot : em.createQuery("SELECT s FROM DeviceNameSnapshot s WHERE s.id IN :ids", DeviceNameSnapshot.class).setParameter("ids", ids).getResultList()) {
+				events.add(NamingEvent.deviceName(deviceNameChangeIds.get(nameSnapshot.getId()), nameSnapshot));
+			}
+		}
+		Collections.sort(events, new Comparator<NamingEvent>() {
+			@Override public int compare(NamingEvent left, NamingEvent right) {
+				return Long.compare(left.getId(), right.getId());
+			}
+		});
+		return events;
+	}
+
+	/**
+	 * Sends a reconnecting client the events it missed, a page of changes at a time, and adds it to the subscribers
+	 * once it has caught up with the dispatched changes. The next page is read once the client's buffer has been
+	 * written, so a client far behind is never disconnected for it, and no thread waits for a slow client.
+	 */
+	private class Replay implements Runnable {
+
+		private final EventSubscriber subscriber;
+		private final int pageSize = Math.max(1, Math.min(REPLAY_PAGE_SIZE, bufferSize - 1));
+		private long lastEventId;
+
+		Replay(EventSubscriber subscriber, long lastEventId) {
+			this.subscriber = subscriber;
+			this.lastEventId = lastEventId;
+		}
+
+		@Override public void run() {
+			try {
+				sendPage();
+			} catch (RuntimeException e) {
+				LOGGER.log(Level.WARNING, "Missed naming events could not be sent", e);
+				subscriber.close();
+			}
+		}
+
+		private void sendPage() {
+			final long untilChangeId;
+			synchronized (dispatchLock) {
+				untilChangeId = lastDispatchedChangeId;
+				if (lastEventId >= untilChangeId) {
+					if (subscriber.send(HEARTBEAT)) {
+						subscribers.add(subscriber);
+					}
+					return;
+				}
+			}
+
+			final EntityManager em = emf.createEntityManager();
+			try {
+				final List<NamingChange> changes = em.createQuery("SELECT c FROM NamingChange c WHERE c.id > :lastEventId AND c.id <= :untilChangeId ORDER BY c.id", NamingChange.class).setParameter("lastEventId", lastEventId).setParameter("untilChangeId", untilChangeId).setMaxResults(pageSize).getResultList();
+				if (lastEventId < namingSnapshotService.changeLogPrunedThrough()) {
+					subscriber.send(RESYNC);
+					subscriber.close();
+					return;
+				}
+				for (NamingEvent event : events(em, changes)) {
+					if (!subscriber.send(event)) return;
+				}
+				lastEventId = changes.isEmpty() ? untilChangeId : Iterables.getLast(changes).getId();
+			} finally {
+				em.close();
+			}
+			subscriber.whenWritten(this);
+		}
+	}
+}
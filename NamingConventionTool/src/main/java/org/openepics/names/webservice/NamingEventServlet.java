@@ -0,0 +1,67 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.webservice;
+
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.servlet.AsyncContext;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.base.Strings;
+
+/**
+ * The naming event stream of the REST application, in Server-Sent Events format. JAX-RS 2.0 has no support for
+ * Server-Sent Events, so the stream is served by an asynchronous servlet holding no request thread while waiting for
+ * events. The optional query parameters section and discipline restrict the device name events to the given section
+ * or discipline mnemonic. A client resumes from the event ID in the Last-Event-ID header, or in the lastEventId query
+ * parameter for clients that cannot set headers.
+ */
+@WebServlet(urlPatterns = "/rest/events", asyncSupported = true)
+public class NamingEventServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 4725130968145502187L;
+
+	@Inject private NamingEventBroadcaster eventBroadcaster;
+
+	@Override protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		final @Nullable String lastEventIdHeader = request.getHeader("Last-Event-ID");
+		final @Nullable String lastEventIdValue = lastEventIdHeader != null ? lastEventIdHeader : request.getParameter("lastEventId");
+		final @Nullable Long lastEventId;
+		try {
+			lastEventId = Strings.isNullOrEmpty(lastEventIdValue) ? null : Long.valueOf(lastEventIdValue.trim());
+		} catch (NumberFormatException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid event ID: " + lastEventIdValue);
+			return;
+		}
+
+		response.setContentType("text/event-stream");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		response.flushBuffer();
+
+		final AsyncContext context = request.startAsync();
+		context.setTimeout(0);
+		eventBroadcaster.subscribe(context, Strings.emptyToNull(request.getParameter("section")), Strings.emptyToNull(request.getParameter("discipline")), lastEventId);
+	}
+}
@@ -0,0 +1,52 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.webservice;
+
+import javax.annotation.Nullable;
+import javax.ejb.Stateless;
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.openepics.names.services.NamingWarmUpService;
+
+/**
+ * Reports whether the server is ready to serve requests, for load balancers to route traffic to it only once the
+ * naming snapshot has been warmed up. A ready server answers with status 200 and the warm-up duration in
+ * milliseconds, a server still warming up with status 503.
+ */
+@Stateless
+@Path("ready")
+public class ReadinessResource {
+	@Inject private NamingWarmUpService warmUpService;
+
+	@GET
+	@Produces(MediaType.TEXT_PLAIN)
+	public Response getReadiness() {
+		final @Nullable Long warmUpMillis = warmUpService.getWarmUpMillis();
+		if (warmUpMillis != null) {
+			return Response.ok("warmUpMillis=" + warmUpMillis).build();
+		} else {
+			return Response.status(Response.Status.SERVICE_UNAVAILABLE).entity("warming up").build();
+		}
+	}
+}
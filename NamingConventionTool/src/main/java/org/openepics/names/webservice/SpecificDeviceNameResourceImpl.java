@@ -17,18 +17,28 @@
  */
 package org.openepics.names.webservice;
 
+import java.util.List;
 import java.util.UUID;
 
 import javax.annotation.Nullable;
 import javax.ejb.Stateless;
 import javax.inject.Inject;
-import org.openepics.names.jaxb.DeviceNameElement;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+
+import org.openepics.names.jaxb.DeviceRevisionElement;
 import org.openepics.names.jaxb.SpecificDeviceNameResource;
+import org.openepics.names.model.DeviceNameSnapshot;
 import org.openepics.names.model.DeviceRevision;
 import org.openepics.names.services.NamePartService;
-import org.openepics.names.services.views.DeviceView;
-import org.openepics.names.ui.common.ViewFactory;
-import org.openepics.names.util.As;
+import org.openepics.names.services.NamingSnapshotService;
+import org.openepics.names.services.views.NamingSnapshot;
+
+import com.google.common.collect.Lists;
 
 /**
  * This is implementation of {@link SpecificDeviceNameResource} interface.
@@ -37,34 +47,75 @@ import org.openepics.names.util.As;
  */
 @Stateless
 public class SpecificDeviceNameResourceImpl implements SpecificDeviceNameResource {
+	private static final int MAX_HISTORY_PAGE_SIZE = 500;
+
 	@Inject private NamePartService namePartService;
-	@Inject private ViewFactory viewFactory;
+	@Inject private NamingSnapshotService namingSnapshotService;
 	@Override
-	public DeviceNameElement getDeviceName(String reqUuid) {
-		final @Nullable DeviceRevision deviceRevision=getDeviceRevsion(reqUuid);
-		if (deviceRevision != null) {			
-			if(!deviceRevision.isDeleted()){
-				final DeviceNameElement deviceData = new DeviceNameElement(deviceRevision.getDevice().getUuid(),deviceRevision.getConventionName(),"ACTIVE");
-				final @Nullable DeviceView deviceView = deviceRevision !=null? viewFactory.getView(deviceRevision):null;
-				deviceData.setSection(As.notNull(deviceView.getSection().getParent()).getMnemonic());
-				deviceData.setSubSection(deviceView.getSection().getMnemonic());
-				deviceData.setDiscipline(As.notNull(As.notNull(deviceView.getDeviceType().getParent()).getParent()).getMnemonic());
-				deviceData.setDeviceType(deviceView.getDeviceType().getMnemonic());
-				deviceData.setInstanceIndex(deviceView.getInstanceIndex());
-				deviceData.setName(deviceView.getConventionName());
-				return deviceData;
-			} else {
-				return new DeviceNameElement(deviceRevision.getDevice().getUuid(),deviceRevision.getConventionName(),"DELETED");
-			}
-		} else {		
-			final @Nullable DeviceRevision obsoleteRevision=namePartService.latestObsoleteDeviceRevisionNamed(reqUuid);
-			if(obsoleteRevision==null){
-				return null;
-			}else if(obsoleteRevision.isDeleted()){
-				return new DeviceNameElement(obsoleteRevision.getDevice().getUuid(),obsoleteRevision.getConventionName(),"DELETED");
-			} else {
-				return new DeviceNameElement(obsoleteRevision.getDevice().getUuid(),obsoleteRevision.getConventionName(),"OBSOLETE");
-			}
+	public Response getDeviceName(String reqUuid, Request request) {
+		final NamingSnapshot snapshot = namingSnapshotService.current();
+		final @Nullable DeviceNameSnapshot nameSnapshot = getDeviceName(snapshot, reqUuid);
+		if (nameSnapshot == null) {
+			return Response.noContent().build();
+		}
+		final EntityTag tag = new EntityTag(NamingSnapshot.tag(nameSnapshot), true);
+		final @Nullable ResponseBuilder notModified = request.evaluatePreconditions(snapshot.getLastModified(), tag);
+		final ResponseBuilder response = notModified != null ? notModified : Response.ok(DeviceNameStream.element(nameSnapshot));
+		return response.tag(tag).lastModified(snapshot.getLastModified()).header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
+	}
+
+	@Override
+	public List<DeviceRevisionElement> getDeviceNameHistory(String reqUuid, @Nullable Long before, @Nullable Long after, int limit) {
+		if ((before != null && after != null) || limit <= 0 || limit > MAX_HISTORY_PAGE_SIZE) {
+			throw new WebApplicationException(Response.Status.BAD_REQUEST);
+		}
+		@Nullable DeviceRevision deviceRevision = getDeviceRevsion(reqUuid);
+		if (deviceRevision == null) {
+			deviceRevision = namePartService.latestObsoleteDeviceRevisionNamed(reqUuid);
+		}
+		if (deviceRevision == null) {
+			return null;
+		}
+
+		final List<DeviceRevisionElement> history = Lists.newArrayList();
+		for (DeviceRevision revision : namePartService.revisions(deviceRevision.getDevice(), after != null ? after : before, limit, after != null)) {
+			final DeviceRevisionElement revisionData = new DeviceRevisionElement(revision.getId(), revision.getDevice().getUuid(), revision.getConventionName(), revision.isDeleted() ? "DELETED" : "ACTIVE");
+			revisionData.setRequestDate(revision.getRequestDate());
+			revisionData.setRequestedBy(revision.getRequestedBy() != null ? revision.getRequestedBy().getUsername() : null);
+			revisionData.setAdditionalInfo(revision.getAdditionalInfo());
+			history.add(revisionData);
+		}
+		return history;
+	}
+
+	/**
+	 * Finds the published row of the device name requested by device UUID or by name.
+	 */
+	private static @Nullable DeviceNameSnapshot getDeviceName(NamingSnapshot snapshot, String reqUuid) {
+		final @Nullable UUID uuid = parseUuid(reqUuid);
+		if (uuid == null) {
+			return snapshot.deviceName(reqUuid);
+		}
+		final @Nullable DeviceRevision deviceRevision = snapshot.deviceRevision(uuid);
+		if (deviceRevision == null) {
+			return null;
+		}
+		final @Nullable DeviceNameSnapshot nameSnapshot = snapshot.deviceName(deviceRevision.getConventionName());
+		if (nameSnapshot != null && nameSnapshot.getUuid().equals(uuid)) {
+			return nameSnapshot;
+		} else {
+			// The device was deleted and another device has taken over its name since
+			final DeviceNameSnapshot deletedName = new DeviceNameSnapshot(deviceRevision.getConventionName());
+			deletedName.updateRetired(uuid, true);
+			return deletedName;
+		}
+	}
+
+	private static @Nullable UUID parseUuid(String string) {
+		try {
+			return UUID.fromString(string);
+		} catch (IllegalArgumentException e) {
+			return null;
 		}
 	}
 
@@ -77,9 +128,9 @@ public class SpecificDeviceNameResourceImpl implements SpecificDeviceNameResourc
 		}
 
 		if (uuid!=null){
-			return namePartService.currentDeviceRevision(uuid);			
+			return namingSnapshotService.current().deviceRevision(uuid);			
 		} else {
-			DeviceRevision deviceRevision=  namePartService.currentDeviceRevision(string);
+			DeviceRevision deviceRevision=  namingSnapshotService.current().deviceRevision(string);
 			return deviceRevision;
 		}
 
@@ -0,0 +1,143 @@
+/*
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.services;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+import org.openepics.names.model.Device;
+import org.openepics.names.model.DeviceRevision;
+import org.openepics.names.model.NamePart;
+import org.openepics.names.model.NamePartRevision;
+import org.openepics.names.model.NamePartType;
+import org.openepics.names.services.views.DeviceSnapshot;
+import org.openepics.names.services.views.NamePartView;
+
+import javax.annotation.Nullable;
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class DeviceSnapshotLoaderTest {
+
+    /**
+     * An entity manager answering the snapshot queries from fixed lists and recording the queries created through it.
+     * Loading done by the persistence provider behind the queries, such as lazy associations, is not visible to it.
+     */
+    private static class RecordingEntityManager implements InvocationHandler {
+        private final List<NamePartRevision> sectionRevisions;
+        private final List<NamePartRevision> deviceTypeRevisions;
+        private final List<DeviceRevision> deviceRevisions;
+        private final List<String> queries = Lists.newArrayList();
+
+        RecordingEntityManager(List<NamePartRevision> sectionRevisions, List<NamePartRevision> deviceTypeRevisions, List<DeviceRevision> deviceRevisions) {
+            this.sectionRevisions = sectionRevisions;
+            this.deviceTypeRevisions = deviceTypeRevisions;
+            this.deviceRevisions = deviceRevisions;
+        }
+
+        EntityManager entityManager() {
+            return (EntityManager) Proxy.newProxyInstance(EntityManager.class.getClassLoader(), new Class<?>[] {EntityManager.class}, this);
+        }
+
+        @Override public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("createQuery")) {
+                queries.add((String) args[0]);
+                return query((String) args[0]);
+            } else {
+                throw new UnsupportedOperationException(method.getName());
+            }
+        }
+
+        private TypedQuery<?> query(final String jpql) {
+            return (TypedQuery<?>) Proxy.newProxyInstance(TypedQuery.class.getClassLoader(), new Class<?>[] {TypedQuery.class}, new InvocationHandler() {
+                private Object type;
+                @Override public Object invoke(Object query, Method method, Object[] args) {
+                    if (method.getName().equals("setParameter")) {
+                        type = args[1];
+                        return query;
+                    } else if (method.getName().equals("getResultList")) {
+                        if (jpql.contains("DeviceRevisionHead")) return deviceRevisions;
+                        else if (type == NamePartType.SECTION) return sectionRevisions;
+                        else return deviceTypeRevisions;
+                    } else {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                }
+            });
+        }
+    }
+
+    private static NamePartRevision revision(NamePartType type, @Nullable NamePart parent, String mnemonic) {
+        return new NamePartRevision(new NamePart(UUID.randomUUID(), type), new Date(), null, null, false, parent, mnemonic, mnemonic, null, mnemonic);
+    }
+
+    private static List<String> queriesForDevices(int deviceCount) {
+        final NamePartRevision superSection = revision(NamePartType.SECTION, null, "Acc");
+        final NamePartRevision section = revision(NamePartType.SECTION, superSection.getNamePart(), "Sec");
+        final NamePartRevision subsection = revision(NamePartType.SECTION, section.getNamePart(), "Sub");
+        final NamePartRevision discipline = revision(NamePartType.DEVICE_TYPE, null, "Dis");
+        final NamePartRevision deviceGroup = revision(NamePartType.DEVICE_TYPE, discipline.getNamePart(), "Grp");
+        final NamePartRevision deviceType = revision(NamePartType.DEVICE_TYPE, deviceGroup.getNamePart(), "Dev");
+
+        final List<DeviceRevision> deviceRevisions = Lists.newArrayList();
+        for (int i = 0; i < deviceCount; i++) {
+            final String name = "Sec-Sub:Dis-Dev-" + i;
+            deviceRevisions.add(new DeviceRevision(new Device(UUID.randomUUID()), new Date(), null, false, subsection.getNamePart(), deviceType.getNamePart(), String.valueOf(i), name, name, null));
+        }
+
+        final RecordingEntityManager recorder = new RecordingEntityManager(ImmutableList.of(superSection, section, subsection), ImmutableList.of(discipline, deviceGroup, deviceType), deviceRevisions);
+        final DeviceSnapshot snapshot = new DeviceSnapshotLoader(recorder.entityManager()).load(false);
+
+        assertEquals(deviceCount, snapshot.getDeviceRevisions().size());
+        for (DeviceRevision deviceRevision : snapshot.getDeviceRevisions()) {
+            final NamePartView sectionView = snapshot.getViewProvider().view(deviceRevision.getSection());
+            final NamePartView deviceTypeView = snapshot.getViewProvider().view(deviceRevision.getDeviceType());
+            assertEquals("Sec", sectionView.getParent().getMnemonic());
+            assertEquals("Dis", deviceTypeView.getParent().getParent().getMnemonic());
+            assertEquals(deviceRevision.getConventionName(), snapshot.getViewProvider().view(deviceRevision.getDevice()).getConventionName());
+        }
+        return recorder.queries;
+    }
+
+    @Test
+    public void createsTheSameQueriesForAnyNumberOfDevices() {
+        final List<String> queriesForOneDevice = queriesForDevices(1);
+        assertEquals("One query each for the sections, the device types and the devices", 3, queriesForOneDevice.size());
+        assertEquals(queriesForOneDevice, queriesForDevices(1000));
+    }
+
+    @Test
+    public void fetchesTheAssociationsUsedByTheViews() {
+        for (String query : queriesForDevices(1)) {
+            if (query.contains("DeviceRevisionHead")) {
+                assertTrue(query, query.contains("JOIN FETCH r.device") && query.contains("JOIN FETCH r.section") && query.contains("JOIN FETCH r.deviceType"));
+            } else {
+                assertTrue(query, query.contains("JOIN FETCH r.namePart") && query.contains("JOIN FETCH r.parent"));
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.services;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+import org.openepics.names.model.NamingChange;
+import org.openepics.names.model.NamingChangeKind;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the decisions a poll of the naming change log makes on the entries it has read.
+ */
+public class NamingChangeBatchTest {
+
+    private static final String NODE = "this";
+    private static final String OTHER_NODE = "other";
+
+    @Test
+    public void ownEntriesAreSkipped() {
+        final NamingChange other = change(11, NamingChangeKind.DEVICE, 3, OTHER_NODE);
+        final NamingChangeBatch batch = new NamingChangeBatch(ImmutableList.of(change(10, NamingChangeKind.DEVICE, 2, NODE), other), NODE, 9);
+        assertEquals(ImmutableList.of(other), batch.getChanges());
+        assertEquals(ImmutableSet.of(3L), batch.getDeviceIds());
+    }
+
+    @Test
+    public void cursorAdvancesToTheLastEntry() {
+        final NamingChangeBatch batch = new NamingChangeBatch(ImmutableList.of(change(10, NamingChangeKind.DEVICE, 2, OTHER_NODE), change(12, NamingChangeKind.NAME_PART, 5, NODE)), NODE, 9);
+        assertEquals(12, batch.getLastChangeId());
+    }
+
+    @Test
+    public void cursorAdvancesOverOwnEntries() {
+        final NamingChangeBatch batch = new NamingChangeBatch(ImmutableList.of(change(10, NamingChangeKind.DEVICE, 2, NODE)), NODE, 9);
+        assertTrue(batch.getChanges().isEmpty());
+        assertEquals(10, batch.getLastChangeId());
+    }
+
+    @Test
+    public void cursorStaysWithoutEntries() {
+        final NamingChangeBatch batch = new NamingChangeBatch(ImmutableList.<NamingChange>of(), NODE, 9);
+        assertTrue(batch.getChanges().isEmpty());
+        assertEquals(9, batch.getLastChangeId());
+    }
+
+    @Test
+    public void changedEntitiesAreCollectedByKind() {
+        final NamingChangeBatch batch = new NamingChangeBatch(ImmutableList.of(change(10, NamingChangeKind.NAME_PART, 1, OTHER_NODE), change(11, NamingChangeKind.DEVICE, 2, OTHER_NODE), change(12, NamingChangeKind.DEVICE, 2, OTHER_NODE)), NODE, 9);
+        assertEquals(ImmutableSet.of(1L), batch.getNamePartIds());
+        assertEquals(ImmutableSet.of(2L), batch.getDeviceIds());
+        assertFalse(batch.isRebuildRequired());
+    }
+
+    @Test
+    public void rebuildIsRequiredAboveTheIncrementalLimit() {
+        assertFalse(new NamingChangeBatch(changes(NamingChangeBatch.MAX_INCREMENTAL_CHANGES, OTHER_NODE), NODE, 0).isRebuildRequired());
+        assertTrue(new NamingChangeBatch(changes(NamingChangeBatch.MAX_INCREMENTAL_CHANGES + 1, OTHER_NODE), NODE, 0).isRebuildRequired());
+    }
+
+    @Test
+    public void ownEntriesDoNotCountTowardsTheIncrementalLimit() {
+        final List<NamingChange> entries = changes(NamingChangeBatch.MAX_INCREMENTAL_CHANGES + 1, NODE);
+        entries.add(change(NamingChangeBatch.MAX_INCREMENTAL_CHANGES + 2, NamingChangeKind.DEVICE, 1, OTHER_NODE));
+        assertFalse(new NamingChangeBatch(entries, NODE, 0).isRebuildRequired());
+    }
+
+    private static List<NamingChange> changes(int count, String node) {
+        final List<NamingChange> changes = Lists.newArrayList();
+        for (int i = 1; i <= count; i++) {
+            changes.add(change(i, NamingChangeKind.DEVICE, i, node));
+        }
+        return changes;
+    }
+
+    private static NamingChange change(final long changeId, NamingChangeKind kind, long entityId, String node) {
+        return new NamingChange(changeId, kind, entityId, node, new Date()) {{ id = changeId; }};
+    }
+}
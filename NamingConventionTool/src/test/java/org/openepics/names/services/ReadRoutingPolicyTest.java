@@ -0,0 +1,56 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.services;
+
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the decisions whether reads can be served by the read replica.
+ */
+public class ReadRoutingPolicyTest {
+
+    private static final long NOW = 1000000;
+    private final ReadRoutingPolicy policy = new ReadRoutingPolicy(30000);
+
+    @Test
+    public void replicaWithRecentHeartbeatIsUsable() {
+        assertTrue(policy.isReplicaUsable(new Date(NOW - 5000), 0, NOW));
+    }
+
+    @Test
+    public void replicaLaggingBeyondTheBoundIsNotUsable() {
+        assertFalse(policy.isReplicaUsable(new Date(NOW - 31000), 0, NOW));
+    }
+
+    @Test
+    public void unreadableReplicaIsNotUsable() {
+        assertFalse(policy.isReplicaUsable(null, 0, NOW));
+    }
+
+    @Test
+    public void replicaIsNotUsableUntilItHasReceivedTheLocalChanges() {
+        assertFalse(policy.isReplicaUsable(new Date(NOW - 5000), NOW - 2000, NOW));
+        assertTrue(policy.isReplicaUsable(new Date(NOW - 1000), NOW - 2000, NOW));
+    }
+}
@@ -0,0 +1,114 @@
+/*-
+* Copyright (c) 2014 European Spallation Source
+* Copyright (c) 2014 Cosylab d.d.
+*
+* This file is part of Naming Service.
+* Naming Service is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free
+* Software Foundation, either version 2 of the License, or any newer version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+* more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see https://www.gnu.org/licenses/gpl-2.0.txt
+*/
+
+package org.openepics.names.services.views;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+import org.openepics.names.model.DeviceNameSnapshot;
+import org.openepics.names.model.DeviceRevision;
+import org.openepics.names.model.NamePartRevision;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class NamingSnapshotTest {
+
+    private static DeviceNameSnapshot active(String section, String subSection, String discipline, String deviceType, String instanceIndex) {
+        final DeviceNameSnapshot deviceName = new DeviceNameSnapshot(subSection + ":" + discipline + "-" + deviceType + "-" + instanceIndex);
+        deviceName.updateActive(UUID.randomUUID(), section, subSection, discipline, deviceType, instanceIndex);
+        return deviceName;
+    }
+
+    private static DeviceNameSnapshot retired(String name) {
+        final DeviceNameSnapshot deviceName = new DeviceNameSnapshot(name);
+        deviceName.updateRetired(UUID.randomUUID(), true);
+        return deviceName;
+    }
+
+    private static final NamingSnapshot SNAPSHOT = new NamingSnapshot(1, 0, ImmutableList.<NamePartRevision>of(), ImmutableList.<NamePartRevision>of(), ImmutableList.<DeviceRevision>of(), ImmutableList.of(
+            active("Acc", "Sec-Sub", "Dis", "Dev", "002"),
+            active("Acc", "Sec-Sub", "Dis", "Dev", "001"),
+            active("Acc", "Sec-Sub", "Vac", "Pump", "001"),
+            active("Tgt", "Tgt-Sub", "Dis", "Dev", "001"),
+            retired("Sec-Sub:Dis-Dev-003")));
+
+    private static List<String> names(DeviceNameQuery query, @Nullable String after, int limit) {
+        return names(SNAPSHOT, query, after, limit);
+    }
+
+    private static List<String> names(NamingSnapshot snapshot, DeviceNameQuery query, @Nullable String after, int limit) {
+        final List<String> names = Lists.newArrayList();
+        for (DeviceNameSnapshot deviceName : snapshot.deviceNames(query, after, limit)) {
+            names.add(deviceName.getName());
+        }
+        return names;
+    }
+
+    private static DeviceNameQuery query(@Nullable String section, @Nullable String discipline, @Nullable String status, @Nullable String name) {
+        return new DeviceNameQuery(section, null, discipline, null, status, name);
+    }
+
+    @Test
+    public void filtersBySectionAndDiscipline() {
+        assertEquals(ImmutableList.of("Sec-Sub:Dis-Dev-001", "Sec-Sub:Dis-Dev-002", "Sec-Sub:Vac-Pump-001"), names(query("Acc", null, null, null), null, 10));
+        assertEquals(ImmutableList.of("Sec-Sub:Dis-Dev-001", "Sec-Sub:Dis-Dev-002", "Tgt-Sub:Dis-Dev-001"), names(query(null, "Dis", null, null), null, 10));
+        assertEquals(ImmutableList.of("Sec-Sub:Dis-Dev-001", "Sec-Sub:Dis-Dev-002"), names(query("Acc", "Dis", null, null), null, 10));
+        assertEquals(ImmutableList.of(), names(query("Unknown", null, null, null), null, 10));
+    }
+
+    @Test
+    public void filtersByNamePatternAndStatus() {
+        assertEquals(ImmutableList.of("Sec-Sub:Dis-Dev-001", "Sec-Sub:Dis-Dev-002", "Sec-Sub:Dis-Dev-003"), names(query(null, null, null, "Sec-Sub:Dis*"), null, 10));
+        assertEquals(ImmutableList.of("Sec-Sub:Dis-Dev-001", "Sec-Sub:Vac-Pump-001", "Tgt-Sub:Dis-Dev-001"), names(query(null, null, null, "*-001"), null, 10));
+        assertEquals(ImmutableList.of("Sec-Sub:Dis-Dev-003"), names(query(null, null, DeviceNameSnapshot.DELETED, "Sec-Sub:Dis-Dev-00?"), null, 10));
+    }
+
+    @Test
+    public void matchesNameWithoutWildcardsExactly() {
+        assertEquals(ImmutableList.of("Sec-Sub:Dis-Dev-001"), names(query(null, null, null, "Sec-Sub:Dis-Dev-001"), null, 10));
+        assertEquals(ImmutableList.of(), names(query(null, null, null, "Sec-Sub:Dis-Dev"), null, 10));
+        assertEquals(ImmutableList.of(), names(query(null, null, null, "Sec-Sub:Dis-Dev-001"), "Sec-Sub:Dis-Dev-001", 10));
+    }
+
+    @Test
+    public void movesChangedNamesBetweenIndexes() {
+        final DeviceNameSnapshot moved = active("Tgt", "Tgt-Sub", "Vac", "Pump", "001");
+        final NamingSnapshot changed = SNAPSHOT.withChanges(2, 1, ImmutableMap.<Long, Optional<NamePartRevision>>of(), ImmutableMap.<Long, Optional<NamePartRevision>>of(), ImmutableList.<DeviceRevision>of(), ImmutableList.of(moved, retired("Sec-Sub:Dis-Dev-001")));
+        assertEquals(ImmutableList.of("Sec-Sub:Dis-Dev-002", "Sec-Sub:Vac-Pump-001"), names(changed, query("Acc", null, null, null), null, 10));
+        assertEquals(ImmutableList.of("Tgt-Sub:Dis-Dev-001", "Tgt-Sub:Vac-Pump-001"), names(changed, query("Tgt", null, null, null), null, 10));
+        assertEquals(ImmutableList.of("Sec-Sub:Dis-Dev-002", "Tgt-Sub:Dis-Dev-001"), names(changed, query(null, "Dis", null, null), null, 10));
+        assertEquals(ImmutableList.of("Sec-Sub:Dis-Dev-001", "Sec-Sub:Dis-Dev-002", "Sec-Sub:Dis-Dev-003"), names(changed, query(null, null, null, "Sec-Sub:Dis*"), null, 10));
+        assertEquals(ImmutableList.of("Sec-Sub:Dis-Dev-001", "Sec-Sub:Dis-Dev-002", "Sec-Sub:Vac-Pump-001"), names(query("Acc", null, null, null), null, 10));
+    }
+
+    @Test
+    public void pagesInNameOrder() {
+        final DeviceNameQuery all = query(null, null, null, null);
+        assertEquals(ImmutableList.of("Sec-Sub:Dis-Dev-001", "Sec-Sub:Dis-Dev-002"), names(all, null, 2));
+        assertEquals(ImmutableList.of("Sec-Sub:Dis-Dev-003", "Sec-Sub:Vac-Pump-001"), names(all, "Sec-Sub:Dis-Dev-002", 2));
+        assertEquals(ImmutableList.of("Tgt-Sub:Dis-Dev-001"), names(all, "Sec-Sub:Vac-Pump-001", 2));
+        assertEquals(ImmutableList.of("Sec-Sub:Dis-Dev-002"), names(query("Acc", "Dis", null, null), "Sec-Sub:Dis-Dev-001", 10));
+    }
+}